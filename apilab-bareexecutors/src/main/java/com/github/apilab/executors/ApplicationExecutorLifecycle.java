@@ -16,7 +16,6 @@
 package com.github.apilab.executors;
 
 import com.github.apilab.core.Env;
-import java.util.Optional;
 import javax.inject.Inject;
 import com.github.apilab.core.ApplicationLifecycleItem;
 
@@ -28,6 +27,8 @@ public class ApplicationExecutorLifecycle implements ApplicationLifecycleItem {
 
   @Inject Env env;
   @Inject ApplicationScheduler applicationScheduler;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enableExecutors;
 
   @Inject
   public ApplicationExecutorLifecycle() {
@@ -36,22 +37,24 @@ public class ApplicationExecutorLifecycle implements ApplicationLifecycleItem {
 
   @Override
   public void start() {
-    if (enableExecutors()) {
+    enableExecutors = env.getBoolean(() -> "API_ENABLE_SCHEDULED", false);
+    if (enableExecutors) {
       applicationScheduler.start();
     }
   }
 
   @Override
   public void stop() {
-    if (enableExecutors()) {
+    if (enableExecutors) {
       applicationScheduler.stop();
     }
   }
 
+  /**
+   * @return if the executors were enabled on the last start
+   */
   public boolean enableExecutors() {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_SCHEDULED"))
-      .map(Boolean::valueOf)
-      .orElse(false);
+    return enableExecutors;
   }
 
 }
@@ -17,18 +17,41 @@ package com.github.apilab.barehttp;
 
 import com.github.apilab.core.ApplicationLifecycleItem;
 import com.github.apilab.core.Env;
+import com.github.apilab.core.VirtualThreads;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
-import static java.util.Optional.ofNullable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Starts the JDK http server with all the injected handlers, when API_ENABLE_BAREHTTP is true.
+ *
+ * - API_BAREHTTP_ENGINE: 'sun' (default) for the JDK server, 'nio' for the {@link NioHttpServer}.
+ *   The nio one reads API_BAREHTTP_SELECTORS (one per core), API_BAREHTTP_IDLE_TIMEOUT (30s) and
+ *   API_BAREHTTP_MAX_BODY (10MB), see {@link NioHttpOptions}.
+ * - API_BAREHTTP_PORT: the port, defaults to 8000.
+ * - API_BAREHTTP_BACKLOG: the socket backlog, defaults to 100.
+ * - API_BAREHTTP_THREADS: the handler threads, defaults to the backlog.
+ * - API_BAREHTTP_VIRTUAL_THREADS: a virtual thread per request instead of the thread pool,
+ *   when the runtime has them. Defaults to false.
+ * - API_BAREHTTP_MAX_CONCURRENCY: requests handled at the same time, 0 (default) for no limit.
+ *   Requests over the limit wait up to API_BAREHTTP_CONCURRENCY_TIMEOUT (1s), then get a 503.
+ * - API_BAREHTTP_DRAIN_TIMEOUT: on stop, new requests get a 503 and the requests in flight
+ *   have this long to complete before the server is closed. Defaults to 10s.
+ * - API_BAREHTTP_COMPRESS_ABOVE: responses of at least this many bytes are gzip/deflate
+ *   compressed for the clients accepting it, 0 (default) for no compression.
+ *
+ * Every context exports its request metrics to prometheus, see {@link MetricsFilter}.
+ */
 public class BareHttpLifecycle implements ApplicationLifecycleItem {
 
   private static final Logger LOG = LoggerFactory.getLogger(ApplicationLifecycleItem.class);
@@ -36,6 +59,10 @@ public class BareHttpLifecycle implements ApplicationLifecycleItem {
   @Inject Env env;
   @Inject Map<String, HttpHandler> handlers;
   HttpServer server;
+  ExecutorService executor;
+  InFlightFilter inFlight;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enabled;
 
   @Inject
   public BareHttpLifecycle() {
@@ -44,44 +71,115 @@ public class BareHttpLifecycle implements ApplicationLifecycleItem {
 
   @Override
   public void start() {
-    if (enabled(env) && server == null) {
+    enabled = env.getBoolean(() -> "API_ENABLE_BAREHTTP", false);
+    if (enabled && server == null) {
       var port = getPort(env);
       var backlog = getBacklog(env);
-      LOG.info("## STARTING BARE HTTP SERVER FROM SUN, port: {}, backlog/threads: {}", port, backlog);
+      var limiter = concurrencyLimit(env);
+      var compressAbove = env.getInt(() -> "API_BAREHTTP_COMPRESS_ABOVE", 0);
+      inFlight = new InFlightFilter();
+      var nio = "nio".equalsIgnoreCase(env.get(() -> "API_BAREHTTP_ENGINE"));
+      LOG.info("## STARTING BARE HTTP SERVER FROM {}, port: {}, backlog: {}", nio ? "NIO" : "SUN", port, backlog);
       try {
-        server = HttpServer.create(new InetSocketAddress(port), backlog);
+        server = nio
+          ? NioHttpServer.create(new InetSocketAddress(port), backlog, nioOptions(env))
+          : HttpServer.create(new InetSocketAddress(port), backlog);
         handlers.entrySet().forEach(e -> {
           LOG.info("## REGISTERING BARE HTTP SERVER HANDLER: '{}'", e.getKey());
-          server.createContext(e.getKey(), e.getValue());
+          var context = server.createContext(e.getKey(), e.getValue());
+          context.getFilters().add(inFlight);
+          context.getFilters().add(new MetricsFilter(e.getKey()));
+          limiter.ifPresent(context.getFilters()::add);
+          if (compressAbove > 0) {
+            context.getFilters().add(new CompressionFilter(compressAbove));
+          }
         });
-        server.setExecutor(Executors.newFixedThreadPool(backlog));
+        executor = createExecutor(env, backlog);
+        server.setExecutor(executor);
         server.start(); } catch (IOException ex) { throw new IllegalStateException(ex.getMessage(), ex); }
     }
   }
 
+  @Override
+  public int phase() {
+    return PHASE_SERVERS;
+  }
+
   @Override
   public void stop() {
-    if (enabled(env) && server != null) {
-      server.stop(1);
+    if (enabled && server != null) {
+      var timeout = env.getDuration(() -> "API_BAREHTTP_DRAIN_TIMEOUT", Duration.ofSeconds(10));
+      var deadline = System.nanoTime() + timeout.toNanos();
+      LOG.info("## STOPPING BARE HTTP SERVER, draining {} requests in flight for up to {}", inFlight.inFlight(), timeout);
+      inFlight.drain();
+      // Both engines close the listener first, then wait for the exchanges in flight.
+      // The JDK one waits for the whole delay when there are none, so it is not given any then.
+      server.stop(inFlight.inFlight() > 0 ? drainSeconds(timeout) : 0);
+      LOG.info("## BARE HTTP SERVER DRAINED, completed: {}, slowest: {} ms, cut off: {}",
+        inFlight.completed(), inFlight.slowestNanos() / 1_000_000, inFlight.inFlight());
+      shutdown(executor, deadline);
       server = null;
+      executor = null;
     }
   }
 
-  private static boolean enabled(Env env) {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_BAREHTTP"))
-        .map(Boolean::valueOf)
-        .orElse(false);
+  private static int drainSeconds(Duration timeout) {
+    // The server takes whole seconds, rounded up to not cut off the requests early.
+    return (int) Math.min(Integer.MAX_VALUE, (timeout.toMillis() + 999) / 1000);
+  }
+
+  private static void shutdown(ExecutorService executor, long deadline) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+        LOG.warn("## BARE HTTP SERVER handlers still running after the drain, interrupting them");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
   }
 
   private static int getPort(Env env) {
-    return ofNullable(env.get(() -> "API_BAREHTTP_PORT"))
-      .map(Integer::valueOf)
-      .orElse(8000);
+    return env.getInt(() -> "API_BAREHTTP_PORT", 8000);
   }
 
   private static int getBacklog(Env env) {
-    return ofNullable(env.get(() -> "API_BAREHTTP_BACKLOG"))
-      .map(Integer::valueOf)
-      .orElse(100);
+    return env.getInt(() -> "API_BAREHTTP_BACKLOG", 100);
+  }
+
+  private static NioHttpOptions nioOptions(Env env) {
+    var defaults = ImmutableNioHttpOptions.builder().build();
+    return ImmutableNioHttpOptions.builder()
+      .selectors(env.getInt(() -> "API_BAREHTTP_SELECTORS", defaults.selectors()))
+      .idleTimeout(env.getDuration(() -> "API_BAREHTTP_IDLE_TIMEOUT", defaults.idleTimeout()))
+      .maxBodySize(env.getInt(() -> "API_BAREHTTP_MAX_BODY", defaults.maxBodySize()))
+      .build();
+  }
+
+  private static ExecutorService createExecutor(Env env, int backlog) {
+    if (env.getBoolean(() -> "API_BAREHTTP_VIRTUAL_THREADS", false)) {
+      var virtual = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      if (virtual.isPresent()) {
+        LOG.info("## BARE HTTP SERVER threads: virtual");
+        return virtual.get();
+      }
+      LOG.warn("## BARE HTTP SERVER virtual threads are not available, using a thread pool");
+    }
+    // The backlog used to be the thread count too, it stays the default.
+    var threads = env.getInt(() -> "API_BAREHTTP_THREADS", backlog);
+    LOG.info("## BARE HTTP SERVER threads: {}", threads);
+    return Executors.newFixedThreadPool(threads);
+  }
+
+  private static Optional<ConcurrencyLimitFilter> concurrencyLimit(Env env) {
+    var max = env.getInt(() -> "API_BAREHTTP_MAX_CONCURRENCY", 0);
+    if (max <= 0) {
+      return Optional.empty();
+    }
+    LOG.info("## BARE HTTP SERVER max concurrency: {}", max);
+    return Optional.of(new ConcurrencyLimitFilter(
+      max, env.getDuration(() -> "API_BAREHTTP_CONCURRENCY_TIMEOUT", Duration.ofSeconds(1))));
   }
 }
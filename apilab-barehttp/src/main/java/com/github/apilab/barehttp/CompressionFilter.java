@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the responses with gzip or deflate, whichever the client accepts, gzip first.
+ *
+ * Responses shorter than the threshold are sent as they are. When the length is not known
+ * upfront, the body is held until it reaches the threshold: shorter ones are sent with their
+ * length, longer ones compressed. Responses already encoded and media that is compressed
+ * already (images, video, audio, archives) are left alone. The ETag of a compressed response
+ * is made weak, the bytes are not the ones it was given to.
+ */
+public class CompressionFilter extends Filter {
+
+  private final int threshold;
+
+  /**
+   * @param threshold bodies with fewer bytes than this are not compressed
+   */
+  public CompressionFilter(int threshold) {
+    this.threshold = threshold;
+  }
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    var encoding = encoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    if (encoding == null || "HEAD".equals(exchange.getRequestMethod())) {
+      chain.doFilter(exchange);
+      return;
+    }
+    var compressing = new CompressingExchange(exchange, encoding);
+    try {
+      chain.doFilter(compressing);
+    } finally {
+      compressing.close();
+    }
+  }
+
+  @Override
+  public String description() {
+    return "Response compression";
+  }
+
+  /**
+   * @param accept the Accept-Encoding header
+   * @return gzip or deflate, null if the client accepts none of them
+   */
+  static String encoding(String accept) {
+    if (accept == null) {
+      return null;
+    }
+    var deflate = false;
+    for (String part: accept.split(",")) {
+      var params = part.split(";");
+      var name = params[0].trim().toLowerCase(Locale.ROOT);
+      if (params.length > 1 && params[1].replace(" ", "").matches("q=0(\\.0*)?")) {
+        continue;
+      }
+      if ("gzip".equals(name) || "*".equals(name)) {
+        return "gzip";
+      }
+      deflate |= "deflate".equals(name);
+    }
+    return deflate ? "deflate" : null;
+  }
+
+  static boolean compressible(String contentType) {
+    if (contentType == null) {
+      return true;
+    }
+    var type = contentType.toLowerCase(Locale.ROOT);
+    return !(type.startsWith("image/") && !type.startsWith("image/svg"))
+      && !type.startsWith("video/")
+      && !type.startsWith("audio/")
+      && !type.contains("zip")
+      && !type.contains("compressed");
+  }
+
+  /**
+   * The exchange given to the handler, deciding on the response headers if and how to compress.
+   */
+  private final class CompressingExchange extends HttpExchange {
+
+    private final HttpExchange exchange;
+    private final String encoding;
+    // Also given out before the headers are sent, so it has to be the same stream from the start.
+    private final HeldBody body = new HeldBody();
+    private OutputStream replaced;
+
+    CompressingExchange(HttpExchange exchange, String encoding) {
+      this.exchange = exchange;
+      this.encoding = encoding;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+      if (body.code != -1) {
+        throw new IOException("Response headers already sent");
+      }
+      body.start(code, length);
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+      return replaced != null ? replaced : body;
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (replaced != null) {
+          replaced.close();
+        }
+        body.close();
+      } catch (IOException ex) {
+        // the exchange is closed anyway
+      }
+      exchange.close();
+    }
+
+    @Override
+    public int getResponseCode() {
+      return body.code;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+      return exchange.getRequestHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+      return exchange.getResponseHeaders();
+    }
+
+    @Override
+    public URI getRequestURI() {
+      return exchange.getRequestURI();
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return exchange.getRequestMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+      return exchange.getHttpContext();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+      return exchange.getRequestBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+      return exchange.getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+      return exchange.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+      return exchange.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return exchange.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      exchange.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream in, OutputStream out) {
+      // The output is wrapped on top of this one, the compression stays underneath.
+      exchange.setStreams(in, null);
+      if (out != null) {
+        replaced = out;
+      }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+      return exchange.getPrincipal();
+    }
+
+    /**
+     * The response body, before and after the headers are sent. It holds the body until it is
+     * known whether it is worth compressing. Files are passed on when sent as they are.
+     */
+    private final class HeldBody extends OutputStream implements FileTransfer {
+      private int code = -1;
+      private ByteArrayOutputStream held;
+      private OutputStream out;
+      private boolean uncompressed;
+      private boolean closed;
+
+      void start(int code, long length) throws IOException {
+        this.code = code;
+        var headers = exchange.getResponseHeaders();
+        if (length < 0 || (length > 0 && length < threshold) || code < 200 || code == 204 || code == 304
+          || headers.containsKey("Content-Encoding") || !compressible(headers.getFirst("Content-Type"))) {
+          exchange.sendResponseHeaders(code, length);
+          out = exchange.getResponseBody();
+          uncompressed = true;
+          return;
+        }
+        held = new ByteArrayOutputStream();
+        if (length > 0) {
+          compress();
+        }
+      }
+
+      void compress() throws IOException {
+        var headers = exchange.getResponseHeaders();
+        headers.set("Content-Encoding", encoding);
+        headers.add("Vary", "Accept-Encoding");
+        // The tag was given to the bytes before compression, these are only equivalent to them.
+        var etag = headers.getFirst("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+          headers.set("ETag", "W/" + etag);
+        }
+        exchange.sendResponseHeaders(code, 0);
+        var target = exchange.getResponseBody();
+        out = "gzip".equals(encoding)
+          ? new GZIPOutputStream(target, 8192, true)
+          : new DeflaterOutputStream(target, true);
+        held.writeTo(out);
+        held = null;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (code == -1) {
+          throw new IOException("Response headers not sent yet");
+        }
+        if (out != null) {
+          out.write(b, off, len);
+          return;
+        }
+        held.write(b, off, len);
+        if (held.size() >= threshold) {
+          compress();
+        }
+      }
+
+      @Override
+      public boolean transferFrom(FileChannel file, long position, long count) throws IOException {
+        if (code == -1) {
+          throw new IOException("Response headers not sent yet");
+        }
+        return uncompressed && out instanceof FileTransfer && ((FileTransfer) out).transferFrom(file, position, count);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (code == -1) {
+          return;
+        }
+        // Flushing means the client should see this much already: it can't wait for the threshold.
+        if (out == null) {
+          compress();
+        }
+        out.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        if (code == -1) {
+          return;
+        }
+        if (out != null) {
+          out.close();
+          return;
+        }
+        exchange.sendResponseHeaders(code, held.size() == 0 ? -1 : held.size());
+        try (var target = exchange.getResponseBody()) {
+          held.writeTo(target);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the requests handled at the same time, shared by all the contexts it is added to.
+ * A request waits for a slot up to the timeout, then it is answered with a 503.
+ * Useful with virtual threads, where the executor itself has no limit.
+ */
+public class ConcurrencyLimitFilter extends Filter {
+
+  private final Semaphore permits;
+  private final Duration timeout;
+
+  public ConcurrencyLimitFilter(int maxConcurrency, Duration timeout) {
+    this.permits = new Semaphore(maxConcurrency, true);
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    if (!acquired) {
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+    try {
+      chain.doFilter(exchange);
+    } finally {
+      permits.release();
+    }
+  }
+
+  @Override
+  public String description() {
+    return "Concurrency limit";
+  }
+
+  int available() {
+    return permits.availablePermits();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of the same size.
+ * Direct buffers are written to the sockets without a copy, but they are costly to allocate
+ * and are freed only by the GC, so they are reused.
+ */
+final class DirectBufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  DirectBufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  ByteBuffer acquire() {
+    var buffer = pool.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    pooled.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * @param buffer a buffer from this pool, anything else is ignored
+   */
+  void release(ByteBuffer buffer) {
+    if (!buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != bufferSize) {
+      return;
+    }
+    if (pooled.incrementAndGet() > maxPooled) {
+      pooled.decrementAndGet();
+      return;
+    }
+    buffer.clear();
+    pool.offer(buffer);
+  }
+
+  int bufferSize() {
+    return bufferSize;
+  }
+
+  int pooled() {
+    return pooled.get();
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implemented by the response streams that can send a file without copying it through the heap.
+ */
+interface FileTransfer {
+
+  /**
+   * @param file the file
+   * @param position where to start from
+   * @param count how many bytes to send
+   * @return false if the stream can't do it now, and nothing was written
+   * @throws IOException if sending fails
+   */
+  boolean transferFrom(FileChannel file, long position, long count) throws IOException;
+}
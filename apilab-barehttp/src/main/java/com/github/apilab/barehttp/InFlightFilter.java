@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import io.prometheus.client.Gauge;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the requests being handled, shared by all the contexts it is added to, so that the
+ * server can be drained on stop. Exported in the apilab_barehttp_in_flight gauge.
+ * The server stops accepting connections before draining, so once draining only the requests
+ * still coming on open keep-alive connections are seen: they are answered with a 503 and
+ * their connection is closed.
+ */
+public class InFlightFilter extends Filter {
+
+  private static final Gauge IN_FLIGHT = Gauge.build()
+    .name("apilab_barehttp_in_flight")
+    .help("Requests being handled by the bare http server")
+    .register();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder completed = new LongAdder();
+  private final LongAccumulator slowest = new LongAccumulator(Math::max, 0);
+  private volatile boolean draining;
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    if (draining) {
+      exchange.getResponseHeaders().set("Connection", "close");
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+    var begin = System.nanoTime();
+    inFlight.incrementAndGet();
+    IN_FLIGHT.inc();
+    try {
+      chain.doFilter(exchange);
+    } finally {
+      inFlight.decrementAndGet();
+      IN_FLIGHT.dec();
+      completed.increment();
+      slowest.accumulate(System.nanoTime() - begin);
+    }
+  }
+
+  @Override
+  public String description() {
+    return "In flight requests";
+  }
+
+  /**
+   * Refuses the requests from now on, and resets the counters.
+   */
+  public void drain() {
+    reset();
+    draining = true;
+  }
+
+  public boolean draining() {
+    return draining;
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return requests completed since the last reset
+   */
+  public long completed() {
+    return completed.sum();
+  }
+
+  /**
+   * @return the slowest request since the last reset, in nanoseconds
+   */
+  public long slowestNanos() {
+    return slowest.get();
+  }
+
+  public void reset() {
+    completed.reset();
+    slowest.reset();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Prometheus metrics of a context: requests by status class, bytes received and sent, and the
+ * latency histogram. One filter per context, the metric children are resolved once here so
+ * that recording a request is only adding to the preallocated adders.
+ * Bytes received are the declared content length. Bytes sent are read from the exchange on the
+ * NIO engine, which counts them anyway, so no object is created per request. The JDK engine has
+ * no such count: there the body stream is wrapped in a counting one.
+ */
+public class MetricsFilter extends Filter {
+
+  private static final Counter REQUESTS = Counter.build()
+    .name("apilab_barehttp_requests_total")
+    .help("Requests of the bare http server, by context and status class")
+    .labelNames("context", "status")
+    .register();
+  private static final Counter RECEIVED = Counter.build()
+    .name("apilab_barehttp_received_bytes_total")
+    .help("Request body bytes received by the bare http server, by context")
+    .labelNames("context")
+    .register();
+  private static final Counter SENT = Counter.build()
+    .name("apilab_barehttp_sent_bytes_total")
+    .help("Response body bytes sent by the bare http server, by context")
+    .labelNames("context")
+    .register();
+  private static final Histogram LATENCY = Histogram.build()
+    .name("apilab_barehttp_request_seconds")
+    .help("Time taken by the bare http server to handle a request, by context")
+    .labelNames("context")
+    .register();
+
+  private final Counter.Child[] requests = new Counter.Child[6];
+  private final Counter.Child received;
+  private final Counter.Child sent;
+  private final Histogram.Child latency;
+
+  public MetricsFilter(String context) {
+    // 0 is for exchanges closed without a response
+    requests[0] = REQUESTS.labels(context, "none");
+    for (int i = 1; i < requests.length; i++) {
+      requests[i] = REQUESTS.labels(context, i + "xx");
+    }
+    received = RECEIVED.labels(context);
+    sent = SENT.labels(context);
+    latency = LATENCY.labels(context);
+  }
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    var begin = System.nanoTime();
+    var nio = exchange instanceof NioHttpExchange;
+    if (!nio) {
+      exchange.setStreams(null, new CountingStream(exchange.getResponseBody()));
+    }
+    try {
+      chain.doFilter(exchange);
+    } finally {
+      latency.observe((System.nanoTime() - begin) / 1e9);
+      var code = exchange.getResponseCode();
+      requests[code >= 100 && code < 600 ? code / 100 : 0].inc();
+      received.inc(contentLength(exchange));
+      if (nio) {
+        sent.inc(((NioHttpExchange) exchange).bodyBytes());
+      }
+    }
+  }
+
+  @Override
+  public String description() {
+    return "Metrics";
+  }
+
+  private static long contentLength(HttpExchange exchange) {
+    var value = exchange.getRequestHeaders().getFirst("Content-Length");
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, Long.parseLong(value));
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * Counts on close, writes go straight through.
+   */
+  private final class CountingStream extends FilterOutputStream implements FileTransfer {
+    private long count;
+    private boolean closed;
+
+    CountingStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public boolean transferFrom(FileChannel file, long position, long length) throws IOException {
+      if (out instanceof FileTransfer && ((FileTransfer) out).transferFrom(file, position, length)) {
+        count += length;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        sent.inc(count);
+      }
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A client connection of the {@link NioHttpServer}.
+ *
+ * The selector thread reads until a whole request is there, then stops reading and hands the
+ * exchange over to the server. The response is queued back in pooled buffers and written by the
+ * selector thread; once it is complete the connection reads the next request, already buffered
+ * ones first (pipelining). The thread writing the response waits if too many buffers are queued.
+ */
+final class NioConnection {
+
+  private static final int MAX_HEAD_SIZE = 16 * 1024;
+  private static final int MAX_QUEUED_BUFFERS = 16;
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+  private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(ISO_8859_1);
+
+  private final SelectorLoop loop;
+  private final SocketChannel channel;
+  private final SelectionKey key;
+  private final InetSocketAddress remoteAddress;
+  private final InetSocketAddress localAddress;
+  private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+  private final Object flow = new Object();
+
+  private byte[] input = new byte[1024];
+  private int inputLength;
+  private boolean busy;
+  private boolean closeAfterResponse;
+  private boolean continueSent;
+  private long lastActive = System.nanoTime();
+  private volatile boolean closed;
+  private int queuedBuffers;
+
+  NioConnection(SelectorLoop loop, SocketChannel channel, SelectionKey key) throws IOException {
+    this.loop = loop;
+    this.channel = channel;
+    this.key = key;
+    this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+    this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+  }
+
+  InetSocketAddress remoteAddress() {
+    return remoteAddress;
+  }
+
+  InetSocketAddress localAddress() {
+    return localAddress;
+  }
+
+  DirectBufferPool buffers() {
+    return loop.server().buffers();
+  }
+
+  boolean idle(long now, long timeoutNanos) {
+    return !busy && now - lastActive > timeoutNanos;
+  }
+
+  void onReadable(ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    var count = channel.read(buffer);
+    if (count < 0) {
+      close();
+      return;
+    }
+    lastActive = System.nanoTime();
+    buffer.flip();
+    ensureInput(inputLength + buffer.remaining());
+    buffer.get(input, inputLength, buffer.remaining());
+    inputLength += count;
+    if (!busy) {
+      parse();
+    }
+  }
+
+  void onWritable() {
+    flush();
+  }
+
+  /**
+   * Queues a buffer of the response, to be written by the selector thread.
+   * Called by the thread writing the response.
+   * @param buffer ready to be read, if it is from the pool it goes back there once written
+   * @throws IOException if the connection is closed
+   */
+  void send(ByteBuffer buffer) throws IOException {
+    synchronized (flow) {
+      // The selector thread itself can't wait for its own writes.
+      while (!loop.inLoop() && queuedBuffers >= MAX_QUEUED_BUFFERS && !closed) {
+        try {
+          flow.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(ex.getMessage());
+        }
+      }
+      if (closed) {
+        buffers().release(buffer);
+        throw new IOException("Connection closed");
+      }
+      queuedBuffers++;
+    }
+    loop.execute(() -> {
+      if (closed) {
+        written(buffer);
+        return;
+      }
+      writes.add(buffer);
+      flush();
+    });
+  }
+
+  /**
+   * Ends the response, after the buffers already sent.
+   * @param close true to close the connection once written
+   */
+  void finish(boolean close) {
+    loop.execute(() -> {
+      closeAfterResponse |= close;
+      writes.add(END);
+      flush();
+    });
+  }
+
+  /**
+   * Closes the connection, from the selector thread.
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    key.cancel();
+    try { channel.close(); } catch (IOException ex) { /* closing anyway */ }
+    writes.forEach(this::written);
+    writes.clear();
+    synchronized (flow) {
+      flow.notifyAll();
+    }
+    loop.removed(this);
+  }
+
+  private void parse() {
+    skipEmptyLines();
+    var headEnd = headEnd();
+    if (headEnd < 0) {
+      if (inputLength > MAX_HEAD_SIZE) {
+        reject(431, "Request Header Fields Too Large");
+      }
+      return;
+    }
+    RequestHead head;
+    long length;
+    try {
+      head = RequestHead.parse(input, headEnd - 4);
+      length = head.contentLength();
+    } catch (IllegalArgumentException ex) {
+      reject(400, "Bad Request");
+      return;
+    }
+    if (head.chunked()) {
+      reject(411, "Length Required");
+      return;
+    }
+    if (length > loop.server().options().maxBodySize()) {
+      reject(413, "Payload Too Large");
+      return;
+    }
+    if (inputLength < headEnd + length) {
+      if (head.expectsContinue() && !continueSent) {
+        continueSent = true;
+        writes.add(ByteBuffer.wrap(CONTINUE));
+        flush();
+      }
+      return;
+    }
+    var body = Arrays.copyOfRange(input, headEnd, headEnd + (int) length);
+    consume(headEnd + (int) length);
+    continueSent = false;
+    busy = true;
+    closeAfterResponse = !head.keepAlive();
+    // Nothing more is read until this response is written.
+    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    var server = loop.server();
+    server.dispatch(new NioHttpExchange(this, head, body, server.context(head.uri.getPath())));
+  }
+
+  private void reject(int code, String reason) {
+    busy = true;
+    closeAfterResponse = true;
+    var response = "HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+    writes.add(ByteBuffer.wrap(response.getBytes(ISO_8859_1)));
+    writes.add(END);
+    flush();
+  }
+
+  private void flush() {
+    try {
+      while (!writes.isEmpty()) {
+        var buffer = writes.peek();
+        if (buffer == END) {
+          writes.poll();
+          completed();
+          if (closed) {
+            return;
+          }
+          continue;
+        }
+        channel.write(buffer);
+        if (buffer.hasRemaining()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        writes.poll();
+        written(buffer);
+      }
+      if (key.isValid()) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+    } catch (IOException ex) {
+      close();
+    }
+  }
+
+  private void written(ByteBuffer buffer) {
+    if (buffer == END) {
+      return;
+    }
+    buffers().release(buffer);
+    if (buffer.isDirect()) {
+      synchronized (flow) {
+        queuedBuffers--;
+        flow.notifyAll();
+      }
+    }
+  }
+
+  private void completed() {
+    if (closeAfterResponse) {
+      close();
+      return;
+    }
+    busy = false;
+    lastActive = System.nanoTime();
+    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    // Requests already read, if pipelined, on the next turn so that they don't pile up the stack.
+    loop.later(() -> {
+      if (!closed && !busy) {
+        parse();
+      }
+    });
+  }
+
+  private void skipEmptyLines() {
+    var skip = 0;
+    while (skip < inputLength && (input[skip] == '\r' || input[skip] == '\n')) {
+      skip++;
+    }
+    consume(skip);
+  }
+
+  private int headEnd() {
+    for (int i = 3; i < inputLength; i++) {
+      if (input[i] == '\n' && input[i - 1] == '\r' && input[i - 2] == '\n' && input[i - 3] == '\r') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private void consume(int count) {
+    if (count == 0) {
+      return;
+    }
+    System.arraycopy(input, count, input, 0, inputLength - count);
+    inputLength -= count;
+    if (inputLength == 0 && input.length > MAX_HEAD_SIZE) {
+      // Do not keep the memory of a big body for the whole keep-alive.
+      input = new byte[1024];
+    }
+  }
+
+  private void ensureInput(int size) {
+    if (size > input.length) {
+      input = Arrays.copyOf(input, Math.max(size, input.length * 2));
+    }
+  }
+}
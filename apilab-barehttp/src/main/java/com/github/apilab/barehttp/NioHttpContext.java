@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A context of the {@link NioHttpServer}.
+ */
+final class NioHttpContext extends HttpContext {
+
+  private final NioHttpServer server;
+  private final String path;
+  private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+  private final List<Filter> filters = new CopyOnWriteArrayList<>();
+  private volatile HttpHandler handler;
+  private volatile Authenticator authenticator;
+
+  NioHttpContext(NioHttpServer server, String path, HttpHandler handler) {
+    this.server = server;
+    this.path = path;
+    this.handler = handler;
+  }
+
+  @Override
+  public HttpHandler getHandler() {
+    return handler;
+  }
+
+  @Override
+  public void setHandler(HttpHandler handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public HttpServer getServer() {
+    return server;
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  @Override
+  public List<Filter> getFilters() {
+    return filters;
+  }
+
+  @Override
+  public Authenticator setAuthenticator(Authenticator authenticator) {
+    var previous = this.authenticator;
+    this.authenticator = authenticator;
+    return previous;
+  }
+
+  @Override
+  public Authenticator getAuthenticator() {
+    return authenticator;
+  }
+}
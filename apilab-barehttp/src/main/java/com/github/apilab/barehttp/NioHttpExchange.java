@@ -0,0 +1,463 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An exchange of the {@link NioHttpServer}, the request is already fully read.
+ *
+ * The response is written in pooled direct buffers, the headers in the same buffer as the start
+ * of the body: a small response is a single write. Bodies of unknown length are chunked, and
+ * each buffer is a chunk. Files of a fixed length response are sent as mapped buffers.
+ */
+final class NioHttpExchange extends HttpExchange {
+
+  private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(ISO_8859_1);
+  private static final long MAPPED_SLICE = 1024 * 1024;
+
+  private static volatile long dateSecond;
+  private static volatile String date;
+
+  private final NioConnection connection;
+  private final RequestHead head;
+  private final NioHttpContext context;
+  private final Headers responseHeaders = new Headers();
+  private final Map<String, Object> attributes = new HashMap<>();
+  private final ResponseStream response = new ResponseStream();
+  private InputStream requestBody;
+  private OutputStream responseBody = response;
+  private int responseCode = -1;
+  private HttpPrincipal principal;
+
+  NioHttpExchange(NioConnection connection, RequestHead head, byte[] body, NioHttpContext context) {
+    this.connection = connection;
+    this.head = head;
+    this.context = context;
+    this.requestBody = new ByteArrayInputStream(body);
+  }
+
+  NioHttpContext context() {
+    return context;
+  }
+
+  void principal(HttpPrincipal principal) {
+    this.principal = principal;
+  }
+
+  /**
+   * @return the response body bytes sent so far, files included, without the chunk framing
+   */
+  long bodyBytes() {
+    return response.bodyBytes;
+  }
+
+  /**
+   * The handler failed: a 500 if nothing was sent yet, otherwise the connection is closed
+   * since the response can't be trusted.
+   */
+  void fail() {
+    if (responseCode == -1) {
+      try {
+        sendResponseHeaders(500, -1);
+      } catch (IOException ex) {
+        response.forceClose = true;
+      }
+    } else {
+      response.forceClose = true;
+    }
+  }
+
+  @Override
+  public Headers getRequestHeaders() {
+    return head.headers;
+  }
+
+  @Override
+  public Headers getResponseHeaders() {
+    return responseHeaders;
+  }
+
+  @Override
+  public URI getRequestURI() {
+    return head.uri;
+  }
+
+  @Override
+  public String getRequestMethod() {
+    return head.method;
+  }
+
+  @Override
+  public HttpContext getHttpContext() {
+    return context;
+  }
+
+  @Override
+  public void close() {
+    try {
+      requestBody.close();
+    } catch (IOException ex) {
+      // nothing to release
+    }
+    if (responseCode == -1) {
+      if (!response.closed) {
+        response.closed = true;
+        connection.finish(true);
+      }
+      return;
+    }
+    try {
+      responseBody.close();
+    } catch (IOException ex) {
+      response.forceClose = true;
+      try { response.close(); } catch (IOException e) { /* already closed */ }
+    }
+  }
+
+  @Override
+  public InputStream getRequestBody() {
+    return requestBody;
+  }
+
+  @Override
+  public OutputStream getResponseBody() {
+    return responseBody;
+  }
+
+  @Override
+  public void sendResponseHeaders(int code, long length) throws IOException {
+    if (responseCode != -1) {
+      throw new IOException("Response headers already sent");
+    }
+    responseCode = code;
+    var keepAlive = head.keepAlive();
+    Mode mode;
+    if (code < 200 || code == 204 || code == 304) {
+      mode = Mode.NONE;
+    } else if (length > 0) {
+      responseHeaders.set("Content-Length", Long.toString(length));
+      mode = isHead() ? Mode.NONE : Mode.FIXED;
+    } else if (length < 0) {
+      responseHeaders.set("Content-Length", "0");
+      mode = Mode.NONE;
+    } else if (isHead()) {
+      mode = Mode.NONE;
+    } else if (head.http11()) {
+      responseHeaders.set("Transfer-Encoding", "chunked");
+      mode = Mode.CHUNKED;
+    } else {
+      // HTTP/1.0 without a length: the body ends when the connection is closed.
+      mode = Mode.UNTIL_CLOSE;
+      keepAlive = false;
+    }
+    if (!keepAlive) {
+      responseHeaders.set("Connection", "close");
+    }
+    if (!responseHeaders.containsKey("Date")) {
+      responseHeaders.set("Date", date());
+    }
+    var status = new StringBuilder(256)
+      .append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+    responseHeaders.forEach((name, values) -> values.forEach(value ->
+      status.append(name).append(": ").append(value).append("\r\n")));
+    status.append("\r\n");
+    response.start(mode, length, !keepAlive, status.toString().getBytes(ISO_8859_1));
+  }
+
+  @Override
+  public InetSocketAddress getRemoteAddress() {
+    return connection.remoteAddress();
+  }
+
+  @Override
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  @Override
+  public InetSocketAddress getLocalAddress() {
+    return connection.localAddress();
+  }
+
+  @Override
+  public String getProtocol() {
+    return head.protocol;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return attributes.get(name);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (value == null) {
+      attributes.remove(name);
+    } else {
+      attributes.put(name, value);
+    }
+  }
+
+  @Override
+  public void setStreams(InputStream in, OutputStream out) {
+    if (in != null) {
+      requestBody = in;
+    }
+    if (out != null) {
+      responseBody = out;
+    }
+  }
+
+  @Override
+  public HttpPrincipal getPrincipal() {
+    return principal;
+  }
+
+  private boolean isHead() {
+    return "HEAD".equals(head.method);
+  }
+
+  private static String date() {
+    var second = System.currentTimeMillis() / 1000;
+    if (second != dateSecond) {
+      date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+      dateSecond = second;
+    }
+    return date;
+  }
+
+  private static String reason(int code) {
+    switch (code) {
+      case 200: return "OK";
+      case 201: return "Created";
+      case 202: return "Accepted";
+      case 204: return "No Content";
+      case 301: return "Moved Permanently";
+      case 302: return "Found";
+      case 304: return "Not Modified";
+      case 400: return "Bad Request";
+      case 401: return "Unauthorized";
+      case 403: return "Forbidden";
+      case 404: return "Not Found";
+      case 405: return "Method Not Allowed";
+      case 413: return "Payload Too Large";
+      case 429: return "Too Many Requests";
+      case 500: return "Internal Server Error";
+      case 502: return "Bad Gateway";
+      case 503: return "Service Unavailable";
+      case 504: return "Gateway Timeout";
+      default: return "Status";
+    }
+  }
+
+  private enum Mode { NONE, FIXED, CHUNKED, UNTIL_CLOSE }
+
+  /**
+   * Writes the body in pooled buffers, handed to the connection when full or flushed.
+   * Chunks start with a zero padded size, reserved before the data is known.
+   */
+  private final class ResponseStream extends OutputStream implements FileTransfer {
+
+    private int chunkHeaderSize;
+    private Mode mode;
+    private long remaining;
+    private boolean closeAfter;
+    private boolean forceClose;
+    private boolean closed;
+    private long bodyBytes;
+    private ByteBuffer current;
+    private int chunkStart = -1;
+
+    void start(Mode mode, long length, boolean closeAfter, byte[] status) throws IOException {
+      this.mode = mode;
+      this.remaining = length;
+      this.closeAfter = closeAfter;
+      this.chunkHeaderSize = Integer.toHexString(connection.buffers().bufferSize()).length() + 2;
+      current = connection.buffers().acquire();
+      var offset = 0;
+      while (offset < status.length) {
+        if (!current.hasRemaining()) {
+          emit();
+          current = connection.buffers().acquire();
+        }
+        var count = Math.min(current.remaining(), status.length - offset);
+        current.put(status, offset, count);
+        offset += count;
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Response body already closed");
+      }
+      if (mode == null) {
+        throw new IOException("Response headers not sent");
+      }
+      if (mode == Mode.NONE) {
+        if (len > 0 && !isHead()) {
+          throw new IOException("Response has no body");
+        }
+        return;
+      }
+      if (mode == Mode.FIXED) {
+        if (len > remaining) {
+          throw new IOException("Response body longer than its content length");
+        }
+        remaining -= len;
+      }
+      bodyBytes += len;
+      while (len > 0) {
+        ensureRoom();
+        var count = Math.min(len, room());
+        current.put(b, off, count);
+        off += count;
+        len -= count;
+      }
+    }
+
+    @Override
+    public boolean transferFrom(FileChannel file, long position, long count) throws IOException {
+      if (closed || mode != Mode.FIXED || count > remaining) {
+        return false;
+      }
+      emit();
+      var end = position + count;
+      for (long start = position; start < end; start += MAPPED_SLICE) {
+        connection.send(file.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_SLICE, end - start)));
+      }
+      remaining -= count;
+      bodyBytes += count;
+      return true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (!closed && mode != null) {
+        emit();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (mode == Mode.CHUNKED && !forceClose) {
+          closeChunk();
+          if (current == null || current.remaining() < LAST_CHUNK.length) {
+            emit();
+            current = connection.buffers().acquire();
+          }
+          current.put(LAST_CHUNK);
+        }
+        emit();
+      } finally {
+        if (current != null) {
+          connection.buffers().release(current);
+          current = null;
+        }
+        // Without headers, or with a body shorter than declared, the client can't tell where it ends.
+        var incomplete = mode == null || mode == Mode.FIXED && remaining > 0;
+        connection.finish(closeAfter || forceClose || incomplete || mode == Mode.UNTIL_CLOSE);
+      }
+    }
+
+    private int room() {
+      return mode == Mode.CHUNKED ? current.capacity() - current.position() - 2 : current.remaining();
+    }
+
+    private void ensureRoom() throws IOException {
+      if (current != null && chunkReady() && room() > 0) {
+        return;
+      }
+      if (current == null || room() <= 0 || current.remaining() < chunkHeaderSize + 3) {
+        emit();
+        current = connection.buffers().acquire();
+      }
+      if (mode == Mode.CHUNKED) {
+        chunkStart = current.position();
+        current.position(chunkStart + chunkHeaderSize);
+      }
+    }
+
+    private boolean chunkReady() {
+      return mode != Mode.CHUNKED || chunkStart >= 0;
+    }
+
+    private void closeChunk() {
+      if (current == null || chunkStart < 0) {
+        return;
+      }
+      var length = current.position() - chunkStart - chunkHeaderSize;
+      if (length == 0) {
+        current.position(chunkStart);
+      } else {
+        var hex = Integer.toHexString(length);
+        var digits = chunkHeaderSize - 2;
+        for (int i = 0; i < digits; i++) {
+          var index = i - (digits - hex.length());
+          current.put(chunkStart + i, (byte) (index < 0 ? '0' : hex.charAt(index)));
+        }
+        current.put(chunkStart + digits, (byte) '\r');
+        current.put(chunkStart + digits + 1, (byte) '\n');
+        current.put((byte) '\r');
+        current.put((byte) '\n');
+      }
+      chunkStart = -1;
+    }
+
+    private void emit() throws IOException {
+      if (current == null) {
+        return;
+      }
+      closeChunk();
+      var buffer = current;
+      current = null;
+      buffer.flip();
+      if (!buffer.hasRemaining()) {
+        connection.buffers().release(buffer);
+        return;
+      }
+      connection.send(buffer);
+    }
+  }
+}
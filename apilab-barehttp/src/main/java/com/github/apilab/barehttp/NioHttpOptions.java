@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+import org.immutables.value.Value.Default;
+
+/**
+ * Options of the {@link NioHttpServer}.
+ *
+ * - selectors: selector threads reading and writing the connections, defaults to one per core.
+ * - idleTimeout: keep-alive connections without requests for this long are closed.
+ * - maxBodySize: bigger request bodies are answered with a 413.
+ * - bufferSize: size of the pooled direct buffers, a response is written in chunks of this size.
+ * - maxPooledBuffers: buffers kept in the pool, the ones over it are left to the GC.
+ */
+@Value.Immutable
+public interface NioHttpOptions {
+  @Default default int selectors() {return Runtime.getRuntime().availableProcessors(); }
+  @Default default Duration idleTimeout() {return Duration.ofSeconds(30); }
+  @Default default int maxBodySize() {return 10 * 1024 * 1024; }
+  @Default default int bufferSize() {return 16 * 1024; }
+  @Default default int maxPooledBuffers() {return 1024; }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link HttpServer} on non blocking sockets, for more requests per core than the JDK one.
+ *
+ * An acceptor thread hands the connections to the selector threads, one per core by default,
+ * which read the requests and write the responses. Connections are kept alive and pipelined
+ * requests are answered in order. Handlers run on the executor, or on the selector thread if
+ * there is none: only do that for handlers that never block.
+ *
+ * Contexts, filters and authenticators work as in the JDK server, so handlers don't change.
+ * Request bodies are read fully before the handler runs, up to the maxBodySize option, and
+ * chunked request bodies are not supported.
+ */
+public class NioHttpServer extends HttpServer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NioHttpServer.class);
+
+  private final NioHttpOptions options;
+  private final DirectBufferPool buffers;
+  private final Map<String, NioHttpContext> contexts = new ConcurrentHashMap<>();
+  private final AtomicInteger active = new AtomicInteger();
+  private final List<SelectorLoop> loops = new ArrayList<>();
+  private ServerSocketChannel serverChannel;
+  private InetSocketAddress address;
+  private volatile Executor executor;
+  private Thread acceptor;
+
+  public NioHttpServer(NioHttpOptions options) {
+    this.options = options;
+    this.buffers = new DirectBufferPool(options.bufferSize(), options.maxPooledBuffers());
+  }
+
+  public static NioHttpServer create(InetSocketAddress address, int backlog, NioHttpOptions options) throws IOException {
+    var server = new NioHttpServer(options);
+    server.bind(address, backlog);
+    return server;
+  }
+
+  NioHttpOptions options() {
+    return options;
+  }
+
+  DirectBufferPool buffers() {
+    return buffers;
+  }
+
+  /**
+   * @return the exchanges being handled right now
+   */
+  public int activeExchanges() {
+    return active.get();
+  }
+
+  @Override
+  public synchronized void bind(InetSocketAddress address, int backlog) throws IOException {
+    if (serverChannel != null) {
+      throw new IllegalStateException("Server already bound");
+    }
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    serverChannel.bind(address, backlog);
+    this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  @Override
+  public synchronized void start() {
+    if (serverChannel == null) {
+      throw new IllegalStateException("Server not bound");
+    }
+    if (acceptor != null) {
+      throw new IllegalStateException("Server already started");
+    }
+    try {
+      for (int i = 0; i < Math.max(1, options.selectors()); i++) {
+        var loop = new SelectorLoop(this, "apilab-barehttp-selector-" + i);
+        loops.add(loop);
+        loop.start();
+      }
+    } catch (IOException ex) {
+      loops.forEach(SelectorLoop::stop);
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+    acceptor = new Thread(this::accept, "apilab-barehttp-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @Override
+  public void setExecutor(Executor executor) {
+    if (acceptor != null) {
+      throw new IllegalStateException("Server already started");
+    }
+    this.executor = executor;
+  }
+
+  @Override
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Stops accepting connections, then waits up to the delay for the exchanges being handled.
+   * @param delay seconds to wait at most
+   */
+  @Override
+  public void stop(int delay) {
+    Thread accepting;
+    synchronized (this) {
+      if (serverChannel == null) {
+        return;
+      }
+      try { serverChannel.close(); } catch (IOException ex) { LOG.warn(ex.getMessage(), ex); }
+      accepting = acceptor;
+    }
+    // The socket is released only once the thread blocked in accept() has left it.
+    if (accepting != null) {
+      try {
+        accepting.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+    while (active.get() > 0 && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    synchronized (this) {
+      loops.forEach(SelectorLoop::stop);
+      loops.clear();
+      serverChannel = null;
+      acceptor = null;
+    }
+  }
+
+  @Override
+  public HttpContext createContext(String path, HttpHandler handler) {
+    if (path == null || !path.startsWith("/")) {
+      throw new IllegalArgumentException("Invalid context path: " + path);
+    }
+    var context = new NioHttpContext(this, path, handler);
+    if (contexts.putIfAbsent(path, context) != null) {
+      throw new IllegalArgumentException("Context already exists: " + path);
+    }
+    return context;
+  }
+
+  @Override
+  public HttpContext createContext(String path) {
+    return createContext(path, null);
+  }
+
+  @Override
+  public void removeContext(String path) {
+    if (contexts.remove(path) == null) {
+      throw new IllegalArgumentException("No context: " + path);
+    }
+  }
+
+  @Override
+  public void removeContext(HttpContext context) {
+    removeContext(context.getPath());
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * @param path the request path
+   * @return the context with the longest path the request path starts with, null if none
+   */
+  NioHttpContext context(String path) {
+    NioHttpContext found = null;
+    for (NioHttpContext context: contexts.values()) {
+      if (path != null && path.startsWith(context.getPath())
+        && (found == null || context.getPath().length() > found.getPath().length())) {
+        found = context;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Called by the selector thread once a whole request is read.
+   */
+  void dispatch(NioHttpExchange exchange) {
+    active.incrementAndGet();
+    var target = executor;
+    if (target == null) {
+      handle(exchange);
+      return;
+    }
+    try {
+      target.execute(() -> handle(exchange));
+    } catch (RejectedExecutionException ex) {
+      LOG.warn(ex.getMessage());
+      try {
+        exchange.sendResponseHeaders(503, -1);
+      } catch (IOException e) {
+        exchange.fail();
+      }
+      exchange.close();
+      active.decrementAndGet();
+    }
+  }
+
+  private void handle(NioHttpExchange exchange) {
+    try {
+      var context = exchange.context();
+      if (context == null || context.getHandler() == null) {
+        exchange.sendResponseHeaders(404, -1);
+      } else if (authenticated(exchange, context)) {
+        new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+      }
+    } catch (IOException | RuntimeException ex) {
+      LOG.warn(ex.getMessage(), ex);
+      exchange.fail();
+    } finally {
+      // Handlers of the JDK server are expected to close the exchange, it's done anyway.
+      exchange.close();
+      active.decrementAndGet();
+    }
+  }
+
+  private static boolean authenticated(NioHttpExchange exchange, NioHttpContext context) throws IOException {
+    var authenticator = context.getAuthenticator();
+    if (authenticator == null) {
+      return true;
+    }
+    var result = authenticator.authenticate(exchange);
+    if (result instanceof Authenticator.Success) {
+      exchange.principal(((Authenticator.Success) result).getPrincipal());
+      return true;
+    }
+    var code = result instanceof Authenticator.Failure
+      ? ((Authenticator.Failure) result).getResponseCode()
+      : ((Authenticator.Retry) result).getResponseCode();
+    exchange.sendResponseHeaders(code, -1);
+    return false;
+  }
+
+  private void accept() {
+    var next = 0;
+    ServerSocketChannel channel;
+    List<SelectorLoop> targets;
+    synchronized (this) {
+      channel = serverChannel;
+      targets = List.copyOf(loops);
+    }
+    while (channel.isOpen()) {
+      try {
+        var client = channel.accept();
+        targets.get(next++ % targets.size()).register(client);
+      } catch (ClosedChannelException ex) {
+        return;
+      } catch (IOException | RuntimeException ex) {
+        LOG.warn(ex.getMessage(), ex);
+      }
+    }
+  }
+}
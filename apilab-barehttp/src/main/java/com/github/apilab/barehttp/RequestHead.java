@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Headers;
+import java.net.URI;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Request line and headers of an HTTP/1.x request.
+ */
+final class RequestHead {
+
+  final String method;
+  final URI uri;
+  final String protocol;
+  final Headers headers;
+
+  private RequestHead(String method, URI uri, String protocol, Headers headers) {
+    this.method = method;
+    this.uri = uri;
+    this.protocol = protocol;
+    this.headers = headers;
+  }
+
+  /**
+   * @param data the bytes read
+   * @param length where the head ends, the empty line included
+   * @return the parsed head
+   * @throws IllegalArgumentException if it is not a valid request head
+   */
+  static RequestHead parse(byte[] data, int length) {
+    var lines = new String(data, 0, length, ISO_8859_1).split("\r\n");
+    var request = lines[0].split(" ");
+    if (request.length != 3 || !request[2].startsWith("HTTP/1.")) {
+      throw new IllegalArgumentException("Invalid request line: " + lines[0]);
+    }
+    var headers = new Headers();
+    for (int i = 1; i < lines.length; i++) {
+      var colon = lines[i].indexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Invalid header: " + lines[i]);
+      }
+      headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+    }
+    return new RequestHead(request[0], URI.create(request[1]), request[2], headers);
+  }
+
+  long contentLength() {
+    var value = headers.getFirst("Content-Length");
+    if (value == null) {
+      return 0;
+    }
+    var length = Long.parseLong(value);
+    if (length < 0) {
+      throw new IllegalArgumentException("Invalid content length: " + value);
+    }
+    return length;
+  }
+
+  boolean chunked() {
+    var encoding = headers.getFirst("Transfer-Encoding");
+    return encoding != null && !"identity".equalsIgnoreCase(encoding);
+  }
+
+  boolean keepAlive() {
+    var connection = headers.getFirst("Connection");
+    if ("HTTP/1.0".equals(protocol)) {
+      return "keep-alive".equalsIgnoreCase(connection);
+    }
+    return !"close".equalsIgnoreCase(connection);
+  }
+
+  boolean expectsContinue() {
+    return "100-continue".equalsIgnoreCase(headers.getFirst("Expect"));
+  }
+
+  boolean http11() {
+    return "HTTP/1.1".equals(protocol);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One selector and its thread, serving the connections given to it.
+ * Connections are only touched from this thread, other threads hand over tasks.
+ */
+final class SelectorLoop implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SelectorLoop.class);
+
+  private final NioHttpServer server;
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final Set<NioConnection> connections = new HashSet<>();
+  private final long idleTimeoutNanos;
+  private volatile boolean running = true;
+
+  SelectorLoop(NioHttpServer server, String name) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+    this.idleTimeoutNanos = server.options().idleTimeout().toNanos();
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stops the loop, closing all its connections.
+   */
+  void stop() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  NioHttpServer server() {
+    return server;
+  }
+
+  void register(SocketChannel channel) {
+    later(() -> {
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        var key = channel.register(selector, SelectionKey.OP_READ);
+        var connection = new NioConnection(this, channel, key);
+        key.attach(connection);
+        connections.add(connection);
+      } catch (IOException ex) {
+        LOG.warn(ex.getMessage(), ex);
+        try { channel.close(); } catch (IOException e) { LOG.debug(e.getMessage(), e); }
+      }
+    });
+  }
+
+  /**
+   * Runs the task on this loop: right away if already on it, otherwise as soon as possible.
+   */
+  void execute(Runnable task) {
+    if (inLoop()) {
+      task.run();
+    } else {
+      later(task);
+    }
+  }
+
+  /**
+   * Runs the task on the next turn of this loop, never right away.
+   */
+  void later(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  void removed(NioConnection connection) {
+    connections.remove(connection);
+  }
+
+  @Override
+  public void run() {
+    var readBuffer = server.buffers().acquire();
+    var lastSweep = System.nanoTime();
+    try {
+      while (running) {
+        selector.select(1000);
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        var selected = selector.selectedKeys().iterator();
+        while (selected.hasNext()) {
+          var key = selected.next();
+          selected.remove();
+          handle(key, readBuffer);
+        }
+        var now = System.nanoTime();
+        if (now - lastSweep > 1_000_000_000L) {
+          lastSweep = now;
+          closeIdle(now);
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      LOG.error(ex.getMessage(), ex);
+    } finally {
+      new ArrayList<>(connections).forEach(NioConnection::close);
+      server.buffers().release(readBuffer);
+      try { selector.close(); } catch (IOException ex) { LOG.debug(ex.getMessage(), ex); }
+    }
+  }
+
+  private static void handle(SelectionKey key, ByteBuffer readBuffer) {
+    var connection = (NioConnection) key.attachment();
+    try {
+      if (key.isValid() && key.isWritable()) {
+        connection.onWritable();
+      }
+      if (key.isValid() && key.isReadable()) {
+        connection.onReadable(readBuffer);
+      }
+    } catch (IOException | RuntimeException ex) {
+      LOG.debug(ex.getMessage(), ex);
+      connection.close();
+    }
+  }
+
+  private void closeIdle(long now) {
+    new ArrayList<>(connections).stream()
+      .filter(c -> c.idle(now, idleTimeoutNanos))
+      .forEach(NioConnection::close);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Serves the files under a directory, the request path after the context path is the file path.
+ *
+ * Responses carry an ETag and a Last-Modified, and conditional requests get a 304.
+ * Only the NIO engine sends files without copying them through the heap, as memory mapped
+ * buffers. The JDK one has no such path: the file is copied into its response stream with
+ * FileChannel.transferTo over Channels.newChannel, a buffer at a time.
+ * Behind a {@link CompressionFilter} the responses that get compressed are copied through the
+ * compressor as well, the ones left alone (small, or media compressed already) are not.
+ */
+public class StaticFileHandler implements HttpHandler {
+
+  private final Path root;
+  private final String index;
+
+  /**
+   * @param root the directory to serve
+   */
+  public StaticFileHandler(Path root) {
+    this(root, "index.html");
+  }
+
+  /**
+   * @param root the directory to serve
+   * @param index the file served for a directory
+   */
+  public StaticFileHandler(Path root, String index) {
+    this.root = root.toAbsolutePath().normalize();
+    this.index = index;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      var method = exchange.getRequestMethod();
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      var found = resolve(exchange);
+      if (found.isEmpty()) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      var file = found.get();
+      var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      var size = attributes.size();
+      // Last-Modified has seconds precision, the comparison has to as well.
+      var modified = attributes.lastModifiedTime().toMillis() / 1000;
+      var etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+      var headers = exchange.getResponseHeaders();
+      headers.set("ETag", etag);
+      headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        Instant.ofEpochSecond(modified).atOffset(ZoneOffset.UTC)));
+      if (notModified(exchange, etag, modified)) {
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+      headers.set("Content-Type", contentType(file));
+      if ("HEAD".equals(method)) {
+        // The length of the GET response, the JDK server does not write it for a HEAD.
+        headers.set("Content-Length", Long.toString(size));
+      }
+      exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+      if ("HEAD".equals(method) || size == 0) {
+        return;
+      }
+      try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        send(channel, size, exchange);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void send(FileChannel channel, long size, HttpExchange exchange) throws IOException {
+    var out = exchange.getResponseBody();
+    if (out instanceof FileTransfer && ((FileTransfer) out).transferFrom(channel, 0, size)) {
+      return;
+    }
+    var target = Channels.newChannel(out);
+    var position = 0L;
+    while (position < size) {
+      position += channel.transferTo(position, size - position, target);
+    }
+  }
+
+  private Optional<Path> resolve(HttpExchange exchange) {
+    var path = exchange.getRequestURI().getPath();
+    var context = exchange.getHttpContext().getPath();
+    var relative = path.length() > context.length() ? path.substring(context.length()) : "";
+    var file = root.resolve(relative.replaceFirst("^/+", "")).normalize();
+    if (!file.startsWith(root)) {
+      return Optional.empty();
+    }
+    if (Files.isDirectory(file)) {
+      file = file.resolve(index);
+    }
+    return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+  }
+
+  private static boolean notModified(HttpExchange exchange, String etag, long modified) {
+    var request = exchange.getRequestHeaders();
+    var match = request.getFirst("If-None-Match");
+    if (match != null) {
+      // If-None-Match wins over If-Modified-Since when both are there.
+      return "*".equals(match.trim()) || Arrays.stream(match.split(","))
+        .map(String::trim)
+        .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+        .anyMatch(etag::equals);
+    }
+    var since = request.getFirst("If-Modified-Since");
+    if (since == null) {
+      return false;
+    }
+    try {
+      return modified <= DateTimeFormatter.RFC_1123_DATE_TIME.parse(since, Instant::from).getEpochSecond();
+    } catch (DateTimeParseException ex) {
+      return false;
+    }
+  }
+
+  private static String contentType(Path file) {
+    var type = URLConnection.guessContentTypeFromName(file.getFileName().toString());
+    return type == null ? "application/octet-stream" : type;
+  }
+}
@@ -30,12 +30,27 @@ public class ComponentsModule {
 
   @Provides @IntoMap @StringKey("/") HttpHandler rootHandler() {
     return ctx -> {
+      ctx.sendResponseHeaders(200, 0);
       try (var out = ctx.getResponseBody()) {
         out.write("Default response".getBytes(UTF_8));
       }
     };
   }
   
+  @Provides @IntoMap @StringKey("/slow") HttpHandler slowHandler() {
+    return ctx -> {
+      try {
+        Thread.sleep(1500);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      ctx.sendResponseHeaders(200, 0);
+      try (var out = ctx.getResponseBody()) {
+        out.write("Slow response".getBytes(UTF_8));
+      }
+    };
+  }
+
   @Provides
   @Singleton
   public Env env() {
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CompressionFilterTest {
+
+  private static final String LONG = "compress me ".repeat(100);
+
+  private HttpServer server;
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", ex -> {
+      var body = ex.getRequestURI().getPath().contains("short") ? "short" : LONG;
+      var bytes = body.getBytes(UTF_8);
+      if (ex.getRequestURI().getPath().contains("image")) {
+        ex.getResponseHeaders().set("Content-Type", "image/png");
+      }
+      ex.getResponseHeaders().set("ETag", "\"v1\"");
+      // Handlers may take the body before sending the headers.
+      var early = ex.getResponseBody();
+      ex.sendResponseHeaders(200, ex.getRequestURI().getPath().contains("fixed") ? bytes.length : 0);
+      try (var out = ex.getRequestURI().getPath().contains("early") ? early : ex.getResponseBody()) {
+        out.write(bytes);
+      }
+    }).getFilters().add(new CompressionFilter(256));
+    server.start();
+  }
+
+  @AfterEach
+  void stop() {
+    server.stop(0);
+  }
+
+  @Test
+  void testGzip() throws IOException, InterruptedException {
+    for (String path: new String[] {"/fixed", "/streamed", "/early/fixed", "/early/streamed"}) {
+      var response = get(path, "gzip, deflate");
+      assertThat(path, response.headers().firstValue("Content-Encoding").orElse(null), is("gzip"));
+      assertThat(path, response.headers().firstValue("Vary").orElse(null), is("Accept-Encoding"));
+      assertThat(path, response.headers().firstValue("ETag").orElse(null), is("W/\"v1\""));
+      try (var in = new GZIPInputStream(response.body())) {
+        assertThat(path, new String(in.readAllBytes(), UTF_8), is(LONG));
+      }
+    }
+  }
+
+  @Test
+  void testDeflate() throws IOException, InterruptedException {
+    var response = get("/streamed", "gzip;q=0, deflate");
+    assertThat(response.headers().firstValue("Content-Encoding").orElse(null), is("deflate"));
+    try (var in = new InflaterInputStream(response.body())) {
+      assertThat(new String(in.readAllBytes(), UTF_8), is(LONG));
+    }
+  }
+
+  @Test
+  void testNotCompressed() throws IOException, InterruptedException {
+    var cases = new String[][] {
+      {"/short/fixed", "gzip", "short"},
+      {"/short/streamed", "gzip", "short"},
+      {"/image", "gzip", LONG},
+      {"/fixed", null, LONG},
+      {"/fixed", "br", LONG}};
+    for (String[] c: cases) {
+      var response = get(c[0], c[1]);
+      assertThat(c[0], response.headers().firstValue("Content-Encoding").orElse(null), is(nullValue()));
+      assertThat(c[0], new String(response.body().readAllBytes(), UTF_8), is(c[2]));
+    }
+    var response = get("/short/streamed", "gzip");
+    assertThat(response.headers().firstValue("Content-Length").orElse(null), is("5"));
+    assertThat(response.headers().firstValue("ETag").orElse(null), is("\"v1\""));
+    response = get("/early/short/streamed", "gzip");
+    assertThat(new String(response.body().readAllBytes(), UTF_8), is("short"));
+  }
+
+  @Test
+  void testEncoding() {
+    assertThat(CompressionFilter.encoding(null), is(nullValue()));
+    assertThat(CompressionFilter.encoding("br"), is(nullValue()));
+    assertThat(CompressionFilter.encoding("deflate, gzip"), is("gzip"));
+    assertThat(CompressionFilter.encoding("*"), is("gzip"));
+    assertThat(CompressionFilter.encoding("GZIP;q=0.0, deflate;q=0.5"), is("deflate"));
+    assertThat(CompressionFilter.encoding("gzip; q=0"), is(nullValue()));
+  }
+
+  private HttpResponse<java.io.InputStream> get(String path, String accept) throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path));
+    if (accept != null) {
+      request.header("Accept-Encoding", accept);
+    }
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+  }
+}
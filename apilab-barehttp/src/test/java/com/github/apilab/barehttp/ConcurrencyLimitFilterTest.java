@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ConcurrencyLimitFilterTest {
+
+  @Test
+  void testLimit() throws Exception {
+    var filter = new ConcurrencyLimitFilter(1, Duration.ofMillis(50));
+    var entered = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var slow = new Filter.Chain(List.of(filter), ex -> {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    var first = mock(HttpExchange.class);
+    var running = CompletableFuture.runAsync(() -> {
+      try {
+        slow.doFilter(first);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    });
+    entered.await(5, TimeUnit.SECONDS);
+
+    var second = mock(HttpExchange.class);
+    new Filter.Chain(List.of(filter), ex -> {}).doFilter(second);
+    verify(second).sendResponseHeaders(503, -1);
+
+    release.countDown();
+    running.get(5, TimeUnit.SECONDS);
+    assertThat("released", filter.available(), is(1));
+
+    var third = mock(HttpExchange.class);
+    new Filter.Chain(List.of(filter), ex -> {}).doFilter(third);
+    verify(third, never()).sendResponseHeaders(503, -1);
+  }
+
+  @Test
+  void testReleaseOnError() {
+    var filter = new ConcurrencyLimitFilter(1, Duration.ZERO);
+    var chain = new Filter.Chain(List.of(filter), ex -> {
+      throw new IOException("failed");
+    });
+    try {
+      chain.doFilter(mock(HttpExchange.class));
+    } catch (IOException ex) {
+      // expected
+    }
+    assertThat("released", filter.available(), is(1));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InFlightFilterTest {
+
+  @Test
+  void testCounting() throws IOException {
+    var filter = new InFlightFilter();
+    new Filter.Chain(List.of(filter), ex -> assertThat("inside", filter.inFlight(), is(1)))
+      .doFilter(mock(HttpExchange.class));
+    assertThrows(IOException.class, () -> new Filter.Chain(List.of(filter), ex -> {
+      throw new IOException("failed");
+    }).doFilter(mock(HttpExchange.class)));
+
+    assertThat("none left", filter.inFlight(), is(0));
+    assertThat("completed", filter.completed(), is(2L));
+    filter.reset();
+    assertThat("reset", filter.completed(), is(0L));
+    assertThat("reset slowest", filter.slowestNanos(), is(0L));
+  }
+
+  @Test
+  void testDraining() throws IOException {
+    var filter = new InFlightFilter();
+    filter.drain();
+    var exchange = mock(HttpExchange.class);
+    when(exchange.getResponseHeaders()).thenReturn(new Headers());
+    new Filter.Chain(List.of(filter), ex -> {
+      throw new IllegalStateException("not called");
+    }).doFilter(exchange);
+    verify(exchange).sendResponseHeaders(503, -1);
+    assertThat("closing", exchange.getResponseHeaders().getFirst("Connection"), is("close"));
+  }
+}
@@ -18,8 +18,13 @@ package com.github.apilab.barehttp;
 import com.github.apilab.core.ApplicationLifecycle;
 import com.github.apilab.core.ApplicationLifecycleItem;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.Socket;
+import java.net.URL;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import org.junit.jupiter.api.BeforeEach;
@@ -66,6 +71,71 @@ class LifecycleTest {
     assertThat(availablePort(8000), is(true));
   }
 
+  @Test
+  void testVirtualThreadsAndLimit() throws IOException {
+    System.setProperty("API_ENABLE_BAREHTTP", "true");
+    System.setProperty("API_BAREHTTP_VIRTUAL_THREADS", "true");
+    System.setProperty("API_BAREHTTP_MAX_CONCURRENCY", "10");
+    try {
+      app.start();
+      var connection = (HttpURLConnection) new URL("http://127.0.0.1:8000/").openConnection();
+      assertThat(connection.getResponseCode(), is(200));
+      try (var in = connection.getInputStream()) {
+        assertThat(new String(in.readAllBytes(), UTF_8), is("Default response"));
+      }
+    } finally {
+      app.stop();
+      System.clearProperty("API_BAREHTTP_VIRTUAL_THREADS");
+      System.clearProperty("API_BAREHTTP_MAX_CONCURRENCY");
+    }
+  }
+
+  @Test
+  void testNioEngine() throws IOException {
+    System.setProperty("API_ENABLE_BAREHTTP", "true");
+    System.setProperty("API_BAREHTTP_ENGINE", "nio");
+    try {
+      app.start();
+      var connection = (HttpURLConnection) new URL("http://127.0.0.1:8000/").openConnection();
+      assertThat(connection.getResponseCode(), is(200));
+      try (var in = connection.getInputStream()) {
+        assertThat(new String(in.readAllBytes(), UTF_8), is("Default response"));
+      }
+    } finally {
+      app.stop();
+      System.clearProperty("API_BAREHTTP_ENGINE");
+    }
+    assertThat(availablePort(8000), is(true));
+  }
+
+  @Test
+  void testDrain() throws Exception {
+    System.setProperty("API_ENABLE_BAREHTTP", "true");
+    System.setProperty("API_BAREHTTP_DRAIN_TIMEOUT", "5000");
+    try {
+      app.start();
+      var slow = CompletableFuture.supplyAsync(() -> {
+        try {
+          var connection = (HttpURLConnection) new URL("http://127.0.0.1:8000/slow").openConnection();
+          return connection.getResponseCode();
+        } catch (IOException ex) {
+          return -1;
+        }
+      });
+      Thread.sleep(300);
+      var stopping = CompletableFuture.runAsync(app::stop);
+      Thread.sleep(300);
+      assertThat("still draining", slow.isDone(), is(false));
+      assertThat("new connections refused while draining", availablePort(8000), is(true));
+      stopping.get(5, TimeUnit.SECONDS);
+      assertThat("completed while draining", slow.get(5, TimeUnit.SECONDS), is(200));
+      assertThat(availablePort(8000), is(true));
+    } finally {
+      app.stop();
+      System.clearProperty("API_BAREHTTP_DRAIN_TIMEOUT");
+    }
+  }
+
   static boolean availablePort(int port) {
     try (var sock = new Socket("127.0.0.1", port)) {
       return false;
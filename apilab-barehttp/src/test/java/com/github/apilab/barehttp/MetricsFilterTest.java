@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+
+class MetricsFilterTest {
+
+  @Test
+  void testSunServer() throws IOException, InterruptedException {
+    testMetrics(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0), "metrics-test-sun");
+  }
+
+  @Test
+  void testNioServer() throws IOException, InterruptedException {
+    testMetrics(NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0,
+      ImmutableNioHttpOptions.builder().selectors(1).build()), "metrics-test-nio");
+  }
+
+  private void testMetrics(HttpServer server, String context) throws IOException, InterruptedException {
+    server.createContext("/echo", ex -> {
+      var body = ex.getRequestBody().readAllBytes();
+      ex.sendResponseHeaders(body.length == 0 ? 404 : 200, 0);
+      try (var out = ex.getResponseBody()) {
+        out.write(body);
+      }
+    }).getFilters().add(new MetricsFilter(context));
+    server.start();
+    try {
+      var client = HttpClient.newHttpClient();
+      var uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/echo");
+      client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString("hello")).build(),
+        HttpResponse.BodyHandlers.ofString());
+      client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+    } finally {
+      server.stop(0);
+    }
+
+    assertThat("2xx", sample("apilab_barehttp_requests_total", context, "2xx"), is(1.0));
+    assertThat("4xx", sample("apilab_barehttp_requests_total", context, "4xx"), is(1.0));
+    assertThat("received", sample("apilab_barehttp_received_bytes_total", context, null), is(5.0));
+    assertThat("sent", sample("apilab_barehttp_sent_bytes_total", context, null), is(5.0));
+    assertThat("timed", sample("apilab_barehttp_request_seconds_count", context, null), is(2.0));
+  }
+
+  private static Double sample(String name, String context, String status) {
+    return status == null
+      ? CollectorRegistry.defaultRegistry.getSampleValue(name, new String[] {"context"}, new String[] {context})
+      : CollectorRegistry.defaultRegistry.getSampleValue(name,
+        new String[] {"context", "status"}, new String[] {context, status});
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NioHttpServerTest {
+
+  NioHttpServer server;
+  ExecutorService executor;
+  HttpClient client;
+  String base;
+
+  @BeforeEach
+  void setup() throws IOException {
+    var options = ImmutableNioHttpOptions.builder().selectors(2).bufferSize(1024).build();
+    server = NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50, options);
+    server.createContext("/echo", ex -> {
+      var body = ex.getRequestBody().readAllBytes();
+      ex.getResponseHeaders().set("Content-Type", "text/plain");
+      ex.sendResponseHeaders(200, body.length);
+      try (var out = ex.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.createContext("/stream", ex -> {
+      ex.sendResponseHeaders(200, 0);
+      try (var out = ex.getResponseBody()) {
+        for (int i = 0; i < 10_000; i++) {
+          out.write(("line " + i + "\n").getBytes(UTF_8));
+        }
+      }
+    });
+    server.createContext("/fail", ex -> {
+      throw new IllegalStateException("failing");
+    });
+    server.createContext("/filtered", ex -> {
+      ex.sendResponseHeaders(204, -1);
+      ex.close();
+    }).getFilters().add(new Filter() {
+      @Override
+      public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        exchange.getResponseHeaders().set("X-Filtered", "yes");
+        chain.doFilter(exchange);
+      }
+
+      @Override
+      public String description() {
+        return "test";
+      }
+    });
+    executor = Executors.newFixedThreadPool(4);
+    server.setExecutor(executor);
+    server.start();
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @AfterEach
+  void teardown() {
+    server.stop(1);
+    executor.shutdown();
+  }
+
+  @Test
+  void testRequests() throws IOException, InterruptedException {
+    var echo = client.send(HttpRequest.newBuilder(URI.create(base + "/echo"))
+      .POST(HttpRequest.BodyPublishers.ofString("hello"))
+      .build(), HttpResponse.BodyHandlers.ofString());
+    assertThat("echo status", echo.statusCode(), is(200));
+    assertThat("echo body", echo.body(), is("hello"));
+    assertThat("echo type", echo.headers().firstValue("Content-Type").orElse(""), is("text/plain"));
+
+    var stream = client.send(HttpRequest.newBuilder(URI.create(base + "/stream")).build(),
+      HttpResponse.BodyHandlers.ofString());
+    assertThat("chunked", stream.headers().firstValue("Transfer-Encoding").orElse(""), is("chunked"));
+    assertThat("all lines", stream.body().split("\n").length, is(10_000));
+    assertThat("last line", stream.body().endsWith("line 9999\n"), is(true));
+
+    var missing = client.send(HttpRequest.newBuilder(URI.create(base + "/missing")).build(),
+      HttpResponse.BodyHandlers.ofString());
+    assertThat("not found", missing.statusCode(), is(404));
+
+    var failing = client.send(HttpRequest.newBuilder(URI.create(base + "/fail")).build(),
+      HttpResponse.BodyHandlers.ofString());
+    assertThat("failing", failing.statusCode(), is(500));
+
+    var filtered = client.send(HttpRequest.newBuilder(URI.create(base + "/filtered")).build(),
+      HttpResponse.BodyHandlers.ofString());
+    assertThat("filtered status", filtered.statusCode(), is(204));
+    assertThat("filtered", filtered.headers().firstValue("X-Filtered").orElse(""), is("yes"));
+    assertThat("nothing left", server.activeExchanges(), is(0));
+  }
+
+  @Test
+  void testKeepAliveAndPipelining() throws IOException {
+    try (var socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+      var request = "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\none"
+        + "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\ntwo"
+        + "HEAD /echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+      socket.getOutputStream().write(request.getBytes(ISO_8859_1));
+      var response = new String(socket.getInputStream().readAllBytes(), ISO_8859_1);
+      var first = response.indexOf("\r\n\r\none");
+      var second = response.indexOf("\r\n\r\ntwo");
+      assertThat("both answered in order", first > 0 && second > first, is(true));
+      assertThat("three responses", response.split("HTTP/1.1 200 OK").length, is(4));
+      assertThat("closed at the end", response.substring(second), containsString("Connection: close"));
+    }
+  }
+
+  @Test
+  void testHttp10() throws IOException {
+    try (var socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+      socket.getOutputStream().write("GET /stream HTTP/1.0\r\n\r\n".getBytes(ISO_8859_1));
+      var response = new String(socket.getInputStream().readAllBytes(), ISO_8859_1);
+      assertThat("not chunked", response.contains("Transfer-Encoding"), is(false));
+      assertThat("until closed", response.endsWith("line 9999\n"), is(true));
+    }
+  }
+
+  @Test
+  void testBadRequest() throws IOException {
+    try (var socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+      socket.getOutputStream().write("NOT HTTP\r\n\r\n".getBytes(ISO_8859_1));
+      var response = new String(socket.getInputStream().readAllBytes(), ISO_8859_1);
+      assertThat("rejected", response.startsWith("HTTP/1.1 400"), is(true));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+class RequestHeadTest {
+
+  @Test
+  void testParse() {
+    var head = parse("POST /path?q=1 HTTP/1.1\r\nContent-length: 12\r\nexpect: 100-continue\r\n\r\n");
+    assertThat(head.method, is("POST"));
+    assertThat(head.uri.getPath(), is("/path"));
+    assertThat(head.uri.getQuery(), is("q=1"));
+    assertThat(head.contentLength(), is(12L));
+    assertThat(head.expectsContinue(), is(true));
+    assertThat(head.keepAlive(), is(true));
+    assertThat(head.chunked(), is(false));
+  }
+
+  @Test
+  void testKeepAlive() {
+    assertThat(parse("GET / HTTP/1.1\r\nConnection: close\r\n\r\n").keepAlive(), is(false));
+    assertThat(parse("GET / HTTP/1.0\r\n\r\n").keepAlive(), is(false));
+    assertThat(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").keepAlive(), is(true));
+  }
+
+  @Test
+  void testInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> parse("GET /\r\n\r\n"));
+    assertThrows(IllegalArgumentException.class, () -> parse("GET / HTTP/1.1\r\nno colon\r\n\r\n"));
+    assertThrows(IllegalArgumentException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: x\r\n\r\n").contentLength());
+  }
+
+  private static RequestHead parse(String head) {
+    var bytes = head.getBytes(ISO_8859_1);
+    return RequestHead.parse(bytes, bytes.length - 4);
+  }
+}
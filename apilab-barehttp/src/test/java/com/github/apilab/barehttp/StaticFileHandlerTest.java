@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.barehttp;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StaticFileHandlerTest {
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @Test
+  void testSunServer(@TempDir Path root) throws IOException, InterruptedException {
+    var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/static", new StaticFileHandler(Files.createDirectory(root.resolve("www"))));
+    server.start();
+    try {
+      serve(root, "http://127.0.0.1:" + server.getAddress().getPort() + "/static");
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testNioServer(@TempDir Path root) throws IOException, InterruptedException {
+    var server = NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0, ImmutableNioHttpOptions.builder().selectors(2).build());
+    server.createContext("/static", new StaticFileHandler(Files.createDirectory(root.resolve("www"))));
+    server.start();
+    try {
+      serve(root, "http://127.0.0.1:" + server.getAddress().getPort() + "/static");
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testCompressed(@TempDir Path root) throws IOException, InterruptedException {
+    var www = Files.createDirectory(root.resolve("www"));
+    var page = "<p>compress me</p>".repeat(100);
+    Files.writeString(www.resolve("page.html"), page);
+    var image = new byte[64 * 1024];
+    new Random(1).nextBytes(image);
+    Files.write(www.resolve("image.png"), image);
+    var server = NioHttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0, ImmutableNioHttpOptions.builder().selectors(2).build());
+    server.createContext("/static", new StaticFileHandler(www)).getFilters().add(new CompressionFilter(256));
+    server.start();
+    try {
+      var base = "http://127.0.0.1:" + server.getAddress().getPort() + "/static";
+      var compressed = client.send(get(base + "/page.html").header("Accept-Encoding", "gzip").build(),
+        HttpResponse.BodyHandlers.ofInputStream());
+      assertThat(compressed.headers().firstValue("Content-Encoding").orElse(null), is("gzip"));
+      try (var in = new GZIPInputStream(compressed.body())) {
+        assertThat(new String(in.readAllBytes(), UTF_8), is(page));
+      }
+      // Sent as it is, the file goes on to the engine.
+      var plain = client.send(get(base + "/image.png").header("Accept-Encoding", "gzip").build(),
+        HttpResponse.BodyHandlers.ofByteArray());
+      assertThat(plain.headers().firstValue("Content-Encoding").isPresent(), is(false));
+      assertThat(plain.body(), is(image));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private void serve(Path temp, String base) throws IOException, InterruptedException {
+    var root = temp.resolve("www");
+    Files.writeString(root.resolve("index.html"), "<html></html>");
+    Files.createDirectory(root.resolve("sub"));
+    // Bigger than a mapped slice, so it goes out in more than one.
+    var data = new byte[3 * 1024 * 1024 + 17];
+    new Random(1).nextBytes(data);
+    Files.write(root.resolve("sub/data.bin"), data);
+    Files.writeString(temp.resolve("outside.txt"), "secret");
+
+    var file = client.send(get(base + "/sub/data.bin").build(), HttpResponse.BodyHandlers.ofByteArray());
+    assertThat(file.statusCode(), is(200));
+    assertThat(file.body(), is(data));
+    assertThat(file.headers().firstValue("Content-Type").orElse(null), is("application/octet-stream"));
+    var etag = file.headers().firstValue("ETag").orElse(null);
+    var modified = file.headers().firstValue("Last-Modified").orElse(null);
+    assertThat(etag, notNullValue());
+    assertThat(modified, notNullValue());
+
+    var index = client.send(get(base + "/").build(), HttpResponse.BodyHandlers.ofString(UTF_8));
+    assertThat(index.statusCode(), is(200));
+    assertThat(index.body(), is("<html></html>"));
+    assertThat(index.headers().firstValue("Content-Type").orElse(null), is("text/html"));
+
+    var head = client.send(get(base + "/sub/data.bin").method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+      HttpResponse.BodyHandlers.ofByteArray());
+    assertThat(head.statusCode(), is(200));
+    assertThat(head.body().length, is(0));
+    assertThat(head.headers().firstValue("Content-Length").orElse(null), is(String.valueOf(data.length)));
+    assertThat(head.headers().firstValue("ETag").orElse(null), is(etag));
+
+    assertThat(status(get(base + "/sub/data.bin").header("If-None-Match", etag)), is(304));
+    assertThat(status(get(base + "/sub/data.bin").header("If-Modified-Since", modified)), is(304));
+    assertThat(status(get(base + "/sub/data.bin").header("If-None-Match", "\"other\"")), is(200));
+    assertThat(status(get(base + "/missing")), is(404));
+    assertThat(status(get(base + "/sub")), is(404));
+    assertThat(status(get(base + "/../outside.txt")), is(404));
+    assertThat(status(get(base + "/sub/data.bin").DELETE()), is(405));
+  }
+
+  private int status(HttpRequest.Builder request) throws IOException, InterruptedException {
+    return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private static HttpRequest.Builder get(String uri) {
+    return HttpRequest.newBuilder(URI.create(uri));
+  }
+}
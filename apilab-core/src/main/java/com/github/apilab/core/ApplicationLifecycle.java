@@ -15,18 +15,50 @@
  */
 package com.github.apilab.core;
 
+import io.prometheus.client.Gauge;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Manages startup and tear down of all the instances injected in the application life cycle.
  * This is mainly used by the apilab modules to determine a start and stop context of the
  * application.
+ *
+ * Items are grouped by phase, and phases are run one after the other.
+ * Inside a phase, items are started concurrently on a bounded pool, each item waiting only for
+ * the items it depends on. Stopping runs the same graph in reverse.
+ *
+ * The pool size is set via env API_LIFECYCLE_THREADS, defaults to the available processors.
+ * Start/stop times of each item are logged and exported in the apilab_lifecycle_seconds gauge.
  * @author Raffaele Ragni
  */
 public class ApplicationLifecycle {
 
+  private static final Logger LOG = LoggerFactory.getLogger(ApplicationLifecycle.class);
+
+  private static final Gauge TIMINGS = Gauge.build()
+    .name("apilab_lifecycle_seconds")
+    .help("Time taken by each lifecycle item to start or stop")
+    .labelNames("item", "action")
+    .register();
+
   @Inject Set<ApplicationLifecycleItem> services;
+  @Inject Env env;
 
   @Inject
   public ApplicationLifecycle() {
@@ -34,10 +66,127 @@ public class ApplicationLifecycle {
   }
 
   public void start() {
-    services.forEach(ApplicationLifecycleItem::start);
+    run("start", false, ApplicationLifecycleItem::start);
   }
 
   public void stop() {
-    services.forEach(ApplicationLifecycleItem::stop);
+    run("stop", true, ApplicationLifecycleItem::stop);
+  }
+
+  private void run(String action, boolean reverse, Consumer<ApplicationLifecycleItem> fn) {
+    Map<Integer, List<ApplicationLifecycleItem>> phases = new TreeMap<>(reverse
+      ? Comparator.<Integer>reverseOrder()
+      : Comparator.<Integer>naturalOrder());
+    services.forEach(s -> phases.computeIfAbsent(s.phase(), k -> new ArrayList<>()).add(s));
+
+    var executor = createExecutor();
+    RuntimeException failure = null;
+    try {
+      for (List<ApplicationLifecycleItem> items: phases.values()) {
+        try {
+          runPhase(action, reverse, items, fn, executor);
+        } catch (RuntimeException ex) {
+          // A failed start leaves the later phases alone, a failed stop still stops them.
+          if (!reverse) {
+            throw ex;
+          }
+          if (failure == null) {
+            failure = ex;
+          } else {
+            failure.addSuppressed(ex);
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static void runPhase(
+      String action,
+      boolean reverse,
+      List<ApplicationLifecycleItem> items,
+      Consumer<ApplicationLifecycleItem> fn,
+      ExecutorService executor) {
+
+    var order = topologicalOrder(items);
+    Map<ApplicationLifecycleItem, CompletableFuture<Void>> futures = new IdentityHashMap<>();
+    // When starting, an item waits for its dependencies.
+    // When stopping, an item waits for the ones depending on it.
+    for (int i = 0; i < order.size(); i++) {
+      var item = order.get(reverse ? order.size() - 1 - i : i);
+      var waitFor = items.stream()
+        .filter(other -> reverse ? dependsOn(other, item) : dependsOn(item, other))
+        .map(futures::get)
+        .toArray(CompletableFuture[]::new);
+      var ready = CompletableFuture.allOf(waitFor);
+      if (reverse) {
+        // A failing stop must not prevent the rest of the application to be stopped.
+        ready = ready.handle((v, ex) -> null);
+      }
+      futures.put(item, ready.thenRunAsync(() -> timed(action, item, fn), executor));
+    }
+
+    try {
+      CompletableFuture.allOf(futures.values().toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private static void timed(String action, ApplicationLifecycleItem item, Consumer<ApplicationLifecycleItem> fn) {
+    var begin = System.nanoTime();
+    try {
+      fn.accept(item);
+    } finally {
+      var elapsed = System.nanoTime() - begin;
+      TIMINGS.labels(item.name(), action).set(elapsed / 1e9);
+      LOG.info("## LIFECYCLE {} {} took {} ms", action, item.name(), elapsed / 1_000_000);
+    }
+  }
+
+  /**
+   * Kahn's algorithm, keeping the original order between unrelated items.
+   * Dependencies towards items that are not in the same phase are not considered here because
+   * phases are already run in order.
+   */
+  static List<ApplicationLifecycleItem> topologicalOrder(List<ApplicationLifecycleItem> items) {
+    Map<ApplicationLifecycleItem, Integer> pending = new LinkedHashMap<>();
+    for (ApplicationLifecycleItem item: items) {
+      pending.put(item, (int) items.stream().filter(other -> dependsOn(item, other)).count());
+    }
+    List<ApplicationLifecycleItem> result = new ArrayList<>(items.size());
+    while (!pending.isEmpty()) {
+      var next = pending.entrySet().stream()
+        .filter(e -> e.getValue() == 0)
+        .map(Map.Entry::getKey)
+        .findFirst()
+        .orElseThrow(() -> new IllegalStateException(
+          "Circular dependency between lifecycle items: " + pending.keySet()));
+      pending.remove(next);
+      result.add(next);
+      pending.replaceAll((item, count) -> dependsOn(item, next) ? count - 1 : count);
+    }
+    return result;
+  }
+
+  private static boolean dependsOn(ApplicationLifecycleItem item, ApplicationLifecycleItem other) {
+    return item != other && item.dependsOn().stream().anyMatch(c -> c.isInstance(other));
+  }
+
+  private ExecutorService createExecutor() {
+    var threads = env.getInt(() -> "API_LIFECYCLE_THREADS", Runtime.getRuntime().availableProcessors());
+    var counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(Math.max(1, Math.min(threads, services.size())), r -> {
+      var thread = new Thread(r, "apilab-lifecycle-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 }
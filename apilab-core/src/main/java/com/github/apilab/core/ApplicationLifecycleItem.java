@@ -15,12 +15,46 @@
  */
 package com.github.apilab.core;
 
+import java.util.Set;
+
 /**
  * This interface is mostly transparent to the user.
  * Modules will implement this interface in order to be notified of the life cycle of apilab.
  * @author Raffaele Ragni
  */
 public interface ApplicationLifecycleItem {
+
+  /**
+   * Phase used by items that open the application to incoming traffic (http, grpc, ...).
+   * Those are started after everything else and stopped before everything else.
+   */
+  int PHASE_SERVERS = 100;
+
   void start();
   void stop();
+
+  /**
+   * Items of a lower phase are all started before any item of a higher phase begins.
+   * Stopping goes in the reverse order.
+   * @return the phase of this item, 0 by default.
+   */
+  default int phase() {
+    return 0;
+  }
+
+  /**
+   * Items listed here are started before this one and stopped after this one.
+   * Items of the same phase that have no relation between them are started concurrently.
+   * @return the types of items this one depends on.
+   */
+  default Set<Class<? extends ApplicationLifecycleItem>> dependsOn() {
+    return Set.of();
+  }
+
+  /**
+   * @return the name used in logs and metrics for this item.
+   */
+  default String name() {
+    return getClass().getName();
+  }
 }
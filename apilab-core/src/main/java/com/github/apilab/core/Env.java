@@ -15,8 +15,21 @@
  */
 package com.github.apilab.core;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Inject;
+
 /**
  * Handles environment configuration read.
+ *
+ * Values are read live from system properties first, then from environment variables.
+ * Use {@link #snapshot()} to get an immutable copy, where reads are a map lookup and the
+ * typed accessors do not parse nor allocate after the first call. The modules read the Env
+ * the application provides, so providing {@code new Env().snapshot()} makes all of them
+ * read the values taken at boot; the few places that build their own Env read it once.
+ * Lifecycle items read their enable flag once, on start, and keep it in a field.
+ * The typed accessors treat a blank value as not set.
  * @author Raffaele Ragni
  */
 public class Env {
@@ -25,6 +38,72 @@ public class Env {
     String name();
   }
 
+  @Inject
+  public Env() {
+    // Injected as is when the application does not provide its own Env.
+  }
+
+  /**
+   * Copies the current system properties and environment variables.
+   * @return an immutable env, with the same precedence of the live one.
+   */
+  public Env snapshot() {
+    return new EnvSnapshot(currentValues(Map.of()));
+  }
+
+  public boolean getBoolean(Var var, boolean defaultValue) {
+    var value = typed(var);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  public int getInt(Var var, int defaultValue) {
+    var value = typed(var);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  public long getLong(Var var, long defaultValue) {
+    var value = typed(var);
+    return value == null ? defaultValue : Long.parseLong(value);
+  }
+
+  /**
+   * Durations are either plain milliseconds or in the ISO-8601 format (PT10S).
+   * @param var the variable
+   * @param defaultValue returned when the variable is not set or blank
+   * @return the duration
+   */
+  public Duration getDuration(Var var, Duration defaultValue) {
+    var value = typed(var);
+    return value == null ? defaultValue : parseDuration(value);
+  }
+
+  /**
+   * A variable set but blank, as in VAR= of a docker env file, is not a value to parse.
+   */
+  private String typed(Var var) {
+    var value = get(var);
+    return value == null || value.isBlank() ? null : value.trim();
+  }
+
+  static Duration parseDuration(String value) {
+    return !value.isEmpty() && value.chars().allMatch(Character::isDigit)
+      ? Duration.ofMillis(Long.parseLong(value))
+      : Duration.parse(value);
+  }
+
+  /**
+   * Environment variables first, then the overrides, then system properties,
+   * so that the later ones take precedence over the earlier ones.
+   */
+  static Map<String, String> currentValues(Map<String, String> overrides) {
+    // See the reason of NOSONAR in get()
+    Map<String, String> values = new HashMap<>(System.getenv());//NOSONAR
+    values.putAll(overrides);
+    System.getProperties().stringPropertyNames()
+      .forEach(k -> values.put(k, System.getProperty(k)));
+    return values;
+  }
+
   public String get(Var var) {
     var value = System.getProperty(var.name());
     if (value != null) {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Immutable env, values are copied once at creation.
+ * Typed values are parsed on first access and kept, so further reads are a map lookup.
+ * @author Raffaele Ragni
+ */
+public class EnvSnapshot extends Env {
+
+  // Marks a missing variable in the parsed cache, since the concurrent map has no null values.
+  private static final Object MISSING = new Object();
+
+  private final Map<String, String> values;
+  // One cache per type, so that the same variable can be read with different types.
+  private final Map<String, Object> booleans = new ConcurrentHashMap<>();
+  private final Map<String, Object> ints = new ConcurrentHashMap<>();
+  private final Map<String, Object> longs = new ConcurrentHashMap<>();
+  private final Map<String, Object> durations = new ConcurrentHashMap<>();
+
+  public EnvSnapshot(Map<String, String> values) {
+    this.values = Map.copyOf(values);
+  }
+
+  @Override
+  public Env snapshot() {
+    return this;
+  }
+
+  @Override
+  public String get(Var var) {
+    return values.get(var.name());
+  }
+
+  @Override
+  public boolean getBoolean(Var var, boolean defaultValue) {
+    var value = parsed(booleans, var, Boolean::valueOf);
+    return value == MISSING ? defaultValue : (Boolean) value;
+  }
+
+  @Override
+  public int getInt(Var var, int defaultValue) {
+    var value = parsed(ints, var, Integer::valueOf);
+    return value == MISSING ? defaultValue : (Integer) value;
+  }
+
+  @Override
+  public long getLong(Var var, long defaultValue) {
+    var value = parsed(longs, var, Long::valueOf);
+    return value == MISSING ? defaultValue : (Long) value;
+  }
+
+  @Override
+  public Duration getDuration(Var var, Duration defaultValue) {
+    var value = parsed(durations, var, Env::parseDuration);
+    return value == MISSING ? defaultValue : (Duration) value;
+  }
+
+  private Object parsed(Map<String, Object> cache, Var var, Function<String, Object> parser) {
+    var name = var.name();
+    var value = cache.get(name);
+    if (value == null) {
+      var raw = values.get(name);
+      // Blank is missing, as for the live env.
+      value = raw == null || raw.isBlank() ? MISSING : parser.apply(raw.trim());
+      cache.put(name, value);
+    }
+    return value;
+  }
+
+  public Map<String, String> values() {
+    return values;
+  }
+}
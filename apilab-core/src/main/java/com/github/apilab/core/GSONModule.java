@@ -20,8 +20,10 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapterFactory;
 import dagger.Provides;
+import dagger.multibindings.ElementsIntoSet;
 import dagger.multibindings.IntoSet;
 import java.util.ServiceLoader;
+import java.util.Set;
 import javax.inject.Singleton;
 import net.dongliu.gson.GsonJava8TypeAdapterFactory;
 
@@ -29,6 +31,13 @@ import net.dongliu.gson.GsonJava8TypeAdapterFactory;
  * Provides basic components shared among all the other modules.
  * - GSON: a Json serialization setup to handle java8 dates, types, and handling the immutable types.
  *
+ * The fast path for DTOs are the streaming type adapters generated at compile time by the
+ * immutables annotation processor for classes annotated with @Gson.TypeAdapters.
+ * Those are found with the ServiceLoader, unless the factories are contributed explicitly in the
+ * dependency graph as Set&lt;TypeAdapterFactory&gt;, in which case the scan is skipped.
+ * Types that still end up with the reflective adapter are logged once, and listed by the
+ * {@link ReflectionReportingTypeAdapterFactory} provided along with the Gson.
+ *
  * @author Raffaele Ragni
  */
 @dagger.Module
@@ -54,20 +63,47 @@ public class GSONModule {
     };
   }
 
+  @Provides
+  @ElementsIntoSet
+  public Set<TypeAdapterFactory> noTypeAdapterFactories() {
+    // Makes the set injectable even when nobody contributes to it.
+    return Set.of();
+  }
+
   @Provides
   @Singleton
-  public Gson gson() {
+  public ReflectionReportingTypeAdapterFactory reflectionReporting() {
+    return new ReflectionReportingTypeAdapterFactory();
+  }
+
+  @Provides
+  @Singleton
+  public Gson gson(Set<TypeAdapterFactory> factories, ReflectionReportingTypeAdapterFactory reflectionReporting) {
     var builder = new GsonBuilder();
+    // Gson gives precedence to the factories registered last, so this one registered first
+    // is asked only for types that no other registered factory handles.
+    builder.registerTypeAdapterFactory(reflectionReporting);
     // This adds the converters for java dates and times
     builder = Converters.registerAll(builder);
     // This add converters for other java types, ex enums and maps
     builder = builder.registerTypeAdapterFactory(new GsonJava8TypeAdapterFactory());
     // This will add all the generated type adapters automatically.
     // The ones generated from value.immutable classes with annotation @Gson.TypeAdapters
-    for (TypeAdapterFactory factory : ServiceLoader.load(TypeAdapterFactory.class)) {
+    Iterable<TypeAdapterFactory> generated = factories.isEmpty()
+      ? ServiceLoader.load(TypeAdapterFactory.class)
+      : factories;
+    for (TypeAdapterFactory factory : generated) {
       builder.registerTypeAdapterFactory(factory);
     }
     return builder.create();
   }
 
+  public Gson gson(Set<TypeAdapterFactory> factories) {
+    return gson(factories, reflectionReporting());
+  }
+
+  public Gson gson() {
+    return gson(Set.of());
+  }
+
 }
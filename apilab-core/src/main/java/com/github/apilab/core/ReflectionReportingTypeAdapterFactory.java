@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the types that Gson serializes with the reflective adapter, which is the slow path.
+ * It provides the adapter that Gson would use anyway, the next one in its chain, so that the
+ * adapter is built only once; Gson caches adapters by type so this is done once per type.
+ * Annotating those types with @Gson.TypeAdapters moves them to a generated streaming adapter.
+ * @author Raffaele Ragni
+ */
+public class ReflectionReportingTypeAdapterFactory implements TypeAdapterFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReflectionReportingTypeAdapterFactory.class);
+
+  private final Set<Type> reflectiveTypes = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @return the types that the Gson of this factory has (de)serialized with reflection so far.
+   */
+  public Set<Type> reflectiveTypes() {
+    return Set.copyOf(reflectiveTypes);
+  }
+
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    var delegate = gson.getDelegateAdapter(this, type);
+    if (delegate instanceof ReflectiveTypeAdapterFactory.Adapter
+        && reflectiveTypes.add(type.getType())) {
+      LOG.warn("## GSON using reflection for {}", type);
+    }
+    return delegate;
+  }
+
+}
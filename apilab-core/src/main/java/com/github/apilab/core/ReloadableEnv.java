@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import static java.util.Optional.empty;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Env backed by a local properties file on top of the usual env.
+ * Precedence is: system properties, then the file, then environment variables.
+ *
+ * Every read goes to the current snapshot. The file is watched while this item is started
+ * and a new snapshot is published to the subscribers on each change.
+ * To be watched it needs to be added to the lifecycle items, otherwise it is loaded only once.
+ * @author Raffaele Ragni
+ */
+public class ReloadableEnv extends Env implements ApplicationLifecycleItem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReloadableEnv.class);
+
+  private final Path file;
+  private final List<Consumer<Env>> subscribers = new CopyOnWriteArrayList<>();
+  private volatile EnvSnapshot current;
+  private Optional<WatchService> watcher = empty();
+
+  public ReloadableEnv(Path file) {
+    this.file = Objects.requireNonNull(file).toAbsolutePath();
+    this.current = load();
+  }
+
+  /**
+   * @param subscriber notified with the new snapshot every time the file changes.
+   */
+  public void subscribe(Consumer<Env> subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  /**
+   * Reads the file again and notifies the subscribers.
+   */
+  public void reload() {
+    current = load();
+    LOG.info("## ENV RELOADED FROM {}", file);
+    subscribers.forEach(s -> {
+      try {
+        s.accept(current);
+      } catch (RuntimeException ex) {
+        LOG.warn(ex.getMessage(), ex);
+      }
+    });
+  }
+
+  @Override
+  public Env snapshot() {
+    return current;
+  }
+
+  @Override
+  public String get(Var var) {
+    return current.get(var);
+  }
+
+  @Override
+  public boolean getBoolean(Var var, boolean defaultValue) {
+    return current.getBoolean(var, defaultValue);
+  }
+
+  @Override
+  public int getInt(Var var, int defaultValue) {
+    return current.getInt(var, defaultValue);
+  }
+
+  @Override
+  public long getLong(Var var, long defaultValue) {
+    return current.getLong(var, defaultValue);
+  }
+
+  @Override
+  public Duration getDuration(Var var, Duration defaultValue) {
+    return current.getDuration(var, defaultValue);
+  }
+
+  @Override
+  public synchronized void start() {
+    if (watcher.isPresent()) {
+      return;
+    }
+    try {
+      var service = FileSystems.getDefault().newWatchService();
+      file.getParent().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+      watcher = Optional.of(service);
+      var thread = new Thread(() -> watch(service), "apilab-env-watcher");
+      thread.setDaemon(true);
+      thread.start();
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    watcher.ifPresent(w -> {
+      try { w.close(); } catch (IOException ex) { LOG.warn(ex.getMessage(), ex); }
+    });
+    watcher = empty();
+  }
+
+  private void watch(WatchService service) {
+    try {
+      while (true) {
+        var key = service.take();
+        var changed = key.pollEvents().stream()
+          .anyMatch(e -> file.getFileName().equals(e.context()));
+        key.reset();
+        if (changed) {
+          reloadKeepingPrevious();
+        }
+      }
+    } catch (ClosedWatchServiceException ex) {
+      // stopped
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void reloadKeepingPrevious() {
+    try {
+      reload();
+    } catch (RuntimeException ex) {
+      // A half written or broken file must not stop the watcher, the previous values stay.
+      LOG.error(ex.getMessage(), ex);
+    }
+  }
+
+  private EnvSnapshot load() {
+    var properties = new Properties();
+    if (Files.exists(file)) {
+      try (Reader reader = Files.newBufferedReader(file, UTF_8)) {
+        properties.load(reader);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex.getMessage(), ex);
+      }
+    }
+    Map<String, String> values = new HashMap<>();
+    properties.stringPropertyNames().forEach(k -> values.put(k, properties.getProperty(k)));
+    return new EnvSnapshot(currentValues(values));
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
+import static java.util.Optional.empty;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, when the runtime has them (Java 21+).
+ * Looked up by reflection since the framework is built for older versions.
+ * @author Raffaele Ragni
+ */
+public final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if this runtime supports virtual threads.
+   */
+  public static boolean available() {
+    return newVirtualThreadPerTaskExecutor().map(e -> {
+      e.shutdown();
+      return true;
+    }).orElse(false);
+  }
+
+  /**
+   * @return an executor starting a virtual thread per task, empty if the runtime has none.
+   */
+  public static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+    try {
+      var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return Optional.of((ExecutorService) method.invoke(null));
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+      return empty();
+    }
+  }
+
+  /**
+   * @param prefix the thread names, followed by a counter
+   * @return a factory of virtual threads, empty if the runtime has none.
+   */
+  public static Optional<ThreadFactory> newVirtualThreadFactory(String prefix) {
+    try {
+      var builder = Class.forName("java.lang.Thread$Builder");
+      var ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+      var named = builder.getMethod("name", String.class, long.class).invoke(ofVirtual, prefix, 0L);
+      return Optional.of((ThreadFactory) builder.getMethod("factory").invoke(named));
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+      return empty();
+    }
+  }
+
+  /**
+   * @param fallback used when the runtime has no virtual threads
+   * @return an executor starting a virtual thread per task, or the fallback
+   */
+  public static ExecutorService orElse(ExecutorService fallback) {
+    return newVirtualThreadPerTaskExecutor().orElse(fallback);
+  }
+}
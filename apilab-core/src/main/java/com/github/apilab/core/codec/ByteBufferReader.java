@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader decoding a ByteBuffer, heap or direct, straight into the chars asked by the caller.
+ * Unlike an InputStreamReader there is no intermediate byte buffer and no copy of the input.
+ * @author Raffaele Ragni
+ */
+public class ByteBufferReader extends Reader {
+
+  private final ByteBuffer buffer;
+  private final CharsetDecoder decoder;
+  private boolean flushed;
+  // Second half of a surrogate pair that did not fit in the caller's array.
+  private int pending = -1;
+
+  public ByteBufferReader(ByteBuffer buffer, Charset charset) {
+    this.buffer = buffer;
+    this.decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (pending >= 0) {
+      chars[offset] = (char) pending;
+      pending = -1;
+      return 1;
+    }
+    if (flushed) {
+      return -1;
+    }
+    var out = CharBuffer.wrap(chars, offset, length);
+    decode(out);
+    if (out.position() == offset && buffer.hasRemaining()) {
+      // Only a surrogate pair is left and there is room for one char.
+      var pair = CharBuffer.allocate(2);
+      decode(pair);
+      pair.flip();
+      chars[offset] = pair.get();
+      pending = pair.hasRemaining() ? pair.get() : -1;
+      return 1;
+    }
+    var count = out.position() - offset;
+    return count == 0 ? -1 : count;
+  }
+
+  private void decode(CharBuffer out) throws IOException {
+    var result = decoder.decode(buffer, out, true);
+    if (result.isError()) {
+      result.throwException();
+    }
+    if (!buffer.hasRemaining() && !flushed && !decoder.flush(out).isOverflow()) {
+      flushed = true;
+    }
+  }
+
+  @Override
+  public boolean ready() {
+    return pending >= 0 || buffer.hasRemaining();
+  }
+
+  @Override
+  public void close() {
+    // Nothing to release, the buffer belongs to the caller.
+  }
+}
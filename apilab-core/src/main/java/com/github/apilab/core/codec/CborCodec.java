@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * CBOR (RFC 7049), a compact binary format with the same data model of json.
+ * It uses the same gson type adapters of the json codec, so any type that works in json works
+ * here too, including the generated immutables adapters.
+ *
+ * Writing is streamed through the adapter. Reading parses into a gson tree first, because gson
+ * adapters for maps rely on the internals of the json text reader.
+ * @author Raffaele Ragni
+ * @param <T> type of the values
+ */
+public class CborCodec<T> implements Codec<T> {
+
+  public static final String CONTENT_TYPE = "application/cbor";
+
+  private final Gson gson;
+  private final TypeAdapter<T> adapter;
+
+  public CborCodec(Gson gson, Class<T> clazz) {
+    this.gson = gson;
+    this.adapter = gson.getAdapter(clazz).nullSafe();
+  }
+
+  @Override
+  public String contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public void encode(T value, OutputStream out) throws IOException {
+    var writer = new CborWriter(out);
+    writer.setSerializeNulls(gson.serializeNulls());
+    adapter.write(writer, value);
+    writer.flush();
+  }
+
+  @Override
+  public T decode(InputStream in) throws IOException {
+    var tree = new CborParser(in).parse();
+    return tree == null ? null : adapter.fromJsonTree(tree);
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Base64;
+
+/**
+ * Parses one CBOR item into a gson tree.
+ * Byte strings become base64 text, tags are ignored.
+ * The stream is read up to the end of the item and no further, so that it can be shared with
+ * other readers: item headers are read a byte at a time, give it a buffered stream.
+ * Arrays, maps and tags nest up to MAX_DEPTH, deeper input is refused instead of overflowing the stack.
+ * @author Raffaele Ragni
+ */
+class CborParser {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_BYTES = 2;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+  private static final int INDEFINITE = 31;
+  private static final int BREAK = 0xff;
+  static final int MAX_DEPTH = 256;
+
+  private final InputStream in;
+  private int depth;
+
+  CborParser(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * @return the item, null if the stream is empty.
+   * @throws IOException if the stream cannot be read or is truncated.
+   */
+  JsonElement parse() throws IOException {
+    var initial = in.read();
+    return initial == -1 ? null : item(initial);
+  }
+
+  private JsonElement item(int initial) throws IOException {
+    var major = initial >>> 5;
+    if (major >= MAJOR_ARRAY && major <= MAJOR_TAG) {
+      if (++depth > MAX_DEPTH) {
+        throw new JsonParseException("CBOR nested deeper than " + MAX_DEPTH);
+      }
+      try {
+        return nested(major, initial & 0x1f);
+      } finally {
+        depth--;
+      }
+    }
+    var info = initial & 0x1f;
+    switch (major) {
+      case MAJOR_UNSIGNED:
+        return unsigned(argument(info));
+      case MAJOR_NEGATIVE:
+        var value = argument(info);
+        return value >= 0
+          ? new JsonPrimitive(-1 - value)
+          : new JsonPrimitive(BigInteger.ONE.negate().subtract(toUnsigned(value)));
+      case MAJOR_BYTES:
+        return new JsonPrimitive(Base64.getEncoder().encodeToString(bytes(MAJOR_BYTES, info)));
+      case MAJOR_TEXT:
+        return new JsonPrimitive(new String(bytes(MAJOR_TEXT, info), UTF_8));
+      default:
+        return simple(info);
+    }
+  }
+
+  private JsonElement nested(int major, int info) throws IOException {
+    switch (major) {
+      case MAJOR_ARRAY:
+        return array(info);
+      case MAJOR_MAP:
+        return map(info);
+      default:
+        argument(info);
+        return item(next());
+    }
+  }
+
+  private JsonArray array(int info) throws IOException {
+    var array = new JsonArray();
+    if (info == INDEFINITE) {
+      for (int b = next(); b != BREAK; b = next()) {
+        array.add(item(b));
+      }
+    } else {
+      for (long i = argument(info); i > 0; i--) {
+        array.add(item(next()));
+      }
+    }
+    return array;
+  }
+
+  private JsonObject map(int info) throws IOException {
+    var object = new JsonObject();
+    if (info == INDEFINITE) {
+      for (int b = next(); b != BREAK; b = next()) {
+        object.add(key(b), item(next()));
+      }
+    } else {
+      for (long i = argument(info); i > 0; i--) {
+        object.add(key(next()), item(next()));
+      }
+    }
+    return object;
+  }
+
+  private String key(int initial) throws IOException {
+    var key = item(initial);
+    if (!key.isJsonPrimitive()) {
+      throw new JsonParseException("Only text and numeric keys are supported in maps");
+    }
+    return key.getAsString();
+  }
+
+  private JsonElement simple(int info) throws IOException {
+    switch (info) {
+      case 20:
+        return new JsonPrimitive(false);
+      case 21:
+        return new JsonPrimitive(true);
+      case 22:
+      case 23:
+        return JsonNull.INSTANCE;
+      case 25:
+        return new JsonPrimitive(halfToDouble((int) read(2)));
+      case 26:
+        return new JsonPrimitive((double) Float.intBitsToFloat((int) read(4)));
+      case 27:
+        return new JsonPrimitive(Double.longBitsToDouble(read(8)));
+      default:
+        throw new JsonParseException("Unsupported CBOR simple value: " + info);
+    }
+  }
+
+  private byte[] bytes(int major, int info) throws IOException {
+    if (info == INDEFINITE) {
+      // Chunks of the same major type, until break.
+      var out = new ByteArrayOutputStream();
+      for (int b = next(); b != BREAK; b = next()) {
+        // Chunks are definite strings themselves, they do not nest.
+        if (b >>> 5 != major || (b & 0x1f) == INDEFINITE) {
+          throw new JsonParseException("Invalid chunk in indefinite string");
+        }
+        out.write(bytes(major, b & 0x1f));
+      }
+      return out.toByteArray();
+    }
+    var length = argument(info);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new JsonParseException("String too long: " + length);
+    }
+    var bytes = in.readNBytes((int) length);
+    if (bytes.length != length) {
+      throw new EOFException();
+    }
+    return bytes;
+  }
+
+  private long argument(int info) throws IOException {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return read(1);
+      case 25:
+        return read(2);
+      case 26:
+        return read(4);
+      case 27:
+        return read(8);
+      default:
+        throw new JsonParseException("Invalid CBOR argument: " + info);
+    }
+  }
+
+  private long read(int size) throws IOException {
+    long value = 0;
+    for (int i = 0; i < size; i++) {
+      value = (value << 8) | next();
+    }
+    return value;
+  }
+
+  private int next() throws IOException {
+    var b = in.read();
+    if (b == -1) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private static JsonPrimitive unsigned(long value) {
+    return value >= 0 ? new JsonPrimitive(value) : new JsonPrimitive(toUnsigned(value));
+  }
+
+  private static BigInteger toUnsigned(long value) {
+    return new BigInteger(Long.toUnsignedString(value));
+  }
+
+  private static double halfToDouble(int half) {
+    var exponent = (half >> 10) & 0x1f;
+    var mantissa = half & 0x3ff;
+    double value;
+    if (exponent == 0) {
+      value = Math.scalb((double) mantissa, -24);
+    } else if (exponent == 31) {
+      value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    } else {
+      value = Math.scalb((double) mantissa + 1024, exponent - 25);
+    }
+    return (half & 0x8000) == 0 ? value : -value;
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Json writer emitting CBOR instead of text, so that gson type adapters can write CBOR directly.
+ * Arrays and objects use the indefinite length encoding, so nothing needs to be buffered.
+ * @author Raffaele Ragni
+ */
+class CborWriter extends JsonWriter {
+
+  private static final Writer UNWRITABLE = new Writer() {
+    @Override
+    public void write(char[] buffer, int offset, int counter) {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void flush() {
+      throw new AssertionError();
+    }
+
+    @Override
+    public void close() {
+      throw new AssertionError();
+    }
+  };
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_TEXT = 3;
+  private static final int ARRAY_INDEFINITE = 0x9f;
+  private static final int MAP_INDEFINITE = 0xbf;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int FLOAT32 = 0xfa;
+  private static final int FLOAT64 = 0xfb;
+  private static final int BREAK = 0xff;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[512];
+  private int count;
+  private String pendingName;
+
+  CborWriter(OutputStream out) {
+    super(UNWRITABLE);
+    this.out = Objects.requireNonNull(out);
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    writePendingName();
+    write(ARRAY_INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    write(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    writePendingName();
+    write(MAP_INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    if (pendingName != null) {
+      throw new IllegalStateException("Dangling name: " + pendingName);
+    }
+    write(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    Objects.requireNonNull(name, "name == null");
+    if (pendingName != null) {
+      throw new IllegalStateException("Name already set: " + pendingName);
+    }
+    pendingName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    writePendingName();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter jsonValue(String value) throws IOException {
+    throw new UnsupportedOperationException("Raw json values cannot be written in CBOR");
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (pendingName != null && !getSerializeNulls()) {
+      // Same as the json writer: the property is omitted entirely.
+      pendingName = null;
+      return this;
+    }
+    writePendingName();
+    write(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    writePendingName();
+    write(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    return value == null ? nullValue() : value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    writePendingName();
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    writePendingName();
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+      return value(value.longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return value(value.doubleValue());
+    }
+    // Arbitrary precision and lazily parsed numbers: keep them exact.
+    var text = value.toString();
+    var decimal = new BigDecimal(text);
+    writePendingName();
+    if (decimal.scale() <= 0 && decimal.abs().compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0) {
+      writeLong(decimal.longValueExact());
+    } else if (new BigDecimal(decimal.doubleValue()).compareTo(decimal) == 0) {
+      writeDouble(decimal.doubleValue());
+    } else {
+      writeText(text);
+    }
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.write(buffer, 0, count);
+    count = 0;
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+  private void writePendingName() throws IOException {
+    if (pendingName != null) {
+      writeText(pendingName);
+      pendingName = null;
+    }
+  }
+
+  private void writeLong(long value) throws IOException {
+    if (value >= 0) {
+      writeHeader(MAJOR_UNSIGNED, value);
+    } else {
+      writeHeader(MAJOR_NEGATIVE, -1 - value);
+    }
+  }
+
+  private void writeDouble(double value) throws IOException {
+    var single = (float) value;
+    // Use the smaller encoding when it does not lose precision.
+    if (single == value || Double.isNaN(value)) {
+      write(FLOAT32);
+      writeBytes(Float.floatToIntBits(single), 4);
+    } else {
+      write(FLOAT64);
+      writeBytes(Double.doubleToLongBits(value), 8);
+    }
+  }
+
+  private void writeText(String value) throws IOException {
+    var bytes = value.getBytes(UTF_8);
+    writeHeader(MAJOR_TEXT, bytes.length);
+    if (bytes.length > buffer.length - count) {
+      flushBuffer();
+      out.write(bytes);
+    } else {
+      System.arraycopy(bytes, 0, buffer, count, bytes.length);
+      count += bytes.length;
+    }
+  }
+
+  private void writeHeader(int major, long value) throws IOException {
+    var type = major << 5;
+    if (value < 24) {
+      write(type | (int) value);
+    } else if (value <= 0xffL) {
+      write(type | 24);
+      writeBytes(value, 1);
+    } else if (value <= 0xffffL) {
+      write(type | 25);
+      writeBytes(value, 2);
+    } else if (value <= 0xffffffffL) {
+      write(type | 26);
+      writeBytes(value, 4);
+    } else {
+      write(type | 27);
+      writeBytes(value, 8);
+    }
+  }
+
+  private void writeBytes(long value, int size) throws IOException {
+    for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+      write((int) (value >>> shift));
+    }
+  }
+
+  private void write(int b) throws IOException {
+    if (count == buffer.length) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buffer, 0, count);
+    count = 0;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serialization format for the values exchanged by the modules (http bodies, queue messages,
+ * redis values). Values are written to and read from byte streams, without going through
+ * an intermediate String.
+ *
+ * Implementations: {@link JsonCodec} and {@link CborCodec}, see {@link Codecs} for picking
+ * one per type.
+ * @author Raffaele Ragni
+ * @param <T> type of the values
+ */
+public interface Codec<T> {
+
+  /**
+   * @return the mime type of the format, used for content type headers and properties.
+   */
+  String contentType();
+
+  void encode(T value, OutputStream out) throws IOException;
+
+  /**
+   * @param in the stream, read until the end of the value
+   * @return the value, null if the stream is empty
+   * @throws IOException if the stream cannot be read
+   */
+  T decode(InputStream in) throws IOException;
+
+  /**
+   * Encodes in a buffer reused by the calling thread, only the returned array is allocated.
+   * @param value the value
+   * @return the bytes
+   */
+  default byte[] encode(T value) {
+    return EncodeBuffers.encode(this, value);
+  }
+
+  default T decode(byte[] bytes) {
+    try {
+      return decode(new ByteArrayInputStream(bytes));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Reads straight from the buffer, without copying it.
+   * @param buffer the buffer, its position is moved past the value
+   * @return the value
+   */
+  default T decode(ByteBuffer buffer) {
+    try {
+      return decode(new ByteBufferInputStream(buffer));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    }
+  }
+}
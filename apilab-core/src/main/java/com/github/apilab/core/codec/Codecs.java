@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.Gson;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Picks the codec of each type: json unless a different one is registered for that type.
+ * Modules ask this for the codec of their values, so switching a type to a binary format
+ * is a single registration at startup.
+ * @author Raffaele Ragni
+ */
+@Singleton
+public class Codecs {
+
+  private final Gson gson;
+  private final Map<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+
+  @Inject
+  public Codecs(Gson gson) {
+    this.gson = gson;
+  }
+
+  public <T> Codecs register(Class<T> type, Codec<T> codec) {
+    codecs.put(type, codec);
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> Codec<T> codec(Class<T> type) {
+    return (Codec<T>) codecs.computeIfAbsent(type, this::json);
+  }
+
+  public <T> Codec<T> json(Class<T> type) {
+    return new JsonCodec<>(gson, type);
+  }
+
+  public <T> Codec<T> cbor(Class<T> type) {
+    return new CborCodec<>(gson, type);
+  }
+}
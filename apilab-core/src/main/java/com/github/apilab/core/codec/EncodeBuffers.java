@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Per thread buffers reused by {@link Codec#encode(Object)}: the value is written in a buffer
+ * that stays with the thread, only the final array is allocated.
+ * Text codecs also reuse the UTF-8 writer of the buffer, its encoder and char buffer included.
+ * Buffers grown over 1MB are dropped after use, to not retain memory for one big value.
+ * @author Raffaele Ragni
+ */
+final class EncodeBuffers {
+
+  private static final int INITIAL_SIZE = 1024;
+  private static final int MAX_RETAINED = 1 << 20;
+
+  private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+  private EncodeBuffers() {
+  }
+
+  /**
+   * Writes a value as text.
+   * @param <T> type of the value
+   */
+  @FunctionalInterface
+  interface TextWriter<T> {
+    void write(T value, Writer out) throws IOException;
+  }
+
+  static <T> byte[] encode(Codec<T> codec, T value) {
+    var buffer = acquire();
+    try {
+      codec.encode(value, buffer);
+      return buffer.toByteArray();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  static <T> byte[] encodeText(TextWriter<T> writer, T value) {
+    var buffer = acquire();
+    try {
+      buffer.write(writer, value);
+      return buffer.toByteArray();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  static <T> void encodeText(TextWriter<T> writer, T value, OutputStream out) throws IOException {
+    var buffer = acquire();
+    try {
+      buffer.write(writer, value);
+      buffer.writeTo(out);
+    } finally {
+      buffer.release();
+    }
+  }
+
+  private static Buffer acquire() {
+    var buffer = BUFFERS.get();
+    if (buffer.inUse) {
+      // A codec encoding another value while encoding this one.
+      buffer = new Buffer();
+    }
+    buffer.inUse = true;
+    return buffer;
+  }
+
+  private static final class Buffer extends ByteArrayOutputStream {
+    boolean inUse;
+    private Writer text;
+
+    Buffer() {
+      super(INITIAL_SIZE);
+    }
+
+    <T> void write(TextWriter<T> writer, T value) throws IOException {
+      if (text == null) {
+        text = new OutputStreamWriter(this, UTF_8);
+      }
+      try {
+        writer.write(value, text);
+        text.flush();
+      } catch (IOException | RuntimeException ex) {
+        // Chars of the failed value may still be in the writer.
+        text = null;
+        throw ex;
+      }
+    }
+
+    void release() {
+      reset();
+      if (buf.length > MAX_RETAINED) {
+        buf = new byte[INITIAL_SIZE];
+      }
+      inUse = false;
+    }
+  }
+}
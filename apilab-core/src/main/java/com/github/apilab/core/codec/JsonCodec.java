@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Json, using the type adapter that gson has for the type.
+ * Reading and writing are streamed through the adapter, there is no intermediate String.
+ * A single value is encoded in the buffer of the calling thread, then copied to the stream;
+ * arrays of any length are streamed by {@link #encodeAll}.
+ * Decoding is lenient like gson.fromJson, the strict variants are for input that is not trusted,
+ * such as request bodies: standard json only and nothing after the value.
+ * @author Raffaele Ragni
+ * @param <T> type of the values
+ */
+public class JsonCodec<T> implements Codec<T> {
+
+  public static final String CONTENT_TYPE = "application/json";
+
+  private final Gson gson;
+  private final TypeAdapter<T> adapter;
+
+  public JsonCodec(Gson gson, Class<T> clazz) {
+    this.gson = gson;
+    this.adapter = gson.getAdapter(clazz).nullSafe();
+  }
+
+  @Override
+  public String contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public void encode(T value, OutputStream out) throws IOException {
+    EncodeBuffers.encodeText(this::write, value, out);
+  }
+
+  @Override
+  public byte[] encode(T value) {
+    return EncodeBuffers.encodeText(this::write, value);
+  }
+
+  private void write(T value, Writer out) throws IOException {
+    // A json writer takes a single value, only the encoding writer underneath is reused.
+    var writer = gson.newJsonWriter(out);
+    adapter.write(writer, value);
+    writer.flush();
+  }
+
+  /**
+   * Writes the values as a json array, one at a time: only the value being written is in memory.
+   * The writers are created once per array, not per value.
+   * @param values the values
+   * @param out the stream, flushed at the end but not closed
+   * @throws IOException if the stream cannot be written
+   */
+  public void encodeAll(Iterator<? extends T> values, OutputStream out) throws IOException {
+    var writer = gson.newJsonWriter(new OutputStreamWriter(out, UTF_8));
+    writer.beginArray();
+    while (values.hasNext()) {
+      adapter.write(writer, values.next());
+    }
+    writer.endArray();
+    writer.flush();
+  }
+
+  /**
+   * Reads a json array lazily, each value is parsed only when the iterator gets to it.
+   * An empty stream is an empty array.
+   * @param in the stream
+   * @return the values, the iterator throws UncheckedIOException if the stream cannot be read
+   */
+  public Iterator<T> decodeAll(InputStream in) {
+    return iterator(gson.newJsonReader(new InputStreamReader(in, UTF_8)), true);
+  }
+
+  /**
+   * Same as {@link #decodeAll(InputStream)}, accepting only standard json and nothing after the array.
+   * @param in the stream
+   * @return the values, the iterator throws UncheckedIOException if the stream cannot be read
+   */
+  public Iterator<T> decodeAllStrict(InputStream in) {
+    return iterator(gson.newJsonReader(new InputStreamReader(in, UTF_8)), false);
+  }
+
+  private Iterator<T> iterator(JsonReader reader, boolean lenient) {
+    reader.setLenient(lenient);
+    return new Iterator<>() {
+      private boolean started;
+      private boolean ended;
+
+      @Override
+      public boolean hasNext() {
+        try {
+          if (!started) {
+            started = true;
+            if (empty(reader)) {
+              ended = true;
+              return false;
+            }
+            reader.beginArray();
+          }
+          if (!ended && !reader.hasNext()) {
+            reader.endArray();
+            ended = true;
+            if (!lenient) {
+              ensureEnded(reader);
+            }
+          }
+          return !ended;
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex.getMessage(), ex);
+        }
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        try {
+          return adapter.read(reader);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex.getMessage(), ex);
+        }
+      }
+    };
+  }
+
+  @Override
+  public T decode(InputStream in) throws IOException {
+    return read(new InputStreamReader(in, UTF_8));
+  }
+
+  /**
+   * Reads a single value accepting only standard json, and nothing after it.
+   * @param in the stream, read until its end
+   * @return the value, null if the stream is empty
+   * @throws IOException if the stream cannot be read, MalformedJsonException if it is not strict json
+   */
+  public T decodeStrict(InputStream in) throws IOException {
+    var reader = gson.newJsonReader(new InputStreamReader(in, UTF_8));
+    reader.setLenient(false);
+    if (empty(reader)) {
+      return null;
+    }
+    var value = adapter.read(reader);
+    ensureEnded(reader);
+    return value;
+  }
+
+  @Override
+  public T decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  @Override
+  public T decode(ByteBuffer buffer) {
+    try {
+      return read(new ByteBufferReader(buffer, UTF_8));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    }
+  }
+
+  private T read(Reader in) throws IOException {
+    var reader = gson.newJsonReader(in);
+    // Same as gson.fromJson: lenient, and an empty document is a null value.
+    reader.setLenient(true);
+    return empty(reader) ? null : adapter.read(reader);
+  }
+
+  private static void ensureEnded(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.END_DOCUMENT) {
+      throw new MalformedJsonException("Unexpected content after the value at " + reader.getPath());
+    }
+  }
+
+  private static boolean empty(JsonReader reader) throws IOException {
+    try {
+      reader.peek();
+      return false;
+    } catch (EOFException ex) {
+      return true;
+    }
+  }
+}
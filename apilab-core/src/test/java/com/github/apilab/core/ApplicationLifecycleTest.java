@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class ApplicationLifecycleTest {
+
+  @Test
+  void testDependencyOrder() {
+    var events = Collections.synchronizedList(new ArrayList<String>());
+    var lifecycle = new ApplicationLifecycle();
+    lifecycle.env = new Env();
+    lifecycle.services = Set.of(
+      new Server(events),
+      new Database(events),
+      new Consumer(events));
+
+    lifecycle.start();
+    assertThat("started in dependency order",
+      events, is(List.of("start Database", "start Consumer", "start Server")));
+
+    events.clear();
+    lifecycle.stop();
+    assertThat("stopped in reverse order",
+      events, is(List.of("stop Server", "stop Consumer", "stop Database")));
+  }
+
+  @Test
+  void testFailures() {
+    var events = Collections.synchronizedList(new ArrayList<String>());
+    var lifecycle = new ApplicationLifecycle();
+    lifecycle.env = new Env();
+    lifecycle.services = Set.of(new Failing(events), new Consumer(events), new Unrelated(events));
+
+    assertThrows(IllegalStateException.class, lifecycle::start);
+    assertThat("the dependent is not started, the unrelated one is", events, is(List.of("start Unrelated")));
+
+    events.clear();
+    assertThrows(IllegalStateException.class, lifecycle::stop);
+    assertThat("a failing stop does not prevent the others", events,
+      containsInAnyOrder("stop Consumer", "stop Unrelated"));
+  }
+
+  @Test
+  void testFailedStopInUpperPhase() {
+    var events = Collections.synchronizedList(new ArrayList<String>());
+    var lifecycle = new ApplicationLifecycle();
+    lifecycle.env = new Env();
+    lifecycle.services = Set.of(new FailingServer(events), new Database(events));
+
+    lifecycle.start();
+    events.clear();
+    assertThrows(IllegalStateException.class, lifecycle::stop);
+    assertThat("the lower phase is stopped anyway", events, is(List.of("stop Database")));
+  }
+
+  @Test
+  void testCircularDependency() {
+    var items = List.<ApplicationLifecycleItem>of(new Circular1(), new Circular2());
+    assertThrows(IllegalStateException.class, () -> ApplicationLifecycle.topologicalOrder(items));
+  }
+
+  abstract static class Recording implements ApplicationLifecycleItem {
+    final List<String> events;
+
+    Recording(List<String> events) {
+      this.events = events;
+    }
+
+    @Override
+    public void start() {
+      events.add("start " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void stop() {
+      events.add("stop " + getClass().getSimpleName());
+    }
+  }
+
+  static class Database extends Recording {
+    Database(List<String> events) {
+      super(events);
+    }
+  }
+
+  static class Failing extends Database {
+    Failing(List<String> events) {
+      super(events);
+    }
+
+    @Override
+    public void start() {
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public void stop() {
+      throw new IllegalStateException();
+    }
+  }
+
+  static class Consumer extends Recording {
+    Consumer(List<String> events) {
+      super(events);
+    }
+
+    @Override
+    public Set<Class<? extends ApplicationLifecycleItem>> dependsOn() {
+      return Set.of(Database.class);
+    }
+  }
+
+  static class Unrelated extends Recording {
+    Unrelated(List<String> events) {
+      super(events);
+    }
+  }
+
+  static class Server extends Recording {
+    Server(List<String> events) {
+      super(events);
+    }
+
+    @Override
+    public int phase() {
+      return PHASE_SERVERS;
+    }
+  }
+
+  static class FailingServer extends Server {
+    FailingServer(List<String> events) {
+      super(events);
+    }
+
+    @Override
+    public void stop() {
+      throw new IllegalStateException();
+    }
+  }
+
+  static class Circular1 extends Recording {
+    Circular1() {
+      super(new ArrayList<>());
+    }
+
+    @Override
+    public Set<Class<? extends ApplicationLifecycleItem>> dependsOn() {
+      return Set.of(Circular2.class);
+    }
+  }
+
+  static class Circular2 extends Recording {
+    Circular2() {
+      super(new ArrayList<>());
+    }
+
+    @Override
+    public Set<Class<? extends ApplicationLifecycleItem>> dependsOn() {
+      return Set.of(Circular1.class);
+    }
+  }
+}
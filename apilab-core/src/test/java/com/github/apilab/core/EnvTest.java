@@ -15,6 +15,8 @@
  */
 package com.github.apilab.core;
 
+import java.time.Duration;
+import java.util.Map;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -33,4 +35,50 @@ class EnvTest {
     assertThat("Env read from properties", env.get(() -> "JAVALIN_HTTP2_PORT"), is("9090"));
     assertThat("Env read from properties", env.get(() -> "API_JWT_SECRET"), is(nullValue()));
   }
+
+  @Test
+  void testTyped() {
+    System.setProperty("TEST_TYPED_INT", "12");
+    System.setProperty("TEST_TYPED_BOOL", "true");
+    System.setProperty("TEST_TYPED_MILLIS", "1500");
+    System.setProperty("TEST_TYPED_DURATION", "PT2S");
+    System.setProperty("TEST_TYPED_BLANK", "");
+    try {
+      var env = new Env();
+      assertThat("int", env.getInt(() -> "TEST_TYPED_INT", 1), is(12));
+      assertThat("int default", env.getInt(() -> "TEST_TYPED_MISSING", 1), is(1));
+      assertThat("long", env.getLong(() -> "TEST_TYPED_INT", 1L), is(12L));
+      assertThat("boolean", env.getBoolean(() -> "TEST_TYPED_BOOL", false), is(true));
+      assertThat("boolean default", env.getBoolean(() -> "TEST_TYPED_MISSING", true), is(true));
+      assertThat("millis", env.getDuration(() -> "TEST_TYPED_MILLIS", Duration.ZERO), is(Duration.ofMillis(1500)));
+      assertThat("duration", env.getDuration(() -> "TEST_TYPED_DURATION", Duration.ZERO), is(Duration.ofSeconds(2)));
+      assertThat("blank duration", env.getDuration(() -> "TEST_TYPED_BLANK", Duration.ZERO), is(Duration.ZERO));
+      assertThat("blank int", env.getInt(() -> "TEST_TYPED_BLANK", 1), is(1));
+    } finally {
+      System.clearProperty("TEST_TYPED_INT");
+      System.clearProperty("TEST_TYPED_BOOL");
+      System.clearProperty("TEST_TYPED_MILLIS");
+      System.clearProperty("TEST_TYPED_DURATION");
+      System.clearProperty("TEST_TYPED_BLANK");
+    }
+  }
+
+  @Test
+  void testSnapshot() {
+    System.setProperty("TEST_SNAPSHOT", "1");
+    var snapshot = new Env().snapshot();
+    System.setProperty("TEST_SNAPSHOT", "2");
+    System.clearProperty("TEST_SNAPSHOT");
+
+    assertThat("snapshot does not change", snapshot.get(() -> "TEST_SNAPSHOT"), is("1"));
+    assertThat("snapshot typed", snapshot.getInt(() -> "TEST_SNAPSHOT", 0), is(1));
+    assertThat("snapshot typed as other type", snapshot.getLong(() -> "TEST_SNAPSHOT", 0L), is(1L));
+    assertThat("snapshot of snapshot", snapshot.snapshot(), is(snapshot));
+
+    var fixed = new EnvSnapshot(Map.of("A", "PT1M", "C", " "));
+    assertThat("missing value", fixed.getBoolean(() -> "B", true), is(true));
+    assertThat("missing value cached", fixed.getBoolean(() -> "B", false), is(false));
+    assertThat("duration", fixed.getDuration(() -> "A", Duration.ZERO), is(Duration.ofMinutes(1)));
+    assertThat("blank value", fixed.getDuration(() -> "C", Duration.ZERO), is(Duration.ZERO));
+  }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import com.google.gson.TypeAdapterFactory;
+import java.util.Set;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class ReflectionReportingTypeAdapterFactoryTest {
+
+  @Test
+  void testReport() {
+    var reporting = new ReflectionReportingTypeAdapterFactory();
+    var gson = new GSONModule().gson(Set.of(), reporting);
+
+    gson.toJson(new Plain());
+    gson.toJson(ImmutableData.builder().a(1).b("b").e(EnumSample.A).build());
+    gson.toJson("string");
+
+    var reflective = reporting.reflectiveTypes();
+    assertThat("plain class uses reflection", reflective, hasItem(Plain.class));
+    assertThat("generated adapter is used", reflective, not(hasItem(ImmutableData.class)));
+    assertThat("built in adapter is used", reflective, not(hasItem(String.class)));
+    assertThat("round trip with the delegate", gson.fromJson(gson.toJson(new Plain()), Plain.class).value, is(1));
+    assertThat("per factory", new ReflectionReportingTypeAdapterFactory().reflectiveTypes().isEmpty(), is(true));
+  }
+
+  @Test
+  void testExplicitFactories() {
+    Set<TypeAdapterFactory> factories = Set.of(new GsonAdaptersData());
+    var gson = new GSONModule().gson(factories);
+
+    var json = gson.toJson(ImmutableData.builder().a(1).b("b").e(EnumSample.A).build());
+    assertThat("explicit factory is used", gson.fromJson(json, Data.class).a(), is(1));
+  }
+
+  static class Plain {
+    int value = 1;
+  }
+}
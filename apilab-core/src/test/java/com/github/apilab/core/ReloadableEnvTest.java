@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class ReloadableEnvTest {
+
+  @AfterEach
+  void clearProperties() {
+    System.clearProperty("TEST_RELOAD_OVERRIDE");
+  }
+
+  @Test
+  void testReload() throws IOException, InterruptedException {
+    var dir = Files.createTempDirectory("apilab-env");
+    var file = dir.resolve("app.properties");
+    var env = new ReloadableEnv(file);
+    assertThat("missing file means no values", env.get(() -> "TEST_RELOAD"), is(nullValue()));
+
+    Files.writeString(file, "TEST_RELOAD=1\n", UTF_8);
+    env.reload();
+    assertThat("value from file", env.getInt(() -> "TEST_RELOAD", 0), is(1));
+
+    System.setProperty("TEST_RELOAD_OVERRIDE", "property");
+    Files.writeString(file, "TEST_RELOAD=1\nTEST_RELOAD_OVERRIDE=file\n", UTF_8);
+    env.reload();
+    assertThat("properties take precedence", env.get(() -> "TEST_RELOAD_OVERRIDE"), is("property"));
+
+    var notified = new CountDownLatch(1);
+    env.subscribe(e -> {
+      if (e.getInt(() -> "TEST_RELOAD", 0) == 2) {
+        notified.countDown();
+      }
+    });
+    env.start();
+    env.start();
+    try {
+      Files.writeString(file, "TEST_RELOAD=2\n", UTF_8);
+      // Some file systems only poll for changes, so allow for a generous wait.
+      assertThat("subscribers notified", notified.await(30, TimeUnit.SECONDS), is(true));
+      assertThat("value reloaded", env.snapshot().getInt(() -> "TEST_RELOAD", 0), is(2));
+    } finally {
+      env.stop();
+      env.stop();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core;
+
+import java.util.concurrent.Executors;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class VirtualThreadsTest {
+
+  @Test
+  void testLookup() throws Exception {
+    var supported = Runtime.version().feature() >= 21;
+
+    assertThat("available", VirtualThreads.available(), is(supported));
+    assertThat("executor", VirtualThreads.newVirtualThreadPerTaskExecutor().isPresent(), is(supported));
+    assertThat("factory", VirtualThreads.newVirtualThreadFactory("test-").isPresent(), is(supported));
+
+    var fallback = Executors.newSingleThreadExecutor();
+    var executor = VirtualThreads.orElse(fallback);
+    assertThat("fallback", executor == fallback, is(!supported));
+    executor.submit(() -> {}).get();
+    executor.shutdown();
+    fallback.shutdown();
+  }
+
+}
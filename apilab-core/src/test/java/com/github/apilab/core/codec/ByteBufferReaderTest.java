@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class ByteBufferReaderTest {
+
+  private static final String TEXT = "{\"a\":\"àè😀\"}";
+
+  @Test
+  void testRead() throws IOException {
+    var bytes = TEXT.getBytes(UTF_8);
+    var buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    var chars = new char[64];
+
+    try (var reader = new ByteBufferReader(buffer, UTF_8)) {
+      var count = reader.read(chars, 0, chars.length);
+
+      assertThat("all read", new String(chars, 0, count), is(TEXT));
+      assertThat("end", reader.read(chars, 0, chars.length), is(-1));
+    }
+  }
+
+  @Test
+  void testOneCharAtATime() throws IOException {
+    var reader = new ByteBufferReader(ByteBuffer.wrap(TEXT.getBytes(UTF_8)), UTF_8);
+    var result = new StringBuilder();
+    var chars = new char[1];
+    int count;
+    while ((count = reader.read(chars, 0, 1)) != -1) {
+      assertThat("one char", count, is(1));
+      result.append(chars[0]);
+    }
+
+    assertThat("surrogate pairs split across reads", result.toString(), is(TEXT));
+  }
+
+  @Test
+  void testJsonCodec() {
+    var codec = new JsonCodec<>(new Gson(), String.class);
+
+    assertThat("decoded", codec.decode(ByteBuffer.wrap("\"😀\"".getBytes(UTF_8))), is("😀"));
+    assertThat("empty", codec.decode(ByteBuffer.allocate(0)), is((String) null));
+  }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.core.codec;
+
+import com.github.apilab.core.Data;
+import com.github.apilab.core.EnumSample;
+import com.github.apilab.core.GSONModule;
+import com.github.apilab.core.ImmutableData;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class CodecTest {
+
+  private static final Data DATA = ImmutableData.builder()
+    .a(-300)
+    .b("bibi ünicode")
+    .e(EnumSample.C)
+    .i(Instant.parse("2001-06-06T10:00:00Z"))
+    .build();
+
+  @Test
+  void testJson() throws IOException {
+    var codecs = new Codecs(new GSONModule().gson());
+    var codec = codecs.codec(Data.class);
+
+    assertThat("json by default", codec.contentType(), is(JsonCodec.CONTENT_TYPE));
+    assertThat("same codec instance", codecs.codec(Data.class), is(codec));
+
+    var bytes = codec.encode(DATA);
+    assertThat("text json", new String(bytes, UTF_8).startsWith("{\"a\":-300"), is(true));
+    assertThat("round trip bytes", codec.decode(bytes), is(DATA));
+    assertThat("round trip buffer", codec.decode(ByteBuffer.wrap(bytes)), is(DATA));
+
+    var direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    assertThat("round trip direct buffer", codec.decode(direct), is(DATA));
+
+    assertThat("empty is null", codec.decode(new byte[0]), is(nullValue()));
+    assertThat("null value", codec.decode(codec.encode(null)), is(nullValue()));
+    assertThat("stream", codec.decode(new ByteArrayInputStream(bytes)), is(DATA));
+  }
+
+  @Test
+  void testJsonArrays() throws IOException {
+    var codec = new JsonCodec<>(new GSONModule().gson(), Data.class);
+    var out = new ByteArrayOutputStream();
+    codec.encodeAll(List.of(DATA, DATA).iterator(), out);
+    var bytes = out.toByteArray();
+    assertThat("array", new String(bytes, UTF_8).startsWith("[{\"a\":-300"), is(true));
+
+    var values = codec.decodeAll(new ByteArrayInputStream(bytes));
+    assertThat("first", values.next(), is(DATA));
+    assertThat("second", values.hasNext() && values.next().equals(DATA), is(true));
+    assertThat("end", values.hasNext(), is(false));
+
+    assertThat("empty stream", codec.decodeAll(new ByteArrayInputStream(new byte[0])).hasNext(), is(false));
+    assertThat("empty array", codec.decodeAll(new ByteArrayInputStream("[]".getBytes(UTF_8))).hasNext(), is(false));
+
+    var truncated = codec.decodeAll(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 5)));
+    assertThat("first", truncated.next(), is(DATA));
+    assertThrows(RuntimeException.class, () -> truncated.next());
+  }
+
+  @Test
+  void testCbor() {
+    var codecs = new Codecs(new GSONModule().gson());
+    Codec<Data> codec = codecs.cbor(Data.class);
+    codecs.register(Data.class, codec);
+
+    assertThat("registered codec", codecs.codec(Data.class), is(codec));
+    assertThat("cbor type", codec.contentType(), is(CborCodec.CONTENT_TYPE));
+
+    var bytes = codec.encode(DATA);
+    assertThat("round trip", codec.decode(bytes), is(DATA));
+    assertThat("round trip buffer", codec.decode(ByteBuffer.wrap(bytes)), is(DATA));
+    assertThat("smaller than json",
+      bytes.length, lessThan(codecs.json(Data.class).encode(DATA).length));
+    assertThat("empty is null", codec.decode(new byte[0]), is(nullValue()));
+    assertThat("null value", codec.decode(codec.encode(null)), is(nullValue()));
+  }
+
+  @Test
+  void testCborValues() {
+    var gson = new GSONModule().gson();
+    var codec = new CborCodec<>(gson, Map.class);
+
+    var values = Map.of(
+      "small", 1.0,
+      "big", (double) Long.MAX_VALUE,
+      "negative", -1_000_000.0,
+      "fraction", 0.1,
+      "text", "",
+      "bool", true,
+      "list", List.of("a", 2.5, false),
+      "nested", Map.of("k", List.of()));
+
+    assertThat("round trip", codec.decode(codec.encode(values)), is(values));
+
+    var decimal = new CborCodec<>(gson, BigDecimal.class);
+    var precise = new BigDecimal("0.1000000000000000000001");
+    assertThat("exact decimals", decimal.decode(decimal.encode(precise)), is(precise));
+  }
+
+  @Test
+  void testCborDefiniteLengths() {
+    var codec = new CborCodec<>(new GSONModule().gson(), Map.class);
+    // {"a": [1, -2, "x"], "b": null, "c": 1.5 (half float)}
+    var bytes = new byte[] {
+      (byte) 0xa3,
+      0x61, 'a', (byte) 0x83, 0x01, 0x21, 0x61, 'x',
+      0x61, 'b', (byte) 0xf6,
+      0x61, 'c', (byte) 0xf9, 0x3e, 0x00
+    };
+    var result = codec.decode(bytes);
+    assertThat("array", result.get("a"), is(Arrays.asList(1.0, -2.0, "x")));
+    assertThat("null", result.get("b"), is(nullValue()));
+    assertThat("half float", result.get("c"), is(1.5));
+  }
+
+  @Test
+  void testCborErrors() {
+    var codec = new CborCodec<>(new GSONModule().gson(), Map.class);
+    assertThrows(RuntimeException.class, () -> codec.decode(new byte[] {(byte) 0xbf, 0x61}));
+    assertThrows(JsonParseException.class, () -> codec.decode(new byte[] {(byte) 0xa1, (byte) 0x80, 0x01}));
+
+    // Arrays of one array, nested far past the limit.
+    var nested = new byte[100_000];
+    Arrays.fill(nested, (byte) 0x81);
+    assertThrows(JsonParseException.class, () -> codec.decode(nested));
+  }
+
+  @Test
+  void testCborSharedStream() throws IOException {
+    var codec = new CborCodec<>(new GSONModule().gson(), String.class);
+    var out = new ByteArrayOutputStream();
+    codec.encode("first", out);
+    codec.encode("second", out);
+    InputStream in = new ByteArrayInputStream(out.toByteArray()) {
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+
+    assertThat("first value", codec.decode(in), is("first"));
+    assertThat("read up to its end only", codec.decode(in), is("second"));
+  }
+
+  @Test
+  void testReusedEncodeBuffers() throws IOException {
+    var gson = new GSONModule().gson();
+    var strings = new JsonCodec<>(gson, String.class);
+    var big = "x".repeat(2 << 20);
+
+    assertThat("big value", strings.decode(strings.encode(big)), is(big));
+    assertThat("small value after a big one", strings.encode("a"), is("\"a\"".getBytes(UTF_8)));
+    var out = new ByteArrayOutputStream();
+    strings.encode("a", out);
+    assertThat("to a stream", out.toByteArray(), is("\"a\"".getBytes(UTF_8)));
+
+    // What a failed value wrote is not left for the next one.
+    var failing = new JsonCodec<>(new GsonBuilder().registerTypeAdapter(StringBuilder.class, new TypeAdapter<StringBuilder>() {
+      @Override
+      public void write(JsonWriter writer, StringBuilder value) throws IOException {
+        writer.beginArray().value("partial");
+        throw new IllegalStateException("failed");
+      }
+
+      @Override
+      public StringBuilder read(JsonReader reader) {
+        return null;
+      }
+    }).create(), StringBuilder.class);
+    assertThrows(IllegalStateException.class, () -> failing.encode(new StringBuilder()));
+    assertThat("after a failure", strings.encode("a"), is("\"a\"".getBytes(UTF_8)));
+
+    // A codec encoding another value while it encodes its own does not share the buffer.
+    Codec<String> nesting = new Codec<>() {
+      @Override
+      public String contentType() {
+        return "text/plain";
+      }
+
+      @Override
+      public void encode(String value, OutputStream out) throws IOException {
+        var inner = strings.encode(value);
+        out.write(inner);
+        out.write(inner);
+      }
+
+      @Override
+      public String decode(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), UTF_8);
+      }
+    };
+    assertThat("nested", nesting.decode(nesting.encode("a")), is("\"a\"\"a\""));
+  }
+}
@@ -19,7 +19,6 @@ import com.github.apilab.core.ApplicationLifecycleItem;
 import com.github.apilab.core.Env;
 import io.grpc.Server;
 import java.io.IOException;
-import java.util.Optional;
 import javax.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +29,8 @@ public class GRPCLifecycleItem implements ApplicationLifecycleItem {
 
   @Inject Server server;
   @Inject Env env;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enabled;
 
   @Inject
   public GRPCLifecycleItem() {
@@ -38,8 +39,9 @@ public class GRPCLifecycleItem implements ApplicationLifecycleItem {
 
   @Override
   public void start() {
+    enabled = env.getBoolean(() -> "API_ENABLE_GRPC", false);
     try {
-      if (enabled(env)) {
+      if (enabled) {
         LOG.info("## GRPC ENABLED");
         server.start();
       }
@@ -49,14 +51,13 @@ public class GRPCLifecycleItem implements ApplicationLifecycleItem {
   }
 
   @Override
-  public void stop() {
-    if (enabled(env))
-      server.shutdown();
+  public int phase() {
+    return PHASE_SERVERS;
   }
 
-  private static boolean enabled(Env env) {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_GRPC"))
-        .map(Boolean::valueOf)
-        .orElse(false);
+  @Override
+  public void stop() {
+    if (enabled)
+      server.shutdown();
   }
 }
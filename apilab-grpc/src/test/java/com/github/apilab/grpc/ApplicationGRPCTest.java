@@ -70,6 +70,8 @@ class ApplicationGRPCTest {
     lifecycle.env = new Env();
     lifecycle.server = mock(Server.class);
 
+    // The flag is read on start.
+    lifecycle.start();
     lifecycle.stop();
 
     verify(lifecycle.server).shutdown();
@@ -94,6 +96,8 @@ class ApplicationGRPCTest {
     lifecycle.env = new Env();
     lifecycle.server = mock(Server.class);
 
+    // The flag is read on start.
+    lifecycle.start();
     lifecycle.stop();
 
     verify(lifecycle.server, never()).shutdown();
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 r.ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest;
+
+import com.github.apilab.core.codec.Codec;
+import com.github.apilab.core.codec.JsonCodec;
+import com.github.apilab.rest.exceptions.UnprocessableEntityException;
+import com.google.gson.stream.MalformedJsonException;
+import io.javalin.http.Context;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads and writes bodies of endpoints with a codec, as an alternative to ctx.json() and
+ * ctx.bodyAsClass() which are bound to json and go through a String.
+ * Get the codec of a type from the Codecs registry, or use one directly.
+ * Json request bodies are read strictly: standard json only, and nothing after the value.
+ *
+ * Large json arrays can be streamed with {@link #writeAll} and {@link #readEach}: values are
+ * written to and read from the connection one at a time, the whole body is never in memory.
+ *
+ * @author Raffaele Ragni
+ */
+public final class EndpointCodecs {
+
+  private EndpointCodecs() {
+  }
+
+  /**
+   * Reads the request body.
+   * @param <T> type of the body
+   * @param ctx the request context
+   * @param codec the codec of the body
+   * @return the body, null if empty
+   * @throws IOException if the body cannot be read
+   * @throws UnprocessableEntityException if the body is not valid for the codec
+   */
+  public static <T> T read(Context ctx, Codec<T> codec) throws IOException {
+    try {
+      var in = ctx.req.getInputStream();
+      return codec instanceof JsonCodec ? ((JsonCodec<T>) codec).decodeStrict(in) : codec.decode(in);
+    } catch (EOFException | MalformedJsonException | RuntimeException ex) {
+      // Truncated or malformed body
+      throw new UnprocessableEntityException(ex.getMessage());
+    }
+  }
+
+  /**
+   * Sets the response body and content type.
+   * @param <T> type of the body
+   * @param ctx the request context
+   * @param codec the codec of the body
+   * @param value the body
+   */
+  public static <T> void write(Context ctx, Codec<T> codec, T value) {
+    ctx.contentType(codec.contentType());
+    ctx.result(new ByteArrayInputStream(codec.encode(value)));
+  }
+
+  /**
+   * Writes the values as a json array straight to the response, as they come.
+   * The response is sent chunked and is committed once the first buffer is full: a failure
+   * after that point can only abort the connection, the status can't be changed anymore.
+   * @param <T> type of the values
+   * @param ctx the request context
+   * @param codec the json codec of the values
+   * @param values the values
+   * @throws IOException if the response cannot be written
+   */
+  public static <T> void writeAll(Context ctx, JsonCodec<T> codec, Iterator<? extends T> values) throws IOException {
+    ctx.contentType(codec.contentType());
+    codec.encodeAll(values, ctx.res.getOutputStream());
+  }
+
+  /**
+   * Same as {@link #writeAll(Context, JsonCodec, Iterator)}, closing the stream at the end.
+   * @param <T> type of the values
+   * @param ctx the request context
+   * @param codec the json codec of the values
+   * @param values the values
+   * @throws IOException if the response cannot be written
+   */
+  public static <T> void writeAll(Context ctx, JsonCodec<T> codec, Stream<? extends T> values) throws IOException {
+    try (values) {
+      writeAll(ctx, codec, values.iterator());
+    }
+  }
+
+  /**
+   * Reads the request body as a json array, passing each value as soon as it is parsed.
+   * @param <T> type of the values
+   * @param ctx the request context
+   * @param codec the json codec of the values
+   * @param each gets the values, its exceptions are thrown as they are
+   * @return how many values were read
+   * @throws IOException if the body cannot be read
+   * @throws UnprocessableEntityException if the body is not a valid json array of values
+   */
+  public static <T> long readEach(Context ctx, JsonCodec<T> codec, Consumer<? super T> each) throws IOException {
+    var values = codec.decodeAllStrict(ctx.req.getInputStream());
+    var count = 0L;
+    while (true) {
+      T value;
+      try {
+        if (!values.hasNext()) {
+          return count;
+        }
+        value = values.next();
+      } catch (UncheckedIOException ex) {
+        if (ex.getCause() instanceof EOFException || ex.getCause() instanceof MalformedJsonException) {
+          throw new UnprocessableEntityException(ex.getMessage());
+        }
+        throw ex.getCause();
+      } catch (RuntimeException ex) {
+        // Malformed value
+        throw new UnprocessableEntityException(ex.getMessage());
+      }
+      each.accept(value);
+      count++;
+    }
+  }
+}
@@ -17,7 +17,6 @@ package com.github.apilab.rest;
 
 import com.github.apilab.core.Env;
 import io.javalin.Javalin;
-import java.util.Optional;
 import javax.inject.Inject;
 import com.github.apilab.core.ApplicationLifecycleItem;
 
@@ -34,27 +33,29 @@ public class JavalinLifecycle implements ApplicationLifecycleItem {
 
   @Inject Javalin javalin;
   @Inject Env env;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enabled;
 
   @Override
   public void start() {
-    if (!enabled()) {
+    enabled = env.getBoolean(() -> "API_ENABLE_ENDPOINTS", false);
+    if (!enabled) {
       return;
     }
     javalin.start();
   }
 
+  @Override
+  public int phase() {
+    return PHASE_SERVERS;
+  }
+
   @Override
   public void stop() {
-    if (!enabled()) {
+    if (!enabled) {
       return;
     }
     javalin.stop();
   }
 
-  private boolean enabled() {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_ENDPOINTS"))
-       .map(Boolean::valueOf)
-       .orElse(false);
-  }
-
 }
@@ -18,6 +18,7 @@ package com.github.apilab.rest;
 import com.github.apilab.core.Env;
 import com.github.apilab.rest.auth.JavalinJWTAccessManager;
 import com.github.apilab.rest.auth.JavalinJWTFilter;
+import com.github.apilab.rest.auth.JwksKeyCache;
 import com.github.apilab.rest.exceptions.ServerException;
 import com.google.gson.Gson;
 import dagger.Provides;
@@ -37,7 +38,6 @@ import io.swagger.v3.oas.models.security.SecurityScheme;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import static java.util.Optional.ofNullable;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Supplier;
@@ -85,6 +85,10 @@ public class JavalinModule {
       Set<Endpoint> endpoints,
       @Named("healthChecks") Map<String, Supplier<Boolean>> healthChecks) {
 
+    // The javalin is a singleton, so is the key set: it is read once and refreshed in the background.
+    var auth = authConfiguration.withEnv(env);
+    var jwtFilter = new JavalinJWTFilter(auth, jwks(auth));
+
     JavalinJson.setFromJsonMapper(gson::fromJson);
     JavalinJson.setToJsonMapper(gson::toJson);
 
@@ -93,7 +97,7 @@ public class JavalinModule {
       config.server(() -> JettyHttp2Creator.createHttp2Server(env));
       config.accessManager(new JavalinJWTAccessManager());
       config.registerPlugin(new OpenApiPlugin(getOpenApiOptions(gson)));
-      config.registerPlugin(new JavalinJWTFilter(authConfiguration));
+      config.registerPlugin(jwtFilter);
       config.registerPlugin(new HealthCheckPlugin(healthChecks, env));
     });
 
@@ -113,9 +117,7 @@ public class JavalinModule {
       c.result(response);
     });
 
-    boolean enabledEndpoints = Optional.ofNullable(env.get(() -> "API_ENABLE_ENDPOINTS"))
-        .map(Boolean::valueOf)
-        .orElse(false);
+    boolean enabledEndpoints = env.getBoolean(() -> "API_ENABLE_ENDPOINTS", false);
 
     if (enabledEndpoints) {
       LOG.info("## ENDPOINTS ENABLED");
@@ -128,15 +130,22 @@ public class JavalinModule {
     // Add to the logging context the key/value of request uuid
     // And also respond in the response header with the request uuid so the users
     // can send them for throubleshooting and finding the requests logs via uuid.
-    javalin.before(ctx -> MDC.put(MDC_REQUEST_UUID, UUID.randomUUID().toString()));
-    javalin.after(ctx -> {
-      String uuid = ofNullable(MDC.get(MDC_REQUEST_UUID)).orElse("");
+    // The header is set before the handler: a streamed response is already sent by the time the
+    // after handlers run, and headers set there would be lost.
+    javalin.before(ctx -> {
+      var uuid = UUID.randomUUID().toString();
+      MDC.put(MDC_REQUEST_UUID, uuid);
       ctx.header(HEADER_REQUEST_UUID, uuid);
-      MDC.remove(MDC_REQUEST_UUID);
     });
+    javalin.after(ctx -> MDC.remove(MDC_REQUEST_UUID));
     return javalin;
   }
 
+  static Optional<JwksKeyCache> jwks(AuthConfiguration configuration) {
+    return configuration.jwksLocation().map(location -> new JwksKeyCache(location,
+      configuration.jwksRefresh().orElse(AuthConfiguration.DEFAULT_JWKS_REFRESH)));
+  }
+
   // API Docs
 
   public OpenApiOptions getOpenApiOptions(Gson gson) {
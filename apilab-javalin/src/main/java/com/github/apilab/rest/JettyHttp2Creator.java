@@ -16,10 +16,14 @@
 package com.github.apilab.rest;
 
 import com.github.apilab.core.Env;
+import com.github.apilab.core.VirtualThreads;
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.jetty.JettyStatisticsCollector;
+import java.time.Duration;
+import java.util.Optional;
 import static java.util.Optional.ofNullable;
+import java.util.concurrent.ThreadFactory;
 import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http2.HTTP2Cipher;
 import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
@@ -30,7 +34,11 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Creates a http2 server.
@@ -38,6 +46,8 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
  */
 public class JettyHttp2Creator {
 
+  private static final Logger LOG = LoggerFactory.getLogger(JettyHttp2Creator.class);
+
   private static volatile boolean metricsInitialized = false;
 
   private JettyHttp2Creator() {
@@ -60,19 +70,35 @@ public class JettyHttp2Creator {
    * - JAVALIN_HTTPS2_CERT_CLASSPATH: "/keystore.jks" (system property is javalinHttps2CertClasspath)
    * - JAVALIN_HTTPS2_CERT_PASSWORD: "password" (system property is getHttps2CertPassword)
    *
+   * Threads and connectors, the jetty defaults unless set:
+   * - JAVALIN_MAX_THREADS: 200, or 10000 with virtual threads
+   * - JAVALIN_MIN_THREADS: 8
+   * - JAVALIN_THREADS_IDLE_TIMEOUT: 60s, before an idle thread over the minimum is stopped
+   * - JAVALIN_VIRTUAL_THREADS: false, when true and the runtime has them the pool threads are virtual
+   * - JAVALIN_MAX_QUEUED_REQUESTS: 0 (no limit), requests arriving while this many tasks are waiting
+   *   for a thread get a 503, and the pool queue is bounded.
+   * - JAVALIN_ACCEPTORS: -1 (derived from the cores) for each connector
+   * - JAVALIN_SELECTORS: -1 (derived from the cores) for each connector
+   * - JAVALIN_IDLE_TIMEOUT: 30s, for idle connections
+   * - JAVALIN_ACCEPT_QUEUE_SIZE: 0 (the OS default), the socket backlog
+   * - JAVALIN_HTTP2_MAX_STREAMS: 128, concurrent streams per http2 connection
+   *
    * System properties take over environment variables.
    * @param env the environment container
    * @return Jetty server
    */
   public static Server createHttp2Server(Env env) {
-    Server server = new Server();
+    var maxQueued = env.getInt(() -> "JAVALIN_MAX_QUEUED_REQUESTS", 0);
+    var pool = createThreadPool(env, maxQueued);
+    Server server = new Server(pool);
 
-    setupPrometheusMetrics(server);
+    setupPrometheusMetrics(server, pool, maxQueued);
     setupPlainHttp(server, env);
 
     var sslContextFactory = createSSLContextFactory(env);
     var httpsConfig = createHttpsConfig(env);
     HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(httpsConfig);
+    h2.setMaxConcurrentStreams(env.getInt(() -> "JAVALIN_HTTP2_MAX_STREAMS", h2.getMaxConcurrentStreams()));
     ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
     alpn.setDefaultProtocol("h2");
 
@@ -81,8 +107,10 @@ public class JettyHttp2Creator {
 
     // HTTP/2 Connector
     // Javalin will take care of stopping the server
-    ServerConnector http2Connector = new ServerConnector(server, ssl, alpn, h2, new HttpConnectionFactory(httpsConfig)); //NOSONAR
+    ServerConnector http2Connector = new ServerConnector(server, getAcceptors(env), getSelectors(env), //NOSONAR
+      ssl, alpn, h2, new HttpConnectionFactory(httpsConfig));
     http2Connector.setPort(getHttps2Port(env));
+    tuneConnector(http2Connector, env);
     server.addConnector(http2Connector);
 
     return server;
@@ -115,18 +143,58 @@ public class JettyHttp2Creator {
 
   private static void setupPlainHttp(Server server, Env env) {
     // Javalin will take care of stopping the server
-    ServerConnector connector = new ServerConnector(server); //NOSONAR
+    ServerConnector connector = new ServerConnector(server, getAcceptors(env), getSelectors(env)); //NOSONAR
     connector.setPort(getHttp2Port(env));
+    tuneConnector(connector, env);
     server.addConnector(connector);
   }
 
-  private static void setupPrometheusMetrics(Server server) {
+  private static void tuneConnector(ServerConnector connector, Env env) {
+    connector.setIdleTimeout(env.getDuration(() -> "JAVALIN_IDLE_TIMEOUT",
+      Duration.ofMillis(connector.getIdleTimeout())).toMillis());
+    connector.setAcceptQueueSize(env.getInt(() -> "JAVALIN_ACCEPT_QUEUE_SIZE", connector.getAcceptQueueSize()));
+  }
+
+  private static QueuedThreadPool createThreadPool(Env env, int maxQueued) {
+    var virtual = env.getBoolean(() -> "JAVALIN_VIRTUAL_THREADS", false)
+      ? VirtualThreads.newVirtualThreadFactory("jetty-virtual-")
+      : Optional.<ThreadFactory>empty();
+    var maxThreads = env.getInt(() -> "JAVALIN_MAX_THREADS", virtual.isPresent() ? 10_000 : 200);
+    var minThreads = env.getInt(() -> "JAVALIN_MIN_THREADS", 8);
+    var idleTimeout = (int) env.getDuration(() -> "JAVALIN_THREADS_IDLE_TIMEOUT", Duration.ofSeconds(60)).toMillis();
+    // Bounded, the extra room is for jetty's own tasks (selectors, acceptors) so that they are
+    // not the ones rejected: requests are shed before that by the LoadSheddingHandler.
+    var queue = maxQueued > 0
+      ? new BlockingArrayQueue<Runnable>(minThreads, minThreads, maxQueued + maxThreads)
+      : new BlockingArrayQueue<Runnable>(minThreads, minThreads);
+    LOG.info("## JETTY THREADS min: {}, max: {}, virtual: {}, max queued: {}",
+      minThreads, maxThreads, virtual.isPresent(), maxQueued);
+    var pool = virtual
+      .map(factory -> new QueuedThreadPool(maxThreads, minThreads, idleTimeout, -1, queue, null, factory))
+      .orElseGet(() -> new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue));
+    pool.setName("jetty");
+    return pool;
+  }
+
+  private static void setupPrometheusMetrics(Server server, QueuedThreadPool pool, int maxQueued) {
     StatisticsHandler statisticsHandler = new StatisticsHandler();
     var collector = new JettyStatisticsCollector(statisticsHandler);
     initializeMetrics(collector);
+    if (maxQueued > 0) {
+      // Inside the statistics, so that the rejected requests are counted too.
+      statisticsHandler.setHandler(new LoadSheddingHandler(pool::getQueueSize, maxQueued));
+    }
     server.setHandler(statisticsHandler);
   }
 
+  private static int getAcceptors(Env env) {
+    return env.getInt(() -> "JAVALIN_ACCEPTORS", -1);
+  }
+
+  private static int getSelectors(Env env) {
+    return env.getInt(() -> "JAVALIN_SELECTORS", -1);
+  }
+
   private static synchronized void initializeMetrics(Collector collector) {
     if (!metricsInitialized) {
       var registry = CollectorRegistry.defaultRegistry;
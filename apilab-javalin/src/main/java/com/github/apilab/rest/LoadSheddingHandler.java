@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest;
+
+import java.io.IOException;
+import java.util.function.IntSupplier;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Answers 503 right away when the thread pool is too far behind, instead of queueing more work
+ * and letting every request wait. Clients get a Retry-After so that they back off.
+ * @author Raffaele Ragni
+ */
+class LoadSheddingHandler extends HandlerWrapper {
+
+  private final IntSupplier queued;
+  private final int maxQueued;
+
+  /**
+   * @param queued the tasks currently waiting for a thread
+   * @param maxQueued over this many tasks waiting, requests are rejected
+   */
+  LoadSheddingHandler(IntSupplier queued, int maxQueued) {
+    this.queued = queued;
+    this.maxQueued = maxQueued;
+  }
+
+  @Override
+  public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    if (queued.getAsInt() >= maxQueued) {
+      baseRequest.setHandled(true);
+      response.setHeader("Retry-After", "1");
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    super.handle(target, baseRequest, request, response);
+  }
+}
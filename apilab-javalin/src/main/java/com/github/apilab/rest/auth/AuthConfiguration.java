@@ -18,7 +18,9 @@ package com.github.apilab.rest.auth;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.github.apilab.core.Env;
 import io.javalin.core.security.Role;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.function.Function;
 import org.immutables.value.Value;
 import org.immutables.value.Value.Default;
@@ -29,12 +31,25 @@ import org.immutables.value.Value.Default;
  * - roleMapper: required, the function that maps your 'Roles' enum to the Javalin Role interface.
  *               Most of the times a Roles::valueOf is enough.
  * - jwtSecret: it's optional if you have secret validation in this satellite API.
+ *              Signs the tokens of the JavalinJWTCreator and verifies them.
+ *              Defaults to a HMAC256 with env API_JWT_SECRET.
+ * - jwtVerifyKey: optional public key for RS and ES tokens, it verifies them and can not sign.
+ * - jwksLocation: optional JSON web key set for RS and ES tokens, a file or url.
+ * - jwksRefresh: how often the key set is read again, 5 minutes if not set. See {@link JwksKeyCache}.
  * - jwtRolesProperty: optionally specify a different property for the roles array inside the JWT.
+ * - jwtCacheSize: tokens remembered once verified, with their roles. 0 (the default) to verify every request.
+ * - jwtCacheTtl: how long a token is remembered, never past its expiration. 5 minutes if not set.
+ *
+ * The JavalinModule fills in what is not set from the env, see {@link #withEnv(Env)}.
  *
  * @author Raffaele Ragni raffaele.ragni@gmail.com
  */
 @Value.Immutable
 public interface AuthConfiguration {
+
+  Duration DEFAULT_JWKS_REFRESH = Duration.ofMinutes(5);
+  Duration DEFAULT_JWT_CACHE_TTL = Duration.ofMinutes(5);
+
   @Default default Function<String, Role> roleMapper() {
     return s -> new Role() {
       @Override
@@ -49,5 +64,36 @@ public interface AuthConfiguration {
       .ofNullable(new Env().get(() -> "API_JWT_SECRET"))
       .map(Algorithm::HMAC256);
   }
+  Optional<Algorithm> jwtVerifyKey();
+  Optional<String> jwksLocation();
+  Optional<Duration> jwksRefresh();
   Optional<String> jwtRolesProperty();
+  OptionalInt jwtCacheSize();
+  Optional<Duration> jwtCacheTtl();
+
+  /**
+   * Fills in what is not set from the env:
+   * - jwtVerifyKey: a public key (PEM or base64) in API_JWT_PUBLIC_KEY with the algorithm in
+   *                 API_JWT_ALGORITHM, RS256 or ES256 by default.
+   * - jwksLocation: API_JWT_JWKS, read again every API_JWT_JWKS_REFRESH.
+   * - jwtCacheSize: API_JWT_CACHE_SIZE, jwtCacheTtl: API_JWT_CACHE_TTL.
+   * @param env the env
+   * @return the configuration with the env values
+   */
+  default AuthConfiguration withEnv(Env env) {
+    var builder = ImmutableAuthConfiguration.builder().from(this);
+    if (jwtVerifyKey().isEmpty()) {
+      builder.jwtVerifyKey(Optional
+        .ofNullable(env.get(() -> "API_JWT_PUBLIC_KEY"))
+        .map(key -> PublicKeys.algorithm(PublicKeys.parse(key), env.get(() -> "API_JWT_ALGORITHM"))));
+    }
+    if (jwksLocation().isEmpty()) {
+      builder.jwksLocation(Optional.ofNullable(env.get(() -> "API_JWT_JWKS")));
+    }
+    return builder
+      .jwksRefresh(jwksRefresh().orElseGet(() -> env.getDuration(() -> "API_JWT_JWKS_REFRESH", DEFAULT_JWKS_REFRESH)))
+      .jwtCacheSize(jwtCacheSize().orElseGet(() -> env.getInt(() -> "API_JWT_CACHE_SIZE", 0)))
+      .jwtCacheTtl(jwtCacheTtl().orElseGet(() -> env.getDuration(() -> "API_JWT_CACHE_TTL", DEFAULT_JWT_CACHE_TTL)))
+      .build();
+  }
 }
@@ -16,22 +16,30 @@
 package com.github.apilab.rest.auth;
 
 import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_ROLES;
+import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_ROLE_BITS;
 import io.javalin.core.security.AccessManager;
 import io.javalin.core.security.Role;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import static java.lang.String.format;
 import java.util.Collections;
+import java.util.Map;
 import static java.util.Optional.ofNullable;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import static java.util.stream.Collectors.joining;
 
 /**
  * Works along the JavalinJWTRolesFilter to check roles.
+ *
+ * The permitted roles of each route are turned once into role bits and a 403 message, so a check
+ * is an AND against the bits the filter put in the request.
  * @author Raffaele Ragni raffaele.ragni@gmail.com
  */
 public class JavalinJWTAccessManager implements AccessManager {
 
+  private final Map<Set<Role>, Permitted> routes = new ConcurrentHashMap<>();
+
   @Override
   public void manage(Handler handler, Context ctx, Set<Role> permittedRoles) throws Exception {
 
@@ -41,19 +49,14 @@ public class JavalinJWTAccessManager implements AccessManager {
       return;
     }
 
+    var permitted = routes.computeIfAbsent(permittedRoles, Permitted::new);
+
     // Roles are required at this point, even if it's an empty list
     // it means the JWT token was there.
-    Set<Role> roles = ctx.attribute(REQ_ATTR_ROLES);
     // No roles at all, no auth.
     // No roles are in common, means no auth
-    if (ofNullable(roles).map(r -> Collections.disjoint(r, permittedRoles)).orElse(true)) {
-      ctx.status(403)
-        .result(format(
-          "Not allowed: missing roles. Required roles for this path: %s",
-          permittedRoles.stream()
-            .map(Object::toString)
-            .collect(joining("] [", "[", "]")
-          )));
+    if (!permitted.allows(ctx)) {
+      ctx.status(403).result(permitted.message);
       return;
     }
 
@@ -61,4 +64,29 @@ public class JavalinJWTAccessManager implements AccessManager {
 
   }
 
+  private static final class Permitted {
+    private final Set<Role> roles;
+    private final long bits;
+    private final String message;
+
+    Permitted(Set<Role> roles) {
+      this.roles = roles;
+      this.bits = RoleBits.mask(roles);
+      this.message = format(
+        "Not allowed: missing roles. Required roles for this path: %s",
+        roles.stream()
+          .map(Object::toString)
+          .collect(joining("] [", "[", "]")));
+    }
+
+    boolean allows(Context ctx) {
+      Long requestBits = ctx.attribute(REQ_ATTR_ROLE_BITS);
+      if (requestBits != null && RoleBits.representable(requestBits) && RoleBits.representable(bits)) {
+        return (requestBits & bits) != 0;
+      }
+      Set<Role> requestRoles = ctx.attribute(REQ_ATTR_ROLES);
+      return requestRoles != null && !Collections.disjoint(requestRoles, roles);
+    }
+  }
+
 }
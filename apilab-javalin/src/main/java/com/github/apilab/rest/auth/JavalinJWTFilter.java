@@ -16,27 +16,35 @@
 package com.github.apilab.rest.auth;
 
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.AlgorithmMismatchException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.JWTVerifier;
 import io.javalin.Javalin;
 import io.javalin.core.plugin.Plugin;
 import io.javalin.core.security.Role;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import static java.util.Collections.emptyList;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import static java.util.Optional.ofNullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Collectors.toUnmodifiableSet;
 
 /**
  * A filter that extracts data from JWT and puts it into the request attributes,
- * but with optional secret to also verify JWT token or throw JWTVerificationException.
+ * but with optional secret or public keys (also from a JWKS) to also verify JWT token or throw
+ * JWTVerificationException.
  *
  * The reason why the secret is optional is because in some situations an API could be behind a
  * gateway that already verifies the token and we don't want to put the secret into the API itself.
  *
+ * With a jwtCacheSize, tokens seen recently skip the verification and decoding, see {@link AuthConfiguration}.
+ *
  * @author Raffaele Ragni raffaele.ragni@gmail.com
  */
 public class JavalinJWTFilter implements Plugin, Handler {
@@ -44,21 +52,43 @@ public class JavalinJWTFilter implements Plugin, Handler {
   public static final String REQ_ATTR_JWT = "JWT";
   public static final String REQ_ATTR_SUBJECT = "JWT.SUBJECT";
   public static final String REQ_ATTR_ROLES = "JWT.ROLES";
+  /** The roles as bits, for the access manager. */
+  public static final String REQ_ATTR_ROLE_BITS = "JWT.ROLE_BITS";
+
+  // Role names come from the tokens, only so many are remembered.
+  private static final int MAX_ROLE_NAMES = 1024;
 
-  private final Optional<Algorithm> secret;
+  // By the alg the tokens declare, a token is verified only with the keys meant for it.
+  private final Map<String, JWTVerifier> verifiers;
   private final String rolesProperty;
   private final Function<String, Role> toRole;
+  private final Optional<TokenCache> cache;
+  private final Map<String, Role> roleNames = new ConcurrentHashMap<>();
 
   /**
-   * Creates a new filter with default configuration.
+   * Creates a new filter with default configuration, without a JWKS.
    *
    * @param configuration The configuration for this filter
    */
   public JavalinJWTFilter(AuthConfiguration configuration) {
+    this(configuration, Optional.empty());
+  }
+
+  /**
+   * Creates a new filter.
+   *
+   * @param configuration The configuration for this filter
+   * @param jwks the key set to verify RS and ES tokens with, shared with the other filters
+   */
+  public JavalinJWTFilter(AuthConfiguration configuration, Optional<JwksKeyCache> jwks) {
     // Optional.of ensures it will be present and cannot be null
     this.toRole = Optional.of(configuration.roleMapper()).get();
-    this.secret = configuration.jwtSecret();
+    // Verifiers are thread safe, no need to build one per request.
+    this.verifiers = verifiers(configuration, jwks);
     this.rolesProperty = configuration.jwtRolesProperty().orElse("roles");
+    this.cache = Optional.of(configuration.jwtCacheSize().orElse(0))
+      .filter(size -> size > 0)
+      .map(size -> new TokenCache(size, configuration.jwtCacheTtl().orElse(AuthConfiguration.DEFAULT_JWT_CACHE_TTL)));
   }
 
   @Override
@@ -79,21 +109,51 @@ public class JavalinJWTFilter implements Plugin, Handler {
       return;
     }
 
-    // Validation via secret only if secret is present
-    secret.ifPresent(alg ->
-      // Throws JWTVerificationException
-      JWT.require(alg).build().verify(token)
-    );
-
-    var decoded = JWT.decode(token);
+    var entry = cache.isPresent() ? cached(token, cache.get()) : verify(token);
 
-    // Extract the subject.
     // Subject is always treated as a string,
     // and the property is not customizable as it is part of the JWT specification.
     // If null then it's null.
-    ctx.attribute(REQ_ATTR_SUBJECT, decoded.getSubject());
+    ctx.attribute(REQ_ATTR_SUBJECT, entry.subject);
+    ctx.attribute(REQ_ATTR_ROLES, entry.roles);
+    ctx.attribute(REQ_ATTR_ROLE_BITS, entry.roleBits);
+    ctx.attribute(REQ_ATTR_JWT, entry.decoded);
+  }
+
+  private TokenCache.Entry cached(String token, TokenCache cache) {
+    var key = TokenCache.key(token);
+    var entry = cache.get(key);
+    if (entry != null) {
+      return entry;
+    }
+    var verified = verify(token);
+    return cache.put(key, verified.decoded, verified.roles);
+  }
+
+  private TokenCache.Entry verify(String token) {
+    var decoded = JWT.decode(token);
+    // Validation only if a secret or keys are present.
+    if (!verifiers.isEmpty()) {
+      var verifier = verifiers.get(decoded.getAlgorithm());
+      if (verifier == null) {
+        throw new AlgorithmMismatchException("No keys for the token algorithm " + decoded.getAlgorithm());
+      }
+      // Throws JWTVerificationException
+      verifier.verify(decoded);
+    }
+    return new TokenCache.Entry(null, 0, decoded, roles(decoded));
+  }
 
-    // Extract the roles
+  private static Map<String, JWTVerifier> verifiers(AuthConfiguration configuration, Optional<JwksKeyCache> jwks) {
+    Map<String, JWTVerifier> result = new HashMap<>();
+    jwks.ifPresent(keys -> PublicKeys.ALGORITHMS.forEach(name ->
+      result.put(name, JWT.require(PublicKeys.algorithm(name, keys.rsa(), keys.ec())).build())));
+    configuration.jwtVerifyKey().ifPresent(alg -> result.put(alg.getName(), JWT.require(alg).build()));
+    configuration.jwtSecret().ifPresent(alg -> result.put(alg.getName(), JWT.require(alg).build()));
+    return Map.copyOf(result);
+  }
+
+  private Set<Role> roles(DecodedJWT decoded) {
     // Non roles or invalid roles means empty list -> means no roles.
     var strRoles = Optional.ofNullable(
         decoded
@@ -102,14 +162,20 @@ public class JavalinJWTFilter implements Plugin, Handler {
         .map(c -> c.asList(String.class))
         .orElse(emptyList());
 
-    var typedRoles = strRoles.stream()
-      .map(String::toUpperCase)
-      .map(toRole)
-      .collect(toSet());
-
-    ctx.attribute(REQ_ATTR_ROLES, typedRoles);
+    return strRoles.stream()
+      .map(this::role)
+      .collect(toUnmodifiableSet());
+  }
 
-    ctx.attribute(REQ_ATTR_JWT, decoded);
+  private Role role(String name) {
+    var role = roleNames.get(name);
+    if (role != null) {
+      return role;
+    }
+    if (roleNames.size() >= MAX_ROLE_NAMES) {
+      return toRole.apply(name.toUpperCase());
+    }
+    return roleNames.computeIfAbsent(name, n -> toRole.apply(n.toUpperCase()));
   }
 
   public static DecodedJWT getToken(Context ctx) {
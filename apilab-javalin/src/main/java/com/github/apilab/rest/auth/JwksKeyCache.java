@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import com.auth0.jwt.interfaces.ECDSAKeyProvider;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The public keys of a JWKS (JSON web key set), by kid, for verifying RS and ES tokens.
+ *
+ * The set is read from a file or from a http(s) url, once when created and then again in the
+ * background: keys are served from memory and requests never wait for a refresh.
+ * - once the keys are older than refreshAfter, the next lookup starts a refresh and still gets
+ *   the current keys (stale while revalidate).
+ * - a kid not in the set starts a refresh too, at most once per minRefreshInterval, so that a
+ *   rotated key is picked up as soon as tokens signed with it show up.
+ * When the source fails the keys already loaded stay in use.
+ * @author Raffaele Ragni
+ */
+public class JwksKeyCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JwksKeyCache.class);
+
+  private final Callable<String> source;
+  private final long refreshAfter;
+  private final long minRefreshInterval;
+  private final Executor executor;
+  private final LongSupplier clock;
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private volatile Map<String, PublicKey> keys = Map.of();
+  private volatile long loadedAt;
+  private volatile long attemptedAt;
+
+  /**
+   * @param location a file path or a http(s) url
+   * @param refreshAfter how old the keys can get before being read again
+   */
+  public JwksKeyCache(String location, Duration refreshAfter) {
+    this(source(location), refreshAfter, Duration.ofSeconds(10), backgroundExecutor(), System::nanoTime);
+  }
+
+  JwksKeyCache(Callable<String> source, Duration refreshAfter, Duration minRefreshInterval,
+      Executor executor, LongSupplier clock) {
+    this.source = source;
+    this.refreshAfter = refreshAfter.toNanos();
+    this.minRefreshInterval = minRefreshInterval.toNanos();
+    this.executor = executor;
+    this.clock = clock;
+    this.loadedAt = clock.getAsLong();
+    this.attemptedAt = loadedAt;
+    refresh();
+  }
+
+  /**
+   * @param kid the key id, can be null when the set has a single key
+   * @return the key, null if not known (yet)
+   */
+  public PublicKey key(String kid) {
+    var current = keys;
+    var key = current.get(kid == null ? "" : kid);
+    if (key == null && kid == null && current.size() == 1) {
+      key = current.values().iterator().next();
+    }
+    var now = clock.getAsLong();
+    if (now - loadedAt >= refreshAfter || (key == null && now - attemptedAt >= minRefreshInterval)) {
+      refreshInBackground();
+    }
+    return key;
+  }
+
+  /**
+   * Reads the set again, now, on this thread.
+   * @return true if the set was read
+   */
+  public boolean refresh() {
+    attemptedAt = clock.getAsLong();
+    try {
+      var loaded = parse(source.call());
+      keys = loaded;
+      loadedAt = clock.getAsLong();
+      LOG.info("## JWKS LOADED {} keys", loaded.size());
+      return true;
+    } catch (Exception ex) {
+      LOG.warn("## JWKS NOT LOADED, keeping the previous keys: {}", ex.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * @return the keys for the RS algorithms
+   */
+  public RSAKeyProvider rsa() {
+    return new RSAKeyProvider() {
+      @Override
+      public RSAPublicKey getPublicKeyById(String kid) {
+        var key = key(kid);
+        return key instanceof RSAPublicKey ? (RSAPublicKey) key : null;
+      }
+
+      @Override
+      public RSAPrivateKey getPrivateKey() {
+        return null;
+      }
+
+      @Override
+      public String getPrivateKeyId() {
+        return null;
+      }
+    };
+  }
+
+  /**
+   * @return the keys for the ES algorithms
+   */
+  public ECDSAKeyProvider ec() {
+    return new ECDSAKeyProvider() {
+      @Override
+      public ECPublicKey getPublicKeyById(String kid) {
+        var key = key(kid);
+        return key instanceof ECPublicKey ? (ECPublicKey) key : null;
+      }
+
+      @Override
+      public ECPrivateKey getPrivateKey() {
+        return null;
+      }
+
+      @Override
+      public String getPrivateKeyId() {
+        return null;
+      }
+    };
+  }
+
+  private void refreshInBackground() {
+    if (!refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    attemptedAt = clock.getAsLong();
+    executor.execute(() -> {
+      try {
+        if (!refresh()) {
+          // Try again after refreshAfter, not at every lookup.
+          loadedAt = clock.getAsLong();
+        }
+      } finally {
+        refreshing.set(false);
+      }
+    });
+  }
+
+  private static Map<String, PublicKey> parse(String json) {
+    Map<String, PublicKey> result = new HashMap<>();
+    for (JsonElement element: new Gson().fromJson(json, JsonObject.class).getAsJsonArray("keys")) {
+      var jwk = element.getAsJsonObject();
+      var kid = jwk.has("kid") ? jwk.get("kid").getAsString() : "";
+      try {
+        var key = PublicKeys.parse(jwk);
+        if (key != null) {
+          result.put(kid, key);
+        }
+      } catch (GeneralSecurityException | RuntimeException ex) {
+        // One bad key must not take the others down.
+        LOG.warn("## JWKS skipping key {}: {}", kid, ex.getMessage());
+      }
+    }
+    return Map.copyOf(result);
+  }
+
+  private static Callable<String> source(String location) {
+    if (location.startsWith("http://") || location.startsWith("https://")) {
+      var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+      var request = HttpRequest.newBuilder(URI.create(location)).timeout(Duration.ofSeconds(10)).build();
+      return () -> {
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+          throw new IOException("JWKS answered " + response.statusCode() + " from " + location);
+        }
+        return response.body();
+      };
+    }
+    var path = Path.of(location);
+    return () -> Files.readString(path);
+  }
+
+  private static Executor backgroundExecutor() {
+    // No thread is kept around between refreshes.
+    return new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      var thread = new Thread(r, "apilab-jwks");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.ECDSAKeyProvider;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.google.gson.JsonObject;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Public keys from PEM and from JWK, and the JWT algorithms verifying with them.
+ * @author Raffaele Ragni
+ */
+final class PublicKeys {
+
+  /** The asymmetric algorithms supported, by their JWT name. */
+  static final List<String> ALGORITHMS = List.of("RS256", "RS384", "RS512", "ES256", "ES384", "ES512");
+
+  private static final Map<String, String> CURVES = Map.of(
+    "P-256", "secp256r1",
+    "P-384", "secp384r1",
+    "P-521", "secp521r1");
+
+  private PublicKeys() {
+  }
+
+  /**
+   * @param pem a X.509 public key, PEM or just its base64
+   * @return the RSA or EC key
+   */
+  static PublicKey parse(String pem) {
+    var base64 = pem
+      .replaceAll("-----(BEGIN|END) PUBLIC KEY-----", "")
+      .replaceAll("\\s", "");
+    var spec = new X509EncodedKeySpec(Base64.getDecoder().decode(base64));
+    try {
+      return KeyFactory.getInstance("RSA").generatePublic(spec);
+    } catch (GeneralSecurityException ex) {
+      try {
+        return KeyFactory.getInstance("EC").generatePublic(spec);
+      } catch (GeneralSecurityException ec) {
+        throw new IllegalArgumentException("Not a RSA or EC public key", ec);
+      }
+    }
+  }
+
+  /**
+   * @param jwk a JSON web key
+   * @return the RSA or EC key, null for other types or keys not for signatures
+   * @throws GeneralSecurityException when the key is not valid
+   */
+  static PublicKey parse(JsonObject jwk) throws GeneralSecurityException {
+    if (jwk.has("use") && !"sig".equals(jwk.get("use").getAsString())) {
+      return null;
+    }
+    var type = jwk.has("kty") ? jwk.get("kty").getAsString() : "";
+    if ("RSA".equals(type)) {
+      return KeyFactory.getInstance("RSA").generatePublic(
+        new RSAPublicKeySpec(integer(jwk, "n"), integer(jwk, "e")));
+    }
+    if ("EC".equals(type)) {
+      var curve = CURVES.get(jwk.get("crv").getAsString());
+      if (curve == null) {
+        throw new GeneralSecurityException("Unsupported curve " + jwk.get("crv"));
+      }
+      var parameters = AlgorithmParameters.getInstance("EC");
+      parameters.init(new ECGenParameterSpec(curve));
+      return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(
+        new ECPoint(integer(jwk, "x"), integer(jwk, "y")),
+        parameters.getParameterSpec(ECParameterSpec.class)));
+    }
+    return null;
+  }
+
+  /**
+   * @param key the public key
+   * @param name the algorithm, null for RS256 or ES256 depending on the key
+   * @return the algorithm verifying with the key
+   */
+  static Algorithm algorithm(PublicKey key, String name) {
+    var rsa = key instanceof RSAPublicKey;
+    var algorithm = name == null ? (rsa ? "RS256" : "ES256") : name;
+    if (rsa != algorithm.startsWith("RS")) {
+      throw new IllegalArgumentException("Algorithm " + algorithm + " does not fit a " + key.getAlgorithm() + " key");
+    }
+    switch (algorithm) {
+      case "RS256": return Algorithm.RSA256((RSAKey) key);
+      case "RS384": return Algorithm.RSA384((RSAKey) key);
+      case "RS512": return Algorithm.RSA512((RSAKey) key);
+      case "ES256": return Algorithm.ECDSA256((ECKey) key);
+      case "ES384": return Algorithm.ECDSA384((ECKey) key);
+      case "ES512": return Algorithm.ECDSA512((ECKey) key);
+      default: throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+    }
+  }
+
+  /**
+   * @param name the algorithm, one of {@link #ALGORITHMS}
+   * @param rsa the keys for the RS ones
+   * @param ec the keys for the ES ones
+   * @return the algorithm
+   */
+  static Algorithm algorithm(String name, RSAKeyProvider rsa, ECDSAKeyProvider ec) {
+    switch (name) {
+      case "RS256": return Algorithm.RSA256(rsa);
+      case "RS384": return Algorithm.RSA384(rsa);
+      case "RS512": return Algorithm.RSA512(rsa);
+      case "ES256": return Algorithm.ECDSA256(ec);
+      case "ES384": return Algorithm.ECDSA384(ec);
+      case "ES512": return Algorithm.ECDSA512(ec);
+      default: throw new IllegalArgumentException("Unsupported algorithm " + name);
+    }
+  }
+
+  private static BigInteger integer(JsonObject jwk, String name) {
+    return new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get(name).getAsString()));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import io.javalin.core.security.Role;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives each role seen a bit, so that a set of roles is a long and checking two sets for a
+ * common role is a single AND.
+ *
+ * Only 63 roles get a bit, the sign bit marks a set with roles beyond those: such sets have to
+ * be compared as collections.
+ * @author Raffaele Ragni
+ */
+final class RoleBits {
+
+  static final long OVERFLOW = Long.MIN_VALUE;
+  static final int MAX_ROLES = 63;
+
+  private static final Map<Role, Integer> BITS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT = new AtomicInteger();
+
+  private RoleBits() {
+  }
+
+  /**
+   * @param roles the roles
+   * @return the bits of the roles, OVERFLOW if some of them have none
+   */
+  static long mask(Collection<Role> roles) {
+    var mask = 0L;
+    for (Role role: roles) {
+      var bit = bit(role);
+      if (bit < 0) {
+        return OVERFLOW;
+      }
+      mask |= 1L << bit;
+    }
+    return mask;
+  }
+
+  /**
+   * @param roles from {@link #mask(Collection)}
+   * @return true if they can be compared by mask
+   */
+  static boolean representable(long roles) {
+    return roles != OVERFLOW;
+  }
+
+  private static int bit(Role role) {
+    var bit = BITS.get(role);
+    if (bit != null) {
+      return bit;
+    }
+    if (NEXT.get() >= MAX_ROLES) {
+      return -1;
+    }
+    bit = BITS.computeIfAbsent(role, r -> NEXT.getAndIncrement());
+    return bit < MAX_ROLES ? bit : -1;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.javalin.core.security.Role;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the tokens already verified, with their subject and mapped roles.
+ *
+ * Tokens are kept by their SHA-256 only, not in clear. An entry lives for the configured ttl but
+ * never past the expiration of its token.
+ * Direct mapped: a slot is picked by hash and a colliding token just replaces the previous one.
+ * Entries are immutable so slots can be read and written by any thread without locking.
+ * @author Raffaele Ragni
+ */
+final class TokenCache {
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  });
+
+  private final Entry[] slots;
+  private final int mask;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+
+  TokenCache(int size, Duration ttl) {
+    this(size, ttl, System::currentTimeMillis);
+  }
+
+  TokenCache(int size, Duration ttl, LongSupplier clock) {
+    var count = Integer.highestOneBit(Math.max(1, size - 1) << 1);
+    this.slots = new Entry[count];
+    this.mask = count - 1;
+    this.ttlMillis = ttl.toMillis();
+    this.clock = clock;
+  }
+
+  /**
+   * @param token the raw token
+   * @return the key to look it up with
+   */
+  static byte[] key(String token) {
+    return SHA256.get().digest(token.getBytes(UTF_8));
+  }
+
+  /**
+   * @param key from {@link #key(String)}
+   * @return the entry, null if missing or expired
+   */
+  Entry get(byte[] key) {
+    var entry = slots[slot(key)];
+    if (entry == null || !Arrays.equals(entry.key, key)) {
+      return null;
+    }
+    if (entry.expiresAt <= clock.getAsLong()) {
+      slots[slot(key)] = null;
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * @param key from {@link #key(String)}
+   * @param decoded the token, already verified
+   * @param roles the roles mapped from it
+   * @return the entry, also when it was not worth caching
+   */
+  Entry put(byte[] key, DecodedJWT decoded, Set<Role> roles) {
+    var expiresAt = clock.getAsLong() + ttlMillis;
+    if (decoded.getExpiresAt() != null) {
+      expiresAt = Math.min(expiresAt, decoded.getExpiresAt().getTime());
+    }
+    var entry = new Entry(key, expiresAt, decoded, roles);
+    slots[slot(key)] = entry;
+    return entry;
+  }
+
+  private int slot(byte[] key) {
+    // Already a cryptographic hash, the first bytes are as good as any.
+    return ((key[0] & 0xff) | (key[1] & 0xff) << 8 | (key[2] & 0xff) << 16 | (key[3] & 0xff) << 24) & mask;
+  }
+
+  static final class Entry {
+    final byte[] key;
+    final long expiresAt;
+    final DecodedJWT decoded;
+    final String subject;
+    final Set<Role> roles;
+    final Long roleBits;
+
+    Entry(byte[] key, long expiresAt, DecodedJWT decoded, Set<Role> roles) {
+      this.key = key;
+      this.expiresAt = expiresAt;
+      this.decoded = decoded;
+      this.subject = decoded.getSubject();
+      this.roles = roles;
+      this.roleBits = RoleBits.mask(roles);
+    }
+  }
+}
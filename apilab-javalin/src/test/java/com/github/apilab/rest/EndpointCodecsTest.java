@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest;
+
+import com.github.apilab.core.GSONModule;
+import com.github.apilab.core.codec.Codecs;
+import com.github.apilab.core.codec.JsonCodec;
+import com.github.apilab.rest.exceptions.UnprocessableEntityException;
+import io.javalin.http.util.ContextUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class EndpointCodecsTest {
+
+  @Test
+  void testCodecs() throws IOException {
+    var codecs = new Codecs(new GSONModule().gson());
+    var codec = codecs.cbor(Map.class);
+    var request = mock(HttpServletRequest.class);
+    var response = mock(HttpServletResponse.class);
+    var ctx = ContextUtil.init(request, response);
+
+    var body = Map.of("k", "v");
+    when(request.getInputStream()).thenReturn(stream(codec.encode(body)));
+    assertThat("body read", EndpointCodecs.read(ctx, codec), is(body));
+
+    EndpointCodecs.write(ctx, codec, body);
+    verify(response).setContentType("application/cbor");
+    assertThat("body written", codec.decode(ctx.resultStream()), is(body));
+
+    when(request.getInputStream()).thenReturn(stream("{".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () ->
+      EndpointCodecs.read(ctx, codecs.json(Map.class)));
+    when(request.getInputStream()).thenReturn(stream("{\"a\" 1}".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () ->
+      EndpointCodecs.read(ctx, codecs.json(Map.class)));
+
+    // Request bodies are strict json.
+    when(request.getInputStream()).thenReturn(stream("{a:1}".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () ->
+      EndpointCodecs.read(ctx, codecs.json(Map.class)));
+    when(request.getInputStream()).thenReturn(stream("{\"a\":\"1\"} trailing".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () ->
+      EndpointCodecs.read(ctx, codecs.json(Map.class)));
+    when(request.getInputStream()).thenReturn(stream("{\"a\":\"1\"}\n".getBytes(UTF_8)));
+    assertThat("strict body read", EndpointCodecs.read(ctx, codecs.json(Map.class)), is(Map.of("a", "1")));
+    when(request.getInputStream()).thenReturn(stream("\"text\"".getBytes(UTF_8)));
+    assertThat("strict value read", EndpointCodecs.read(ctx, codecs.json(String.class)), is("text"));
+  }
+
+  @Test
+  void testStreamedArrays() throws IOException {
+    var codec = new JsonCodec<>(new GSONModule().gson(), Map.class);
+    var request = mock(HttpServletRequest.class);
+    var response = mock(HttpServletResponse.class);
+    var ctx = ContextUtil.init(request, response);
+
+    var out = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(output(out));
+    EndpointCodecs.writeAll(ctx, codec, Stream.of(Map.of("k", "v1"), Map.of("k", "v2")));
+    verify(response).setContentType("application/json");
+    assertThat("written", out.toString(UTF_8), is("[{\"k\":\"v1\"},{\"k\":\"v2\"}]"));
+
+    List<Map> read = new ArrayList<>();
+    when(request.getInputStream()).thenReturn(stream(out.toByteArray()));
+    assertThat("count", EndpointCodecs.readEach(ctx, codec, read::add), is(2L));
+    assertThat("read", read, is(List.of(Map.of("k", "v1"), Map.of("k", "v2"))));
+
+    when(request.getInputStream()).thenReturn(stream("[{\"k\":".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () -> EndpointCodecs.readEach(ctx, codec, v -> {}));
+    when(request.getInputStream()).thenReturn(stream("[1]".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () -> EndpointCodecs.readEach(ctx, codec, v -> {}));
+    when(request.getInputStream()).thenReturn(stream("[{k:1}]".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () -> EndpointCodecs.readEach(ctx, codec, v -> {}));
+    when(request.getInputStream()).thenReturn(stream("[] []".getBytes(UTF_8)));
+    assertThrows(UnprocessableEntityException.class, () -> EndpointCodecs.readEach(ctx, codec, v -> {}));
+
+    // Failures of the consumer are not about the body.
+    when(request.getInputStream()).thenReturn(stream(out.toByteArray()));
+    assertThrows(IllegalStateException.class, () ->
+      EndpointCodecs.readEach(ctx, codec, v -> {throw new IllegalStateException();}));
+  }
+
+  static ServletOutputStream output(ByteArrayOutputStream out) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  static ServletInputStream stream(byte[] bytes) {
+    var in = new ByteArrayInputStream(bytes);
+    return new ServletInputStream() {
+      @Override
+      public int read() {
+        return in.read();
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener listener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
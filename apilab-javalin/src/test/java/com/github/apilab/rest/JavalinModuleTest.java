@@ -17,6 +17,8 @@ package com.github.apilab.rest;
 
 import com.github.apilab.core.GSONModule;
 import com.github.apilab.core.Env;
+import com.github.apilab.core.EnvSnapshot;
+import com.github.apilab.rest.auth.AuthConfiguration;
 import com.github.apilab.rest.auth.ImmutableAuthConfiguration;
 import com.github.apilab.rest.exceptions.UnprocessableEntityException;
 import com.github.apilab.rest.testmodules.DaggerApplicationComponent;
@@ -80,6 +82,7 @@ class JavalinModuleTest {
       Response response = client.newCall(request).execute();
 
       assertThat("Response code is 200", response.code(), is(200));
+      assertThat("Request uuid sent", response.header("X-APP-Request-UUID").length(), is(36));
 
       request = new Request.Builder()
         .url("http://localhost:8080/testbad")
@@ -93,6 +96,16 @@ class JavalinModuleTest {
     }
   }
 
+  @Test
+  void testAuthConfigurationWithEnv() {
+    var env = new EnvSnapshot(Map.of("API_JWT_CACHE_SIZE", "16", "API_JWT_JWKS", "/jwks.json"));
+    var configured = ImmutableAuthConfiguration.builder().jwtCacheSize(4).build().withEnv(env);
+
+    assertThat("Set values win", configured.jwtCacheSize().getAsInt(), is(4));
+    assertThat("The rest from the env", configured.jwksLocation().get(), is("/jwks.json"));
+    assertThat("Or the defaults", configured.jwtCacheTtl().get(), is(AuthConfiguration.DEFAULT_JWT_CACHE_TTL));
+  }
+
   @Test
   void testInitializerDefaultValue() {
     var initializer = ImmutableAuthConfiguration.builder().build();
@@ -16,8 +16,15 @@
 package com.github.apilab.rest;
 
 import com.github.apilab.core.Env;
+import io.javalin.Javalin;
 import java.io.IOException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
@@ -35,4 +42,50 @@ class JettyHttp2CreatorTest {
     assertThat("Server built", server, is(not(nullValue())));
   }
 
+  @Test
+  void testTuning() throws IOException {
+    var properties = new String[][] {
+      {"JAVALIN_MAX_THREADS", "50"},
+      {"JAVALIN_MIN_THREADS", "4"},
+      {"JAVALIN_MAX_QUEUED_REQUESTS", "100"},
+      {"JAVALIN_IDLE_TIMEOUT", "PT10S"},
+      {"JAVALIN_ACCEPT_QUEUE_SIZE", "64"},
+      {"JAVALIN_ACCEPTORS", "1"},
+      {"JAVALIN_SELECTORS", "2"}};
+    for (String[] p: properties) {
+      System.setProperty(p[0], p[1]);
+    }
+    try {
+      var server = JettyHttp2Creator.createHttp2Server(new Env());
+      var pool = (QueuedThreadPool) server.getThreadPool();
+      assertThat("max threads", pool.getMaxThreads(), is(50));
+      assertThat("min threads", pool.getMinThreads(), is(4));
+      var statistics = (StatisticsHandler) server.getHandler();
+      assertThat("shedding", statistics.getHandler(), instanceOf(LoadSheddingHandler.class));
+      for (var c: server.getConnectors()) {
+        var connector = (ServerConnector) c;
+        assertThat("idle timeout", connector.getIdleTimeout(), is(10_000L));
+        assertThat("accept queue", connector.getAcceptQueueSize(), is(64));
+        assertThat("acceptors", connector.getAcceptors(), is(1));
+        assertThat("selectors", connector.getSelectorManager().getSelectorCount(), is(2));
+      }
+
+      // Javalin attaches itself under the innermost handler, requests still get there.
+      var javalin = Javalin.create(config -> {
+        config.showJavalinBanner = false;
+        config.server(() -> server);
+      }).get("/ping", ctx -> ctx.result("pong")).start();
+      try {
+        var response = new OkHttpClient().newCall(new Request.Builder().url("http://localhost:8080/ping").build()).execute();
+        assertThat("served", response.body().string(), is("pong"));
+      } finally {
+        javalin.stop();
+      }
+    } finally {
+      for (String[] p: properties) {
+        System.clearProperty(p[0]);
+      }
+    }
+  }
+
 }
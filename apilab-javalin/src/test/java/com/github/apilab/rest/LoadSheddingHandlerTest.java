@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class LoadSheddingHandlerTest {
+
+  @Test
+  void testShedding() throws Exception {
+    var queued = new AtomicInteger();
+    var next = mock(Handler.class);
+    var handler = new LoadSheddingHandler(queued::get, 10);
+    handler.setHandler(next);
+    handler.start();
+    try {
+      var request = mock(HttpServletRequest.class);
+      var response = mock(HttpServletResponse.class);
+      var baseRequest = mock(Request.class);
+
+      queued.set(9);
+      handler.handle("/", baseRequest, request, response);
+      verify(next).handle("/", baseRequest, request, response);
+      verify(response, never()).sendError(503);
+
+      queued.set(10);
+      var rejected = mock(HttpServletResponse.class);
+      var rejectedRequest = mock(Request.class);
+      handler.handle("/", rejectedRequest, request, rejected);
+      verify(rejectedRequest).setHandled(true);
+      verify(rejected).setHeader("Retry-After", "1");
+      verify(rejected).sendError(503);
+      verify(next, never()).handle(any(), eq(rejectedRequest), any(), any());
+    } finally {
+      handler.stop();
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.github.apilab.rest.auth;
 
 import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_ROLES;
+import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_ROLE_BITS;
 import static com.github.apilab.rest.auth.Roles.ADMIN;
 import static com.github.apilab.rest.auth.Roles.USER;
 import io.javalin.http.Handler;
@@ -26,6 +27,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Test;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -80,4 +82,29 @@ class AccessManagerTest {
 
     verify(handler, times(0)).handle(ctx);
   }
+
+  @Test
+  void testRoleBits() throws Exception {
+    var manager = new JavalinJWTAccessManager();
+    var handler = mock(Handler.class);
+    var request = mock(HttpServletRequest.class);
+    var response = mock(HttpServletResponse.class);
+    var ctx = ContextUtil.init(request, response);
+
+    // Only the bits, the set must not be needed.
+    when(request.getAttribute(REQ_ATTR_ROLE_BITS))
+      .thenReturn(RoleBits.mask(Set.of(USER, ADMIN)));
+
+    manager.manage(handler, ctx, Set.of(ADMIN));
+    verify(handler).handle(ctx);
+    verify(request, never()).getAttribute(REQ_ATTR_ROLES);
+
+    when(request.getAttribute(REQ_ATTR_ROLE_BITS))
+      .thenReturn(RoleBits.mask(Set.of(USER)));
+
+    manager.manage(handler, ctx, Set.of(ADMIN));
+    manager.manage(handler, ctx, Set.of(ADMIN));
+    verify(handler, times(1)).handle(ctx);
+    verify(response, times(2)).setStatus(403);
+  }
 }
@@ -17,6 +17,8 @@ package com.github.apilab.rest.auth;
 
 import com.auth0.jwt.algorithms.Algorithm;
 import static com.github.apilab.rest.auth.Roles.ADMIN;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -47,6 +49,17 @@ class JWTCreatorTest {
     });
   }
 
+  @Test
+  void testVerifyKeyDoesNotSign() throws Exception {
+    var generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    var config = ImmutableAuthConfiguration.builder()
+      .jwtSecret(Optional.empty())
+      .jwtVerifyKey(Optional.of(Algorithm.RSA256((RSAPublicKey) generator.generateKeyPair().getPublic(), null)))
+      .build();
+    assertThrows(IllegalArgumentException.class, () -> new JavalinJWTCreator(config));
+  }
+
   @Test
   void testSimpleToken() {
     var creator = new JavalinJWTCreator(EXTENDED_CONFIG);
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_SUBJECT;
+import com.sun.net.httpserver.HttpServer;
+import io.javalin.http.util.ContextUtil;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class JwksKeyCacheTest {
+
+  private static KeyPair rsa;
+  private static KeyPair ec;
+
+  @BeforeAll
+  static void keys() throws GeneralSecurityException {
+    var rsaGenerator = KeyPairGenerator.getInstance("RSA");
+    rsaGenerator.initialize(2048);
+    rsa = rsaGenerator.generateKeyPair();
+    var ecGenerator = KeyPairGenerator.getInstance("EC");
+    ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+    ec = ecGenerator.generateKeyPair();
+  }
+
+  @Test
+  void testFileJwks(@TempDir Path dir) throws Exception {
+    var file = dir.resolve("jwks.json");
+    Files.writeString(file, jwks(rsaJwk("rsa-1", rsa), ecJwk("ec-1", ec)));
+    var filter = new JavalinJWTFilter(ImmutableAuthConfiguration.builder()
+      .jwtSecret(Optional.empty())
+      .build(), Optional.of(new JwksKeyCache(file.toString(), Duration.ofMinutes(5))));
+
+    var rsaToken = JWT.create().withKeyId("rsa-1").withSubject("rsa-subject")
+      .sign(Algorithm.RSA256((RSAPublicKey) rsa.getPublic(), (RSAPrivateKey) rsa.getPrivate()));
+    var ecToken = JWT.create().withKeyId("ec-1").withSubject("ec-subject")
+      .sign(Algorithm.ECDSA256((ECPublicKey) ec.getPublic(), (ECPrivateKey) ec.getPrivate()));
+
+    var request = mock(HttpServletRequest.class);
+    var ctx = ContextUtil.init(request, mock(HttpServletResponse.class));
+
+    when(request.getHeader("Authorization")).thenReturn("Bearer " + rsaToken);
+    filter.handle(ctx);
+    verify(request).setAttribute(REQ_ATTR_SUBJECT, "rsa-subject");
+
+    when(request.getHeader("Authorization")).thenReturn("Bearer " + ecToken);
+    filter.handle(ctx);
+    verify(request).setAttribute(REQ_ATTR_SUBJECT, "ec-subject");
+
+    // Signed by a key that is not in the set.
+    var other = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+    var forged = JWT.create().withKeyId("rsa-1").withSubject("forged")
+      .sign(Algorithm.RSA256((RSAPublicKey) other.getPublic(), (RSAPrivateKey) other.getPrivate()));
+    when(request.getHeader("Authorization")).thenReturn("Bearer " + forged);
+    assertThrows(JWTVerificationException.class, () -> filter.handle(ctx));
+
+    // No HMAC secret, an HS256 token can't be verified.
+    var hmac = JWT.create().withSubject("hmac").sign(Algorithm.HMAC256("secret"));
+    when(request.getHeader("Authorization")).thenReturn("Bearer " + hmac);
+    assertThrows(JWTVerificationException.class, () -> filter.handle(ctx));
+  }
+
+  @Test
+  void testStaleWhileRevalidate() {
+    var json = new AtomicReference<>(jwks(rsaJwk("a", rsa)));
+    var clock = new AtomicLong();
+    List<Runnable> pending = new ArrayList<>();
+    var cache = new JwksKeyCache(json::get, Duration.ofSeconds(60), Duration.ofSeconds(10), pending::add, clock::get);
+
+    assertThat("loaded", cache.key("a"), is(notNullValue()));
+    assertThat("single key without kid", cache.key(null), is(notNullValue()));
+    assertThat("fresh, no refresh", pending.size(), is(0));
+
+    json.set(jwks(rsaJwk("b", rsa)));
+    clock.addAndGet(Duration.ofSeconds(61).toNanos());
+    assertThat("stale key still served", cache.key("a"), is(notNullValue()));
+    assertThat("stale key still served", cache.key("a"), is(notNullValue()));
+    assertThat("one refresh at a time", pending.size(), is(1));
+    pending.remove(0).run();
+    assertThat("rotated in", cache.key("b"), is(notNullValue()));
+    assertThat("rotated out", cache.key("a"), is(nullValue()));
+
+    // Unknown kid: a refresh, but not more than once per interval.
+    json.set(jwks(rsaJwk("b", rsa), rsaJwk("c", rsa)));
+    assertThat("too soon", pending.size(), is(0));
+    clock.addAndGet(Duration.ofSeconds(10).toNanos());
+    assertThat("unknown", cache.key("c"), is(nullValue()));
+    assertThat("refreshing", pending.size(), is(1));
+    pending.remove(0).run();
+    assertThat("found", cache.key("c"), is(notNullValue()));
+
+    // A broken source keeps the keys.
+    json.set("not json");
+    assertThat("kept", cache.refresh(), is(false));
+    assertThat("kept", cache.key("b"), is(notNullValue()));
+  }
+
+  @Test
+  void testHttpJwks() throws IOException {
+    var body = jwks(ecJwk("ec-1", ec)).getBytes(UTF_8);
+    var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/jwks", ex -> {
+      ex.sendResponseHeaders(200, body.length);
+      try (var out = ex.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.createContext("/missing", ex -> {
+      ex.sendResponseHeaders(404, -1);
+      ex.close();
+    });
+    server.start();
+    try {
+      var base = "http://127.0.0.1:" + server.getAddress().getPort();
+      var cache = new JwksKeyCache(base + "/jwks", Duration.ofMinutes(5));
+      assertThat("from http", cache.ec().getPublicKeyById("ec-1"), is(notNullValue()));
+      assertThat("not rsa", cache.rsa().getPublicKeyById("ec-1"), is(nullValue()));
+
+      var missing = new JwksKeyCache(base + "/missing", Duration.ofMinutes(5));
+      assertThat("nothing loaded", missing.refresh(), is(false));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static String jwks(String... keys) {
+    return "{\"keys\": [" + String.join(",", keys) + "]}";
+  }
+
+  private static String rsaJwk(String kid, KeyPair pair) {
+    var key = (RSAPublicKey) pair.getPublic();
+    return "{\"kty\": \"RSA\", \"use\": \"sig\", \"kid\": \"" + kid + "\", \"n\": \"" + base64(key.getModulus())
+      + "\", \"e\": \"" + base64(key.getPublicExponent()) + "\"}";
+  }
+
+  private static String ecJwk(String kid, KeyPair pair) {
+    var key = (ECPublicKey) pair.getPublic();
+    return "{\"kty\": \"EC\", \"crv\": \"P-256\", \"kid\": \"" + kid + "\", \"x\": \"" + base64(key.getW().getAffineX())
+      + "\", \"y\": \"" + base64(key.getW().getAffineY()) + "\"}";
+  }
+
+  private static String base64(BigInteger value) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(value.toByteArray());
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class PublicKeysTest {
+
+  @Test
+  void testPem() throws Exception {
+    var rsa = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+    var pem = "-----BEGIN PUBLIC KEY-----\n"
+      + Base64.getMimeEncoder().encodeToString(rsa.getEncoded())
+      + "\n-----END PUBLIC KEY-----\n";
+    var parsed = PublicKeys.parse(pem);
+    assertThat("rsa", parsed, instanceOf(RSAPublicKey.class));
+    assertThat("same key", parsed, is(rsa));
+    assertThat("RS256 by default", PublicKeys.algorithm(parsed, null).getName(), is("RS256"));
+    assertThat("RS512", PublicKeys.algorithm(parsed, "RS512").getName(), is("RS512"));
+
+    var generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    var ec = generator.generateKeyPair().getPublic();
+    var parsedEc = PublicKeys.parse(Base64.getEncoder().encodeToString(ec.getEncoded()));
+    assertThat("ec", parsedEc, instanceOf(ECPublicKey.class));
+    assertThat("ES256 by default", PublicKeys.algorithm(parsedEc, null).getName(), is("ES256"));
+
+    assertThrows(IllegalArgumentException.class, () -> PublicKeys.algorithm(parsedEc, "RS256"));
+    assertThrows(IllegalArgumentException.class, () -> PublicKeys.algorithm(parsed, "HS256"));
+    assertThrows(IllegalArgumentException.class, () -> PublicKeys.parse("bm90IGEga2V5"));
+  }
+}
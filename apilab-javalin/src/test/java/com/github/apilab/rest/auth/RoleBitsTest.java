@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import static com.github.apilab.rest.auth.Roles.ADMIN;
+import static com.github.apilab.rest.auth.Roles.USER;
+import static java.lang.Long.bitCount;
+import java.util.Set;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RoleBitsTest {
+
+  @Test
+  void testMask() {
+    var user = RoleBits.mask(Set.of(USER));
+    var admin = RoleBits.mask(Set.of(ADMIN));
+    var both = RoleBits.mask(Set.of(USER, ADMIN));
+
+    assertThat("one bit each", bitCount(user) + bitCount(admin), is(2));
+    assertThat("stable", RoleBits.mask(Set.of(USER)), is(user));
+    assertThat("distinct", user & admin, is(0L));
+    assertThat("union", both, is(user | admin));
+    assertThat("empty", RoleBits.mask(Set.of()), is(0L));
+    assertThat("representable", RoleBits.representable(both), is(true));
+    assertThat("overflow", RoleBits.representable(RoleBits.OVERFLOW), is(false));
+  }
+}
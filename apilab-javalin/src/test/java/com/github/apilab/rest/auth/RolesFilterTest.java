@@ -17,6 +17,7 @@ package com.github.apilab.rest.auth;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
 import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_JWT;
 import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_ROLES;
 import static com.github.apilab.rest.auth.JavalinJWTFilter.REQ_ATTR_SUBJECT;
@@ -25,10 +26,12 @@ import io.javalin.Javalin;
 import io.javalin.http.util.ContextUtil;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -150,4 +153,41 @@ class RolesFilterTest {
     verify(request).setAttribute(REQ_ATTR_ROLES, Set.of(USER));
   }
 
+  @Test
+  void testCachedVerification() throws Exception {
+    var alg = Algorithm.HMAC256("secret");
+    var mapped = new AtomicInteger();
+    var filter = new JavalinJWTFilter(ImmutableAuthConfiguration.builder()
+      .roleMapper(s -> {
+        mapped.incrementAndGet();
+        return Roles.valueOf(s);
+      })
+      .jwtSecret(Optional.of(alg))
+      .jwtCacheSize(16)
+      .build());
+    var token = JWT.create()
+      .withSubject("subjectXX")
+      .withArrayClaim("roles", new String[]{"user"})
+      .sign(alg);
+
+    var request = mock(HttpServletRequest.class);
+    var response = mock(HttpServletResponse.class);
+    var ctx = ContextUtil.init(request, response);
+
+    when(request.getHeader("Authorization"))
+      .thenReturn("Bearer "+token);
+
+    filter.handle(ctx);
+    filter.handle(ctx);
+
+    verify(request, times(2)).setAttribute(REQ_ATTR_SUBJECT, "subjectXX");
+    verify(request, times(2)).setAttribute(REQ_ATTR_ROLES, Set.of(USER));
+    assertThat("roles mapped once", mapped.get(), is(1));
+
+    // A forged token is never served from the cache.
+    when(request.getHeader("Authorization"))
+      .thenReturn("Bearer "+token.substring(0, token.length() - 2));
+    assertThrows(JWTVerificationException.class, () -> filter.handle(ctx));
+  }
+
 }
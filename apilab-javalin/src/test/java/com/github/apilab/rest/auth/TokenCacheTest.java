@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.rest.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class TokenCacheTest {
+
+  @Test
+  void testExpiration() {
+    var now = new AtomicLong(1_000_000);
+    var cache = new TokenCache(16, Duration.ofSeconds(60), now::get);
+    var alg = Algorithm.HMAC256("secret");
+
+    var longLived = JWT.create().withSubject("a").sign(alg);
+    var shortLived = JWT.create().withSubject("b").withExpiresAt(new Date(now.get() + 10_000)).sign(alg);
+    var a = TokenCache.key(longLived);
+    var b = TokenCache.key(shortLived);
+    cache.put(a, JWT.decode(longLived), Set.of());
+    cache.put(b, JWT.decode(shortLived), Set.of());
+
+    assertThat("hit", cache.get(a).subject, is("a"));
+    assertThat("hit", cache.get(b).subject, is("b"));
+    assertThat("miss", cache.get(TokenCache.key(longLived + "x")), is(nullValue()));
+
+    now.addAndGet(10_000);
+    assertThat("capped at exp", cache.get(b), is(nullValue()));
+    assertThat("within ttl", cache.get(a).subject, is("a"));
+
+    now.addAndGet(50_000);
+    assertThat("ttl", cache.get(a), is(nullValue()));
+  }
+}
@@ -20,8 +20,6 @@ import com.github.apilab.core.Env;
 import io.prometheus.client.exporter.HTTPServer;
 import io.prometheus.client.hotspot.DefaultExports;
 import java.io.IOException;
-import java.util.Optional;
-import static java.util.Optional.ofNullable;
 import javax.inject.Inject;
 
 /**
@@ -32,6 +30,8 @@ public class PrometheusLifecycle implements ApplicationLifecycleItem {
 
   HTTPServer metricServer;
   @Inject Env env;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enabled;
 
   @Inject
   public PrometheusLifecycle() {
@@ -44,7 +44,8 @@ public class PrometheusLifecycle implements ApplicationLifecycleItem {
    */
   @Override
   public void start() {
-    if (!enabled()) {
+    enabled = env.getBoolean(() -> "API_ENABLE_PROMETHEUS", false);
+    if (!enabled) {
       return;
     }
 
@@ -57,7 +58,7 @@ public class PrometheusLifecycle implements ApplicationLifecycleItem {
    */
   @Override
   public void stop() {
-    if (!enabled()) {
+    if (!enabled) {
       return;
     }
 
@@ -71,16 +72,8 @@ public class PrometheusLifecycle implements ApplicationLifecycleItem {
     }
   }
 
-  private boolean enabled() {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_PROMETHEUS"))
-       .map(Boolean::valueOf)
-       .orElse(false);
-  }
-
   private static int getPrometheusPort(Env env) {
-    return ofNullable(env.get(() -> "API_PROMETHEUS_PORT"))
-              .map(Integer::valueOf)
-              .orElse(7080);
+    return env.getInt(() -> "API_PROMETHEUS_PORT", 7080);
   }
 
 }
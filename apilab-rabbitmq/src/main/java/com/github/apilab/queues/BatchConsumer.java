@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gathers the deliveries of one channel into batches of up to 'size' messages, waiting at most
+ * 'timeout' after the first one. A batch that succeeds is acked at once (multiple=true).
+ * A batch that fails is processed again as a whole up to 'retries' times, so that a failure
+ * that is not about single messages (a database down) does not park all of them. If it
+ * still fails it is split in halves until the failing messages are isolated, those are
+ * given to the failure handler, which settles them, and the rest is acked.
+ *
+ * Batches of a channel are processed one at a time and in order, that is what makes the
+ * multiple acks safe. The delivery thread waits while a batch is processed. The timer has to
+ * be of this consumer only: batches flushed by time are processed on it.
+ * Failed messages may be settled later (a retry is acked on the broker confirm): the acks
+ * after them are chained to wait for that, without holding the delivery thread, so that a
+ * multiple ack never settles them first. Acks are sent in order in any case.
+ * @author Raffaele Ragni
+ */
+class BatchConsumer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchConsumer.class);
+
+  private final Channel channel;
+  private final int size;
+  private final Duration timeout;
+  private final int retries;
+  private final ScheduledExecutorService timer;
+  private final Consumer<List<Delivery>> processor;
+  private final BiFunction<Delivery, RuntimeException, CompletableFuture<Void>> failureHandler;
+  private List<Delivery> pending;
+  private long generation;
+  // Completed once every message given to this consumer so far is settled.
+  private CompletableFuture<Void> settled = CompletableFuture.completedFuture(null);
+
+  /**
+   * @param processor processes the batch, throwing if it fails
+   * @param failureHandler acks or nacks a message that failed on its own, given with its failure,
+   *                       completing when that is done
+   */
+  BatchConsumer(
+      Channel channel,
+      int size,
+      Duration timeout,
+      int retries,
+      ScheduledExecutorService timer,
+      Consumer<List<Delivery>> processor,
+      BiFunction<Delivery, RuntimeException, CompletableFuture<Void>> failureHandler) {
+    this.channel = channel;
+    this.size = size;
+    this.timeout = timeout;
+    this.retries = retries;
+    this.timer = timer;
+    this.processor = processor;
+    this.failureHandler = failureHandler;
+    this.pending = new ArrayList<>(size);
+  }
+
+  synchronized void add(Delivery delivery) {
+    pending.add(delivery);
+    if (pending.size() >= size) {
+      flush();
+    } else if (pending.size() == 1) {
+      var batch = generation;
+      timer.schedule(() -> flushByTime(batch), timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Processes what is pending now.
+   */
+  synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    var batch = pending;
+    pending = new ArrayList<>(size);
+    generation++;
+    process(batch, retries);
+  }
+
+  /**
+   * @return completed once the messages flushed so far are all settled
+   */
+  synchronized CompletableFuture<Void> settled() {
+    return settled;
+  }
+
+  private synchronized void flushByTime(long batch) {
+    // A batch already flushed by size leaves the timer of the next one in charge.
+    if (batch == generation) {
+      flush();
+    }
+  }
+
+  private void process(List<Delivery> batch, int retries) {
+    try {
+      processor.accept(batch);
+      ack(batch);
+    } catch (RuntimeException ex) {
+      if (retries > 0) {
+        LOG.warn("## BATCH of {} failed, processing it again: {}", batch.size(), ex.getMessage());
+        process(batch, retries - 1);
+        return;
+      }
+      if (batch.size() == 1) {
+        LOG.error(ex.getMessage(), ex);
+        var failure = failureHandler.apply(batch.get(0), ex).handle((ok, e) -> {
+          if (e != null) {
+            LOG.error(e.getMessage(), e);
+          }
+          return (Void) null;
+        });
+        settled = CompletableFuture.allOf(settled, failure);
+        return;
+      }
+      LOG.warn("## BATCH of {} failed, splitting it: {}", batch.size(), ex.getMessage());
+      var half = batch.size() / 2;
+      // Left first: all the earlier deliveries are settled when a multiple ack is sent.
+      // The halves are not retried, the whole batch already was.
+      process(new ArrayList<>(batch.subList(0, half)), 0);
+      process(new ArrayList<>(batch.subList(half, batch.size())), 0);
+    }
+  }
+
+  private void ack(List<Delivery> batch) {
+    var tag = batch.get(batch.size() - 1).getEnvelope().getDeliveryTag();
+    // Runs right away when nothing before is waiting.
+    settled = settled.thenRun(() -> ack(tag));
+  }
+
+  private void ack(long tag) {
+    try {
+      channel.basicAck(tag, true);
+    } catch (IOException | RuntimeException ex) {
+      LOG.error(ex.getMessage(), ex);
+    }
+  }
+}
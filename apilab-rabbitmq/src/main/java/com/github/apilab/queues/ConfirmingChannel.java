@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel in confirm mode, giving a future per publish that completes when the broker confirms it.
+ * At most 'window' publishes wait for a confirm, after that publishing blocks until some come back.
+ * Confirms are taken in batches when the broker acks multiple publishes at once.
+ * @author Raffaele Ragni
+ */
+class ConfirmingChannel {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConfirmingChannel.class);
+
+  private final Channel channel;
+  private final Semaphore window;
+  private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> outstanding = new ConcurrentSkipListMap<>();
+
+  ConfirmingChannel(Channel channel, int window) throws IOException {
+    this.channel = channel;
+    this.window = new Semaphore(window);
+    channel.confirmSelect();
+    channel.addConfirmListener(new ConfirmListener() {
+      @Override
+      public void handleAck(long tag, boolean multiple) {
+        confirmed(tag, multiple, null);
+      }
+
+      @Override
+      public void handleNack(long tag, boolean multiple) {
+        confirmed(tag, multiple, new QueueMessagingException("Message not accepted by the broker", null));
+      }
+    });
+    channel.addShutdownListener(cause -> failAll(cause));
+  }
+
+  boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  /**
+   * @param task publishes one message, it may do other synchronous work before
+   * @return completed when the broker confirms the message
+   */
+  CompletableFuture<Void> publish(QueuePublisher.ChannelTask task) {
+    try {
+      window.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(new QueueMessagingException(ex.getMessage(), ex));
+    }
+    var future = new CompletableFuture<Void>();
+    synchronized (this) {
+      var tag = channel.getNextPublishSeqNo();
+      outstanding.put(tag, future);
+      try {
+        task.accept(channel);
+      } catch (IOException | RuntimeException ex) {
+        if (outstanding.remove(tag, future)) {
+          window.release();
+        }
+        future.completeExceptionally(new QueueMessagingException(ex.getMessage(), ex));
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Waits a bit for the outstanding confirms, then closes the channel.
+   */
+  void close() {
+    try {
+      if (channel.isOpen()) {
+        channel.waitForConfirms(5000);
+        channel.close();
+      }
+    } catch (IOException | TimeoutException | RuntimeException ex) {
+      LOG.warn(ex.getMessage(), ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    failAll(new IllegalStateException("Publisher closed"));
+  }
+
+  private void confirmed(long tag, boolean multiple, RuntimeException error) {
+    var confirmed = multiple ? outstanding.headMap(tag, true) : outstanding.subMap(tag, true, tag, true);
+    confirmed.forEach((t, future) -> {
+      if (confirmed.remove(t, future)) {
+        window.release();
+        if (error == null) {
+          future.complete(null);
+        } else {
+          future.completeExceptionally(error);
+        }
+      }
+    });
+  }
+
+  private void failAll(Throwable cause) {
+    outstanding.forEach((t, future) -> {
+      if (outstanding.remove(t, future)) {
+        window.release();
+        future.completeExceptionally(new QueueMessagingException(cause.getMessage(), cause));
+      }
+    });
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessageTooLargeException;
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of the message bodies, negotiated through the content-encoding property:
+ * bodies are compressed as 'deflate' (zlib), and 'deflate' or 'gzip' bodies are read.
+ * Deflaters hold native memory and are costly to create: a few are kept in a pool shared by all
+ * threads, virtual ones included, and the ones that don't fit back in it are ended right away.
+ * Inflated bodies are capped, a small body can't expand without bound in the consumer.
+ * @author Raffaele Ragni
+ */
+final class MessageCompression {
+
+  static final String DEFLATE = "deflate";
+  static final String GZIP = "gzip";
+
+  private static final BlockingQueue<Compressor> POOL =
+    new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+  private MessageCompression() {
+  }
+
+  static byte[] deflate(byte[] body) {
+    var compressor = POOL.poll();
+    if (compressor == null) {
+      compressor = new Compressor();
+    }
+    try {
+      var deflater = compressor.deflater;
+      deflater.setInput(body);
+      deflater.finish();
+      var out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+      while (!deflater.finished()) {
+        var count = deflater.deflate(compressor.chunk);
+        out.write(compressor.chunk, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      compressor.deflater.reset();
+      if (!POOL.offer(compressor)) {
+        compressor.deflater.end();
+      }
+    }
+  }
+
+  /**
+   * @param contentEncoding the content-encoding of the message, null if none
+   * @param body the body
+   * @param maxSize the most bytes the body can inflate to
+   * @return a stream reading the body uncompressed, throwing QueueMessageTooLargeException past maxSize
+   * @throws IOException if the body is not valid for the encoding
+   */
+  static InputStream inflate(String contentEncoding, byte[] body, long maxSize) throws IOException {
+    var in = new ByteArrayInputStream(body);
+    if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equalsIgnoreCase(contentEncoding)) {
+      return in;
+    }
+    if (DEFLATE.equalsIgnoreCase(contentEncoding)) {
+      return new Capped(new InflaterInputStream(in), maxSize);
+    }
+    if (GZIP.equalsIgnoreCase(contentEncoding)) {
+      return new Capped(new GZIPInputStream(in), maxSize);
+    }
+    throw new QueueMessagingException("Unsupported content-encoding: " + contentEncoding, null);
+  }
+
+  static boolean compressed(String contentEncoding) {
+    return contentEncoding != null && !contentEncoding.isEmpty() && !"identity".equalsIgnoreCase(contentEncoding);
+  }
+
+  static int pooled() {
+    return POOL.size();
+  }
+
+  /**
+   * Counts the bytes read, and fails once they are more than the cap.
+   */
+  private static final class Capped extends FilterInputStream {
+    private final long maxSize;
+    private long count;
+
+    Capped(InputStream in, long maxSize) {
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      var b = super.read();
+      if (b != -1) {
+        counted(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      var read = super.read(b, off, len);
+      if (read > 0) {
+        counted(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      var skipped = super.skip(n);
+      counted(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void counted(long bytes) {
+      count += bytes;
+      if (count > maxSize) {
+        throw new QueueMessageTooLargeException("Message inflates to more than " + maxSize + " bytes");
+      }
+    }
+  }
+
+  private static final class Compressor {
+    final Deflater deflater = new Deflater();
+    final byte[] chunk = new byte[8192];
+  }
+}
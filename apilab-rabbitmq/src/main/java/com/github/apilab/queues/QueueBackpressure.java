@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import java.util.function.IntConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flow control of the consumers of a queue, so that a slow receive() does not make the
+ * application hold thousands of unacked messages.
+ *
+ * - maxInFlight: when this many messages are being processed, the delivery threads wait before
+ *   handing out more, which pauses the consumers until the workers catch up.
+ * - maxReceiveLatency: a receive() slower than this halves the prefetch of the consumers,
+ *   which then grows back by one for every prefetch worth of fast messages, up to the
+ *   configured prefetch.
+ * @author Raffaele Ragni
+ */
+final class QueueBackpressure {
+
+  private static final Logger LOG = LoggerFactory.getLogger(QueueBackpressure.class);
+
+  private final String queueName;
+  private final int maxInFlight;
+  private final long maxLatencyNanos;
+  private final int ceiling;
+  private final IntConsumer qos;
+  private final QueueMetrics metrics;
+  private final Object applying = new Object();
+
+  private int inFlight;
+  private int limit;
+  private int fast;
+  private int applied;
+
+  /**
+   * @param queueName for logging
+   * @param options the queue options
+   * @param prefetch the prefetch the consumers start with, 0 if none
+   * @param qos sets the prefetch on all the consumers
+   * @param metrics where the in flight and prefetch are exported
+   */
+  QueueBackpressure(String queueName, QueueServiceOptions options, int prefetch, IntConsumer qos, QueueMetrics metrics) {
+    this.queueName = queueName;
+    this.maxInFlight = options.maxInFlight();
+    this.maxLatencyNanos = options.maxReceiveLatency().toNanos();
+    this.ceiling = prefetch;
+    this.limit = prefetch;
+    this.applied = prefetch;
+    this.qos = qos;
+    this.metrics = metrics;
+    metrics.prefetch.set(prefetch);
+  }
+
+  /**
+   * Called by the delivery thread before a message is handed out.
+   * @throws InterruptedException if interrupted while paused
+   */
+  synchronized void admit() throws InterruptedException {
+    if (maxInFlight > 0 && inFlight >= maxInFlight) {
+      LOG.warn("## CONSUMERS {}: {} messages in flight, pausing the deliveries", queueName, inFlight);
+      while (inFlight >= maxInFlight) {
+        wait();
+      }
+      LOG.info("## CONSUMERS {}: resuming the deliveries", queueName);
+    }
+    inFlight++;
+    metrics.inFlight.inc();
+  }
+
+  /**
+   * Called once the message is acked or nacked.
+   * @param latencyNanos how long receive() took, negative if it was not called
+   */
+  void done(long latencyNanos) {
+    int next;
+    synchronized (this) {
+      inFlight--;
+      metrics.inFlight.dec();
+      notifyAll();
+      if (ceiling == 0 || maxLatencyNanos <= 0 || latencyNanos < 0) {
+        return;
+      }
+      if (latencyNanos > maxLatencyNanos) {
+        fast = 0;
+        next = Math.max(1, limit / 2);
+      } else if (limit < ceiling && ++fast >= limit) {
+        fast = 0;
+        next = limit + 1;
+      } else {
+        return;
+      }
+      limit = next;
+    }
+    apply();
+  }
+
+  synchronized int prefetch() {
+    return limit;
+  }
+
+  synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /**
+   * The qos is a round trip to the broker, it is not sent while holding the admission lock.
+   */
+  private void apply() {
+    synchronized (applying) {
+      var target = prefetch();
+      if (target == applied) {
+        return;
+      }
+      if (target < applied) {
+        LOG.warn("## CONSUMERS {}: receive is slow, prefetch lowered to {}", queueName, target);
+      }
+      qos.accept(target);
+      applied = target;
+      metrics.prefetch.set(target);
+    }
+  }
+}
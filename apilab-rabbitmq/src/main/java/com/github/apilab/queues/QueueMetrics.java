@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Prometheus metrics of the consumers of a queue, all labeled by queue name.
+ * Acks and nacks are the ones sent to the broker, so a message sent to a retry queue is acked.
+ * @author Raffaele Ragni
+ */
+final class QueueMetrics {
+
+  private static final Counter DELIVERIES = Counter.build()
+    .name("apilab_queue_deliveries_total")
+    .help("Messages delivered to the queue consumers")
+    .labelNames("queue")
+    .register();
+  private static final Counter ACKS = Counter.build()
+    .name("apilab_queue_acks_total")
+    .help("Messages acked by the queue consumers")
+    .labelNames("queue")
+    .register();
+  private static final Counter NACKS = Counter.build()
+    .name("apilab_queue_nacks_total")
+    .help("Messages nacked by the queue consumers, by requeue: true or false")
+    .labelNames("queue", "requeue")
+    .register();
+  private static final Counter ROUTED = Counter.build()
+    .name("apilab_queue_failed_routes_total")
+    .help("Failed messages by where they were sent: dlq, retry or parking")
+    .labelNames("queue", "target")
+    .register();
+  private static final Histogram RECEIVE = Histogram.build()
+    .name("apilab_queue_receive_seconds")
+    .help("Time taken to receive and ack or nack each message")
+    .labelNames("queue")
+    .register();
+  private static final Gauge IN_FLIGHT = Gauge.build()
+    .name("apilab_queue_in_flight")
+    .help("Messages delivered and not yet acked or nacked")
+    .labelNames("queue")
+    .register();
+  private static final Gauge PREFETCH = Gauge.build()
+    .name("apilab_queue_prefetch")
+    .help("Current prefetch of each consumer, 0 for no limit")
+    .labelNames("queue")
+    .register();
+
+  final Counter.Child deliveries;
+  final Counter.Child acks;
+  final Counter.Child requeued;
+  final Counter.Child rejected;
+  final Counter.Child toDeadLetters;
+  final Counter.Child toRetry;
+  final Counter.Child toParking;
+  final Histogram.Child receive;
+  final Gauge.Child inFlight;
+  final Gauge.Child prefetch;
+
+  QueueMetrics(String queueName) {
+    deliveries = DELIVERIES.labels(queueName);
+    acks = ACKS.labels(queueName);
+    requeued = NACKS.labels(queueName, "true");
+    rejected = NACKS.labels(queueName, "false");
+    toDeadLetters = ROUTED.labels(queueName, "dlq");
+    toRetry = ROUTED.labels(queueName, "retry");
+    toParking = ROUTED.labels(queueName, "parking");
+    receive = RECEIVE.labels(queueName);
+    inFlight = IN_FLIGHT.labels(queueName);
+    prefetch = PREFETCH.labels(queueName);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long lived publisher connection with a pool of channels, provided by the QueueModule and
+ * shared by all the queue services injected. Channels are not thread safe, each publish takes one
+ * from the pool and gives it back after, waiting if all of them are in use.
+ *
+ * The connection is opened on first use and again if it goes down, queue declarations are
+ * remembered until then.
+ *
+ * Publishing with confirms goes through one more channel, in confirm mode, see {@link ConfirmingChannel}.
+ *
+ * Pool size is set via env API_RABBITMQ_PUBLISHER_CHANNELS, defaults to 8.
+ * The confirm window (publishes waiting for a confirm) via API_RABBITMQ_CONFIRM_WINDOW, defaults to 1000.
+ * The publisher is closed by the QueueLifecycle on stop.
+ * @author Raffaele Ragni
+ */
+public final class QueuePublisher implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(QueuePublisher.class);
+
+  public static final int DEFAULT_CHANNELS = 8;
+  public static final int DEFAULT_CONFIRM_WINDOW = 1000;
+
+  /**
+   * Work done on a channel of the pool.
+   */
+  @FunctionalInterface
+  public interface ChannelTask {
+    void accept(Channel channel) throws IOException;
+  }
+
+  private final ConnectionFactory factory;
+  private final BlockingQueue<Channel> idle;
+  private final Semaphore permits;
+  private final Set<String> declared = ConcurrentHashMap.newKeySet();
+  private final int confirmWindow;
+  private Connection connection;
+  private ConfirmingChannel confirming;
+
+  public QueuePublisher(ConnectionFactory factory) {
+    this(factory, DEFAULT_CHANNELS, DEFAULT_CONFIRM_WINDOW);
+  }
+
+  /**
+   * @param factory the connection factory
+   * @param channels the size of the channel pool
+   * @param confirmWindow the publishes that can wait for a confirm at once
+   */
+  public QueuePublisher(ConnectionFactory factory, int channels, int confirmWindow) {
+    this.factory = factory;
+    this.idle = new LinkedBlockingQueue<>(channels);
+    this.permits = new Semaphore(channels, true);
+    this.confirmWindow = confirmWindow;
+  }
+
+  /**
+   * Publishes on the confirm channel. Blocks only if the confirm window is full.
+   * @param task does the publish, and anything else needed before it like declarations
+   * @return completed when the broker confirms the message, or failed if it rejects it
+   */
+  public CompletableFuture<Void> withConfirm(ChannelTask task) {
+    try {
+      return confirming().publish(task);
+    } catch (IOException | TimeoutException ex) {
+      return CompletableFuture.failedFuture(new QueueMessagingException(ex.getMessage(), ex));
+    }
+  }
+
+  /**
+   * Runs the task on a channel of the pool.
+   * A channel failing is closed and not given back to the pool.
+   * @param task the task
+   */
+  public void withChannel(ChannelTask task) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new QueueMessagingException(ex.getMessage(), ex);
+    }
+    try {
+      var channel = idle.poll();
+      if (channel == null || !channel.isOpen()) {
+        channel = newChannel();
+      }
+      try {
+        task.accept(channel);
+      } catch (IOException | RuntimeException ex) {
+        closeQuietly(channel);
+        throw ex;
+      }
+      if (channel.isOpen()) {
+        idle.offer(channel);
+      }
+    } catch (IOException | TimeoutException ex) {
+      throw new QueueMessagingException(ex.getMessage(), ex);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Runs the declaration only once per connection.
+   * @param channel the channel to use
+   * @param key identifies the declaration, usually the queue name
+   * @param declaration the declaration
+   * @throws IOException if the declaration fails, it will be attempted again the next time
+   */
+  public void declareOnce(Channel channel, String key, ChannelTask declaration) throws IOException {
+    if (declared.contains(key)) {
+      return;
+    }
+    declaration.accept(channel);
+    declared.add(key);
+  }
+
+  /**
+   * Closes the channels and the connection. The publisher opens again if used after.
+   */
+  @Override
+  public synchronized void close() {
+    if (confirming != null) {
+      confirming.close();
+      confirming = null;
+    }
+    Channel channel;
+    while ((channel = idle.poll()) != null) {
+      closeQuietly(channel);
+    }
+    declared.clear();
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (IOException | RuntimeException ex) {
+        LOG.warn(ex.getMessage(), ex);
+      }
+      connection = null;
+    }
+  }
+
+  private synchronized ConfirmingChannel confirming() throws IOException, TimeoutException {
+    if (confirming == null || !confirming.isOpen()) {
+      confirming = new ConfirmingChannel(newChannel(), confirmWindow);
+    }
+    return confirming;
+  }
+
+  private synchronized Channel newChannel() throws IOException, TimeoutException {
+    if (connection == null || !connection.isOpen()) {
+      // Whatever was declared on the previous connection may not be there anymore.
+      declared.clear();
+      connection = factory.newConnection();
+    }
+    return connection.createChannel();
+  }
+
+  private static void closeQuietly(Channel channel) {
+    try {
+      if (channel.isOpen()) {
+        channel.close();
+      }
+    } catch (IOException | TimeoutException | RuntimeException ex) {
+      LOG.debug(ex.getMessage(), ex);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import static java.util.Optional.ofNullable;
+
+/**
+ * Retry topology of a queue, when the retries option is more than 0.
+ *
+ * A failed message is published to '[queue]_retry_[attempt]', a queue without consumers whose
+ * TTL is the delay of that attempt (retryDelay * retryBackoff^(attempt-1)) and that dead-letters
+ * back to the main queue. The attempt is counted in the x-apilab-attempts header.
+ * After the last retry the message is parked in '[queue]_parking', where it stays until
+ * someone looks at it.
+ * @author Raffaele Ragni
+ */
+class QueueRetries {
+
+  static final String ATTEMPTS_HEADER = "x-apilab-attempts";
+
+  private final String queueName;
+  private final QueueServiceOptions options;
+
+  QueueRetries(String queueName, QueueServiceOptions options) {
+    this.queueName = queueName;
+    this.options = options;
+  }
+
+  boolean enabled() {
+    return options.retries() > 0;
+  }
+
+  void declare(Channel ch) throws IOException {
+    for (int attempt = 1; attempt <= options.retries(); attempt++) {
+      ch.queueDeclare(retryQueue(attempt), options.durable(), false, false, Map.of(
+        "x-message-ttl", delayMillis(attempt),
+        "x-dead-letter-exchange", "",
+        "x-dead-letter-routing-key", queueName
+      ));
+    }
+    ch.queueDeclare(parkingQueue(), options.durable(), false, false, null);
+  }
+
+  String retryQueue(int attempt) {
+    return queueName + "_retry_" + attempt;
+  }
+
+  String parkingQueue() {
+    return queueName + "_parking";
+  }
+
+  long delayMillis(int attempt) {
+    return (long) (options.retryDelay().toMillis() * Math.pow(options.retryBackoff(), attempt - 1));
+  }
+
+  /**
+   * @param delivery the failed delivery
+   * @return the attempt the delivery was in, 0 for the first delivery
+   */
+  static int attempts(Delivery delivery) {
+    return ofNullable(delivery.getProperties())
+      .map(AMQP.BasicProperties::getHeaders)
+      .map(h -> h.get(ATTEMPTS_HEADER))
+      .filter(Number.class::isInstance)
+      .map(n -> ((Number) n).intValue())
+      .orElse(0);
+  }
+
+  /**
+   * @param delivery the failed delivery
+   * @return where to send it next: a retry queue, or the parking queue if the retries are over
+   */
+  String nextQueue(Delivery delivery) {
+    var attempt = attempts(delivery) + 1;
+    return attempt > options.retries() ? parkingQueue() : retryQueue(attempt);
+  }
+
+  /**
+   * @param delivery the failed delivery
+   * @return its properties with the attempts header incremented
+   */
+  static AMQP.BasicProperties nextProperties(Delivery delivery) {
+    var properties = ofNullable(delivery.getProperties()).orElseGet(() -> new AMQP.BasicProperties.Builder().build());
+    Map<String, Object> headers = new HashMap<>(ofNullable(properties.getHeaders()).orElse(Map.of()));
+    headers.put(ATTEMPTS_HEADER, attempts(delivery) + 1);
+    return properties.builder().headers(headers).build();
+  }
+}
@@ -15,25 +15,51 @@
  */
 package com.github.apilab.queues;
 
+import com.github.apilab.core.VirtualThreads;
+import com.github.apilab.core.codec.Codec;
+import com.github.apilab.core.codec.JsonCodec;
+import com.github.apilab.queues.exceptions.QueueMessageTooLargeException;
 import com.github.apilab.queues.exceptions.QueueMessagingException;
 import com.google.gson.Gson;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Delivery;
 import java.io.IOException;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import static java.util.Optional.empty;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.function.Consumer;
+import javax.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Handles asynchronous processing using APMQ queues.
  * Implement the receive() method, then use the given send() to push the asynchronous process.
+ * Messages are json unless a different codec is given, the codec content type is set on each
+ * message.
+ * Sending goes through the {@link QueuePublisher} of the application when the service is injected,
+ * or one of its own when built by hand: no connection is opened per message and the queues are
+ * declared only once.
+ * sendAsync() and sendAll() use publisher confirms: the message is delivered at least once
+ * when the returned future completes, and messages of durable queues are persistent.
+ * Consumers export their metrics to prometheus (see {@link QueueMetrics}) and slow down when
+ * receive() can't keep up (see {@link QueueBackpressure}).
  * @author Raffaele Ragni
  */
 public abstract class QueueService<T> {
@@ -41,11 +67,15 @@ public abstract class QueueService<T> {
   private static final Logger LOG = LoggerFactory.getLogger(QueueService.class);
 
   ConnectionFactory rabbitFactory;
+  @Inject QueuePublisher publisher;
   Optional<Runnable> deregisterCallback;
-  Gson gson;
+  Codec<T> codec;
+  AMQP.BasicProperties messageProperties;
+  AMQP.BasicProperties compressedProperties;
   String queueName;
-  Class<T> clazz;
   QueueServiceOptions options;
+  QueueRetries retries;
+  QueueMetrics metrics;
 
   public QueueService(
     ConnectionFactory rabbitFactory,
@@ -68,34 +98,125 @@ public abstract class QueueService<T> {
     Class<T> clazz,
     QueueServiceOptions options) {
 
+    // Resolving the codec adapter early reports at startup if this type falls back to reflection.
+    this(
+      rabbitFactory,
+      new JsonCodec<>(Objects.requireNonNull(gson), Objects.requireNonNull(clazz)),
+      queueName,
+      options);
+  }
+
+  public QueueService(
+    ConnectionFactory rabbitFactory,
+    Codec<T> codec,
+    String queueName,
+    QueueServiceOptions options) {
+
     this.rabbitFactory = Objects.requireNonNull(rabbitFactory);
-    this.gson = Objects.requireNonNull(gson);
+    // Replaced by the shared one when injected.
+    this.publisher = new QueuePublisher(rabbitFactory);
+    this.codec = Objects.requireNonNull(codec);
     this.queueName = Objects.requireNonNull(queueName);
-    this.clazz = Objects.requireNonNull(clazz);
     this.options = options;
+    this.retries = new QueueRetries(queueName, options);
+    this.metrics = new QueueMetrics(queueName);
+    this.messageProperties = new AMQP.BasicProperties.Builder()
+      .contentType(codec.contentType())
+      // Confirms only mean something for a durable queue if the message survives a broker restart.
+      .deliveryMode(options.durable() ? 2 : 1)
+      .build();
+    this.compressedProperties = messageProperties.builder()
+      .contentEncoding(MessageCompression.DEFLATE)
+      .build();
   }
 
   public abstract void receive(T message);
 
+  /**
+   * Receives the messages in batches, when the batchSize option is more than 1.
+   * The batch is acked at once if this returns. If it throws the batch is received again, up to
+   * the batchRetries option, then it is split to find the failing messages, which go to the
+   * dead letter queue, and the others are received again.
+   * So receiving has to be idempotent, a transaction per batch is the usual way.
+   * By default it just receives the messages one by one.
+   * @param messages the batch, in delivery order
+   */
+  public void receiveBatch(List<T> messages) {
+    messages.forEach(this::receive);
+  }
+
   public void send(T message) {
-    withinChannel(rabbitFactory, ch -> {
-      try {
-        queueDeclare(ch);
-        queueSend(ch, message);
-        LOG.debug("Sent messsage: {}", message);
-      } catch (IOException ex) {
-        throw new QueueMessagingException(ex.getMessage(), ex);
-      }
+    var outgoing = new Outgoing(message);
+    publisher.withChannel(ch -> {
+      publisher.declareOnce(ch, queueName, this::queueDeclare);
+      queueSend(ch, outgoing);
+      LOG.debug("Sent messsage: {}", message);
     });
   }
 
-  private void queueSend(Channel ch, T message) throws IOException {
-    ch.basicPublish("", queueName, null, gson.toJson(message).getBytes(UTF_8));
+  /**
+   * Sends the message with a publisher confirm.
+   * Only blocks if too many messages are waiting for a confirm already.
+   * @param message the message
+   * @return completed when the broker has taken the message
+   */
+  public CompletableFuture<Void> sendAsync(T message) {
+    var outgoing = new Outgoing(message);
+    return publisher.withConfirm(ch -> {
+      publisher.declareOnce(ch, queueName, this::queueDeclare);
+      queueSend(ch, outgoing);
+    });
+  }
+
+  /**
+   * Sends all the messages pipelined, then waits for the broker to confirm all of them.
+   * @param messages the messages
+   * @throws QueueMessagingException if any of them was not confirmed
+   */
+  public void sendAll(Collection<T> messages) {
+    var futures = messages.stream()
+      .map(this::sendAsync)
+      .toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(futures).join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new QueueMessagingException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Closes the publisher connection, it is opened again if anything is sent after.
+   */
+  public void closePublisher() {
+    publisher.close();
+  }
+
+  private void queueSend(Channel ch, Outgoing outgoing) throws IOException {
+    ch.basicPublish("", queueName, outgoing.properties, outgoing.body);
+  }
+
+  /**
+   * A message encoded, and compressed if big enough, before taking a channel.
+   */
+  private final class Outgoing {
+    final byte[] body;
+    final AMQP.BasicProperties properties;
+
+    Outgoing(T message) {
+      var encoded = codec.encode(message);
+      var compress = options.compressAbove() > 0 && encoded.length > options.compressAbove();
+      this.body = compress ? MessageCompression.deflate(encoded) : encoded;
+      this.properties = compress ? compressedProperties : messageProperties;
+    }
   }
 
   /**
    * Registers the queue listeners, and puts this class on listen.
    * The callback will be forwarded so this one needs to be called just ONCE.
+   * One channel is opened per consumer, see {@link QueueServiceOptions} for the concurrency.
    */
   public void registerQueueListener() {
     try {
@@ -105,42 +226,264 @@ public abstract class QueueService<T> {
       // There is a closing functional that will take care of freeing this resource
       // following the application lifecycle using the ApplicationService interface.
       var connection = rabbitFactory.newConnection(); //NOSONAR
-      var channel = connection.createChannel();
-      queueDeclare(channel);
-      var tag = registerConsumer(channel);
+      Optional<ExecutorService> ownedWorkers = options.workerExecutor().isEmpty() && options.virtualThreads()
+        ? virtualThreadWorkers()
+        : empty();
+      var worker = options.workerExecutor().or(() -> ownedWorkers.map(Executor.class::cast));
+      var batching = options.batchSize() > 1;
+      if (batching && options.prefetch() > 0 && options.prefetch() < options.batchSize()) {
+        LOG.warn("## CONSUMERS {}: prefetch {} is less than the batch size {}, batches will wait for the timeout",
+          queueName, options.prefetch(), options.batchSize());
+      }
+      // Consumers already registered can adapt the prefetch while the next ones are added.
+      List<Channel> channels = new CopyOnWriteArrayList<>();
+      List<String> tags = new ArrayList<>();
+      List<BatchConsumer> batches = new ArrayList<>();
+      // One timer per consumer, batches flushed by time are processed on it.
+      List<ScheduledExecutorService> batchTimers = new ArrayList<>();
+      var prefetch = options.prefetch() > 0 ? options.prefetch() : options.maxInFlight();
+      var backpressure = new QueueBackpressure(queueName, options, prefetch, p -> qos(channels, p), metrics);
+      for (int i = 0; i < Math.max(1, options.consumers()); i++) {
+        var channel = connection.createChannel();
+        channels.add(channel);
+        if (i == 0) {
+          queueDeclare(channel);
+        }
+        if (prefetch > 0) {
+          // Channel wide (there is one consumer per channel): a later qos applies right away to
+          // the consumer already running, a per consumer one would only apply to new consumers.
+          channel.basicQos(prefetch, true);
+        }
+        Optional<BatchConsumer> batch = empty();
+        if (batching) {
+          var timer = batchTimer(i);
+          batchTimers.add(timer);
+          batch = Optional.of(new BatchConsumer(
+            channel, options.batchSize(), options.batchTimeout(), options.batchRetries(), timer,
+            ds -> consumeBatch(ds, backpressure),
+            (d, ex) -> {
+              backpressure.done(-1);
+              return failed(channel, d, ex);
+            }));
+        }
+        batch.ifPresent(batches::add);
+        tags.add(registerConsumer(channel, worker, batch, backpressure));
+      }
       deregisterCallback = Optional.of(() -> {
-        try { channel.basicCancel(tag); } catch (IOException ex) { LoggerFactory.getLogger(QueueService.class).warn(ex.getMessage(), ex); }
-        try { channel.close(); } catch (IOException | TimeoutException ex) { LoggerFactory.getLogger(QueueService.class).warn(ex.getMessage(), ex); }
-        try { connection.close(); } catch (IOException ex) { LoggerFactory.getLogger(QueueService.class).warn(ex.getMessage(), ex); }
+        for (int i = 0; i < channels.size(); i++) {
+          try { channels.get(i).basicCancel(tags.get(i)); } catch (IOException ex) { LOG.warn(ex.getMessage(), ex); }
+        }
+        // Messages being processed can still be acked before the channels are closed.
+        batches.forEach(BatchConsumer::flush);
+        batches.forEach(QueueService::awaitSettled);
+        batchTimers.forEach(ScheduledExecutorService::shutdownNow);
+        ownedWorkers.ifPresent(QueueService::shutdown);
+        channels.forEach(channel -> {
+          try { channel.close(); } catch (IOException | TimeoutException ex) { LOG.warn(ex.getMessage(), ex); }
+        });
+        try { connection.close(); } catch (IOException ex) { LOG.warn(ex.getMessage(), ex); }
       });
     } catch (IOException | TimeoutException ex) {
       throw new QueueMessagingException(ex.getMessage(), ex);
     }
   }
 
-  private String registerConsumer(Channel channel) throws IOException {
+  private String registerConsumer(
+      Channel channel,
+      Optional<Executor> worker,
+      Optional<BatchConsumer> batch,
+      QueueBackpressure backpressure) throws IOException {
+
     return channel.basicConsume(queueName, false, (t, d) -> {
+      metrics.deliveries.inc();
       try {
-        consumeMessage(d);
-        channel.basicAck(d.getEnvelope().getDeliveryTag(), false);
-      } catch (IOException | RuntimeException ex) {
-        // Must swallow all exceptions or the queue consumer will die otherwise.
-        // Give an explicit NACK so the message ends up in the dead letter queue
-        // and it is not requeued. Retry behavior will kick in in the DLQ later.
-        try {
-          channel.basicNack(d.getEnvelope().getDeliveryTag(), false, false);
-        } catch (RuntimeException ex2) {
-          LoggerFactory.getLogger(this.getClass()).error(ex2.getMessage(), ex2);
-        }
-        LoggerFactory.getLogger(this.getClass()).error(ex.getMessage(), ex);
+        // Holding the delivery thread stops this consumer until the workers catch up.
+        backpressure.admit();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        requeue(channel, d);
+        return;
+      }
+      if (batch.isPresent()) {
+        batch.get().add(d);
+        return;
+      }
+      if (worker.isEmpty()) {
+        handleDelivery(channel, d, backpressure);
+        return;
+      }
+      try {
+        worker.get().execute(() -> handleDelivery(channel, d, backpressure));
+      } catch (RejectedExecutionException ex) {
+        // Not processed at all, back to the queue rather than to the dead letter queue.
+        backpressure.done(-1);
+        requeue(channel, d);
+        LOG.warn(ex.getMessage(), ex);
       }
     }, t -> {});
   }
 
+  private void handleDelivery(Channel channel, Delivery d, QueueBackpressure backpressure) {
+    var begin = System.nanoTime();
+    try {
+      consumeMessage(d);
+      channel.basicAck(d.getEnvelope().getDeliveryTag(), false);
+      metrics.acks.inc();
+    } catch (IOException | RuntimeException ex) {
+      // Must swallow all exceptions or the queue consumer will die otherwise.
+      LoggerFactory.getLogger(this.getClass()).error(ex.getMessage(), ex);
+      failed(channel, d, ex);
+    } finally {
+      var latency = System.nanoTime() - begin;
+      metrics.receive.observe(latency / 1e9);
+      backpressure.done(latency);
+    }
+  }
+
+  private void requeue(Channel channel, Delivery d) throws IOException {
+    channel.basicNack(d.getEnvelope().getDeliveryTag(), false, true);
+    metrics.requeued.inc();
+  }
+
+  private void qos(List<Channel> channels, int prefetch) {
+    channels.forEach(channel -> {
+      try {
+        channel.basicQos(prefetch, true);
+      } catch (IOException | RuntimeException ex) {
+        LOG.warn(ex.getMessage(), ex);
+      }
+    });
+  }
+
+  /**
+   * Sends the message to its next retry queue, or parks it, see {@link QueueRetries}.
+   * Without retries, or if that fails, gives an explicit NACK so the message ends up in the
+   * dead letter queue and it is not requeued. Messages inflating past the cap go there directly.
+   * The delivery is settled once the broker confirms the retry, without waiting for it here.
+   * @return completed when the delivery is settled
+   */
+  private CompletableFuture<Void> failed(Channel channel, Delivery d, Exception failure) {
+    if (!retries.enabled() || tooLarge(failure)) {
+      reject(channel, d);
+      return CompletableFuture.completedFuture(null);
+    }
+    var target = retries.nextQueue(d);
+    return publisher.withConfirm(ch -> {
+      publisher.declareOnce(ch, queueName, this::queueDeclare);
+      ch.basicPublish("", target, QueueRetries.nextProperties(d), d.getBody());
+    }).handle((ok, ex) -> {
+      if (ex != null) {
+        LOG.error(ex.getMessage(), ex);
+        reject(channel, d);
+        return null;
+      }
+      LOG.warn("## CONSUMERS {}: message sent to {}", queueName, target);
+      (target.equals(retries.parkingQueue()) ? metrics.toParking : metrics.toRetry).inc();
+      try {
+        channel.basicAck(d.getEnvelope().getDeliveryTag(), false);
+        metrics.acks.inc();
+      } catch (IOException | RuntimeException e) {
+        LOG.error(e.getMessage(), e);
+      }
+      return null;
+    });
+  }
+
+  private static boolean tooLarge(Throwable failure) {
+    for (var cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof QueueMessageTooLargeException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void reject(Channel channel, Delivery d) {
+    try {
+      channel.basicNack(d.getEnvelope().getDeliveryTag(), false, false);
+      metrics.rejected.inc();
+      metrics.toDeadLetters.inc();
+    } catch (IOException | RuntimeException ex) {
+      LoggerFactory.getLogger(this.getClass()).error(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * When this returns the batch is acked, if it throws it is retried or split and processed again.
+   */
+  private void consumeBatch(List<Delivery> deliveries, QueueBackpressure backpressure) {
+    var begin = System.nanoTime();
+    List<T> messages = new ArrayList<>(deliveries.size());
+    deliveries.forEach(d -> messages.add(decode(d)));
+    receiveBatch(messages);
+    var latency = (System.nanoTime() - begin) / deliveries.size();
+    metrics.acks.inc(deliveries.size());
+    for (int i = 0; i < deliveries.size(); i++) {
+      metrics.receive.observe(latency / 1e9);
+      backpressure.done(latency);
+    }
+  }
+
+  private ScheduledExecutorService batchTimer(int consumer) {
+    return Executors.newSingleThreadScheduledExecutor(r -> {
+      var thread = new Thread(r, "apilab-queue-batch-" + queueName + "-" + consumer);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static Optional<ExecutorService> virtualThreadWorkers() {
+    var workers = VirtualThreads.newVirtualThreadPerTaskExecutor();
+    if (workers.isEmpty()) {
+      LOG.warn("## CONSUMERS virtual threads are not available, receiving on the delivery threads");
+    }
+    return workers;
+  }
+
+  private static void shutdown(ExecutorService workers) {
+    workers.shutdown();
+    try {
+      if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+        LOG.warn("## CONSUMERS still processing after 30s, closing the channels anyway");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void awaitSettled(BatchConsumer batch) {
+    try {
+      batch.settled().get(30, TimeUnit.SECONDS);
+    } catch (TimeoutException ex) {
+      LOG.warn("## CONSUMERS failed messages still not settled after 30s, closing the channels anyway");
+    } catch (ExecutionException ex) {
+      LOG.warn(ex.getMessage(), ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void consumeMessage(Delivery d) {
-    var message = Optional.ofNullable(d.getBody())
-      .map(b -> new String(b, UTF_8)).orElse(null);
-    receive(gson.fromJson(message, clazz));
+    receive(decode(d));
+  }
+
+  /**
+   * Decodes straight from the body, inflating it on the fly if compressed.
+   */
+  private T decode(Delivery d) {
+    var body = d.getBody();
+    if (body == null) {
+      return null;
+    }
+    var encoding = d.getProperties() == null ? null : d.getProperties().getContentEncoding();
+    if (!MessageCompression.compressed(encoding)) {
+      return codec.decode(body);
+    }
+    try (var in = MessageCompression.inflate(encoding, body, options.maxInflatedSize())) {
+      return codec.decode(in);
+    } catch (IOException ex) {
+      throw new QueueMessagingException(ex.getMessage(), ex);
+    }
   }
 
   /**
@@ -161,15 +504,8 @@ public abstract class QueueService<T> {
       "x-dead-letter-exchange", "",
       "x-dead-letter-routing-key", queueName+"_dlq"
     ));
-  }
-
-  private static void withinChannel(ConnectionFactory rabbitFactory, Consumer<Channel> fn) {
-    try (var connection = rabbitFactory.newConnection()){
-      try (var channel = connection.createChannel()) {
-        fn.accept(channel);
-      }
-    } catch (IOException | TimeoutException ex) {
-      throw new QueueMessagingException(ex.getMessage(), ex);
+    if (retries.enabled()) {
+      retries.declare(ch);
     }
   }
 
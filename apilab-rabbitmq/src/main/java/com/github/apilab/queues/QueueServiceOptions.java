@@ -15,10 +15,40 @@
  */
 package com.github.apilab.queues;
 
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import org.immutables.value.Value;
 import org.immutables.value.Value.Default;
 
 /**
+ * Options of the queue and of its consumers.
+ *
+ * - durable, exclusive, autoDelete: declaration of the queue.
+ * - consumers: how many channels consume the queue, each one with its own consumer.
+ * - prefetch: unacknowledged messages each consumer can hold, 0 for no limit.
+ * - workerExecutor: when present receive() runs there instead of on the delivery thread.
+ *                   Messages in flight are still bounded by consumers * prefetch.
+ * - virtualThreads: when there is no workerExecutor, run each receive() on a virtual thread,
+ *                   if the runtime has them.
+ * - batchSize: when more than 1, messages are given to receiveBatch() in lists of up to this size.
+ *              The prefetch, if set, has to be at least this much or batches will never be full.
+ * - batchTimeout: how long to wait at most for a batch to be full.
+ * - batchRetries: how many times a failed batch is received again as a whole before it is split
+ *                 to find the failing messages.
+ * - retries: how many times a failed message is delivered again before being parked.
+ *            0 sends failed messages straight to the dead letter queue, as before.
+ * - retryDelay, retryBackoff: the delay of the first retry, multiplied by the backoff at each attempt.
+ * - compressAbove: bodies bigger than this many bytes are sent deflated, 0 never compresses.
+ *                  Compressed bodies are always read, whatever this option is.
+ * - maxInflatedSize: compressed bodies inflating to more than this many bytes go straight to the
+ *                    dead letter queue, without retries. 64MB by default.
+ * - maxInFlight: consumers pause when this many messages are being processed, 0 for no limit.
+ *                It is also the prefetch when no prefetch is set.
+ *                When set it has to be at least the batchSize: a batch being filled holds its
+ *                messages in flight, a smaller limit would pause the consumers before it is full.
+ * - maxReceiveLatency: a receive() slower than this lowers the prefetch, which grows back while
+ *                      receive() is faster again. Zero disables it, it needs a prefetch.
  *
  * @author Raffaele Ragni
  */
@@ -27,4 +57,25 @@ public interface QueueServiceOptions {
   @Default default boolean durable() {return true; }
   @Default default boolean exclusive() {return false; }
   @Default default boolean autoDelete() {return false; }
+  @Default default int consumers() {return 1; }
+  @Default default int prefetch() {return 0; }
+  Optional<Executor> workerExecutor();
+  @Default default boolean virtualThreads() {return false; }
+  @Default default int batchSize() {return 1; }
+  @Default default Duration batchTimeout() {return Duration.ofMillis(100); }
+  @Default default int batchRetries() {return 1; }
+  @Default default int retries() {return 0; }
+  @Default default Duration retryDelay() {return Duration.ofSeconds(1); }
+  @Default default double retryBackoff() {return 2.0; }
+  @Default default int compressAbove() {return 0; }
+  @Default default long maxInflatedSize() {return 64L * 1024 * 1024; }
+  @Default default int maxInFlight() {return 0; }
+  @Default default Duration maxReceiveLatency() {return Duration.ZERO; }
+
+  @Value.Check
+  default void check() {
+    if (maxInFlight() > 0 && maxInFlight() < batchSize()) {
+      throw new IllegalStateException("maxInFlight " + maxInFlight() + " is less than the batchSize " + batchSize());
+    }
+  }
 }
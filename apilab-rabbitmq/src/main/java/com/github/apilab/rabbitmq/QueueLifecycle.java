@@ -16,9 +16,9 @@
 package com.github.apilab.rabbitmq;
 
 import com.github.apilab.core.Env;
+import com.github.apilab.queues.QueuePublisher;
 import com.github.apilab.queues.QueueService;
 import com.rabbitmq.client.ConnectionFactory;
-import java.util.Optional;
 import java.util.Set;
 import javax.inject.Inject;
 import org.slf4j.Logger;
@@ -36,6 +36,9 @@ public class QueueLifecycle implements ApplicationLifecycleItem {
   @Inject Env env;
   @Inject ConnectionFactory rabbitConnectionFactory;
   @Inject Set<QueueService> queueServices;
+  @Inject QueuePublisher publisher;
+  // Read on start, so that stop undoes what start did even if the env changed since.
+  private volatile boolean enabledConsumers;
 
   @Inject
   public QueueLifecycle() {
@@ -44,7 +47,8 @@ public class QueueLifecycle implements ApplicationLifecycleItem {
 
   @Override
   public void start() {
-    if (enabledConsumers()) {
+    enabledConsumers = env.getBoolean(() -> "API_ENABLE_CONSUMERS", false);
+    if (enabledConsumers) {
       LOG.info("## CONSUMERS ENABLED");
       queueServices.stream().forEach(l -> {
         LOG.info("## CONSUMERS Registering {}", l.getClass().getName());
@@ -55,15 +59,13 @@ public class QueueLifecycle implements ApplicationLifecycleItem {
 
   @Override
   public void stop() {
-    if (enabledConsumers()) {
+    if (enabledConsumers) {
       queueServices.stream().forEach(QueueService::unregisterQueueListener);
     }
-  }
-
-  private boolean enabledConsumers() {
-    return Optional.ofNullable(env.get(() -> "API_ENABLE_CONSUMERS"))
-      .map(Boolean::valueOf)
-      .orElse(false);
+    // Publishers are opened on first send, by consumers or anyone else.
+    publisher.close();
+    // Services built by hand have a publisher of their own.
+    queueServices.stream().forEach(QueueService::closePublisher);
   }
 
 }
@@ -16,6 +16,7 @@
 package com.github.apilab.rabbitmq;
 
 import com.github.apilab.core.Env;
+import com.github.apilab.queues.QueuePublisher;
 import dagger.Provides;
 import dagger.multibindings.IntoMap;
 import dagger.multibindings.IntoSet;
@@ -67,6 +68,21 @@ public class QueueModule {
     return factory;
   }
 
+  /**
+   * The publisher shared by the queue services, closed by the QueueLifecycle.
+   * Pool size is set via env API_RABBITMQ_PUBLISHER_CHANNELS, the confirm window via API_RABBITMQ_CONFIRM_WINDOW.
+   * @param rabbitFactory the connection factory
+   * @param env the env
+   * @return the publisher
+   */
+  @Provides
+  @Singleton
+  public QueuePublisher queuePublisher(com.rabbitmq.client.ConnectionFactory rabbitFactory, Env env) {
+    return new QueuePublisher(rabbitFactory,
+      Math.max(1, env.getInt(() -> "API_RABBITMQ_PUBLISHER_CHANNELS", QueuePublisher.DEFAULT_CHANNELS)),
+      Math.max(1, env.getInt(() -> "API_RABBITMQ_CONFIRM_WINDOW", QueuePublisher.DEFAULT_CONFIRM_WINDOW)));
+  }
+
   public static boolean checkRabbit(com.rabbitmq.client.ConnectionFactory rabbitFactory) {
     try (var connection = rabbitFactory.newConnection()){
       return connection.isOpen();
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class BatchConsumerTest {
+
+  static Delivery delivery(long tag) {
+    return new Delivery(new Envelope(tag, false, "", "q"), null, new byte[] {(byte) tag});
+  }
+
+  static List<Long> tags(List<Delivery> batch) {
+    return batch.stream().map(d -> d.getEnvelope().getDeliveryTag()).collect(Collectors.toList());
+  }
+
+  static CompletableFuture<Void> nack(Channel channel, Delivery delivery) {
+    try {
+      channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, false);
+      return CompletableFuture.completedFuture(null);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  @Test
+  void testBatchBySize() throws IOException {
+    var channel = mock(Channel.class);
+    var timer = mock(ScheduledExecutorService.class);
+    List<List<Long>> processed = new ArrayList<>();
+    var consumer = new BatchConsumer(channel, 3, Duration.ofMillis(50), 1, timer, b -> processed.add(tags(b)), (d, ex) -> nack(channel, d));
+
+    for (long tag = 1; tag <= 4; tag++) {
+      consumer.add(delivery(tag));
+    }
+
+    assertThat("one full batch", processed, is(List.of(List.of(1L, 2L, 3L))));
+    verify(channel).basicAck(3, true);
+    verify(timer, times(2)).schedule(
+      ArgumentCaptor.forClass(Runnable.class).capture(), eq(50_000_000L), eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  void testBatchByTime() throws IOException {
+    var channel = mock(Channel.class);
+    var timer = mock(ScheduledExecutorService.class);
+    List<List<Long>> processed = new ArrayList<>();
+    var consumer = new BatchConsumer(channel, 3, Duration.ofMillis(50), 1, timer, b -> processed.add(tags(b)), (d, ex) -> nack(channel, d));
+    var timeout = ArgumentCaptor.forClass(Runnable.class);
+
+    consumer.add(delivery(1));
+    consumer.add(delivery(2));
+    verify(timer).schedule(timeout.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+    timeout.getValue().run();
+
+    assertThat("partial batch", processed, is(List.of(List.of(1L, 2L))));
+    verify(channel).basicAck(2, true);
+
+    consumer.add(delivery(3));
+    timeout.getValue().run();
+    assertThat("timer of an old batch does nothing", processed.size(), is(1));
+  }
+
+  @Test
+  void testPoisonMessage() throws IOException {
+    var channel = mock(Channel.class);
+    var timer = mock(ScheduledExecutorService.class);
+    List<List<Long>> processed = new ArrayList<>();
+    var consumer = new BatchConsumer(channel, 4, Duration.ofMillis(50), 1, timer, b -> {
+      if (tags(b).contains(3L)) {
+        throw new IllegalStateException("poison");
+      }
+      processed.add(tags(b));
+    }, (d, ex) -> nack(channel, d));
+
+    for (long tag = 1; tag <= 4; tag++) {
+      consumer.add(delivery(tag));
+    }
+
+    assertThat("good ones received", processed, is(List.of(List.of(1L, 2L), List.of(4L))));
+    var order = inOrder(channel);
+    order.verify(channel).basicAck(2, true);
+    order.verify(channel).basicNack(3, false, false);
+    order.verify(channel).basicAck(4, true);
+    verify(channel, times(1)).basicNack(anyLong(), anyBoolean(), anyBoolean());
+  }
+
+  @Test
+  void testAcksWaitForTheFailures() throws IOException {
+    var channel = mock(Channel.class);
+    var timer = mock(ScheduledExecutorService.class);
+    var retried = new CompletableFuture<Void>();
+    var consumer = new BatchConsumer(channel, 2, Duration.ofMillis(50), 0, timer, b -> {
+      if (tags(b).contains(1L)) {
+        throw new IllegalStateException("poison");
+      }
+    }, (d, ex) -> retried.thenRun(() -> {
+      try {
+        channel.basicAck(d.getEnvelope().getDeliveryTag(), false);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }));
+
+    for (long tag = 1; tag <= 4; tag++) {
+      consumer.add(delivery(tag));
+    }
+
+    verify(channel, times(0)).basicAck(anyLong(), anyBoolean());
+    assertThat("not settled", consumer.settled().isDone(), is(false));
+    retried.complete(null);
+    var order = inOrder(channel);
+    order.verify(channel).basicAck(1, false);
+    order.verify(channel).basicAck(2, true);
+    order.verify(channel).basicAck(4, true);
+    assertThat("settled", consumer.settled().isDone(), is(true));
+  }
+
+  @Test
+  void testRetriedAsAWhole() throws IOException {
+    var channel = mock(Channel.class);
+    var timer = mock(ScheduledExecutorService.class);
+    List<List<Long>> processed = new ArrayList<>();
+    var failures = new int[] {1};
+    var consumer = new BatchConsumer(channel, 4, Duration.ofMillis(50), 1, timer, b -> {
+      // Not about any message: the database was down for a moment.
+      if (failures[0]-- > 0) {
+        throw new IllegalStateException("unavailable");
+      }
+      processed.add(tags(b));
+    }, (d, ex) -> nack(channel, d));
+
+    for (long tag = 1; tag <= 4; tag++) {
+      consumer.add(delivery(tag));
+    }
+
+    assertThat("received again whole", processed, is(List.of(List.of(1L, 2L, 3L, 4L))));
+    verify(channel).basicAck(4, true);
+    verify(channel, times(0)).basicNack(anyLong(), anyBoolean(), anyBoolean());
+  }
+
+}
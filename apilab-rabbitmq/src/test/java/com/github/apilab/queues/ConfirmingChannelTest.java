@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class ConfirmingChannelTest {
+
+  Channel channel;
+  ConfirmingChannel confirming;
+  ConfirmListener confirms;
+  ShutdownListener shutdown;
+
+  @BeforeEach
+  void setup() throws IOException {
+    channel = mock(Channel.class);
+    var sequence = new AtomicLong(1);
+    when(channel.getNextPublishSeqNo()).thenAnswer(i -> sequence.getAndIncrement());
+    confirming = new ConfirmingChannel(channel, 3);
+    verify(channel).confirmSelect();
+    var confirmCaptor = ArgumentCaptor.forClass(ConfirmListener.class);
+    verify(channel).addConfirmListener(confirmCaptor.capture());
+    confirms = confirmCaptor.getValue();
+    var shutdownCaptor = ArgumentCaptor.forClass(ShutdownListener.class);
+    verify(channel).addShutdownListener(shutdownCaptor.capture());
+    shutdown = shutdownCaptor.getValue();
+  }
+
+  @Test
+  void testConfirms() throws IOException {
+    var first = confirming.publish(ch -> {});
+    var second = confirming.publish(ch -> {});
+    var third = confirming.publish(ch -> {});
+
+    confirms.handleAck(2, true);
+    assertThat("batch confirmed", first.isDone() && second.isDone(), is(true));
+    assertThat("later one still waiting", third.isDone(), is(false));
+
+    confirms.handleNack(3, false);
+    var ex = assertThrows(CompletionException.class, third::join);
+    assertThat("rejected", ex.getCause(), instanceOf(QueueMessagingException.class));
+
+    var failing = confirming.publish(ch -> { throw new IOException("down"); });
+    assertThat("publish failure", failing.isCompletedExceptionally(), is(true));
+
+    // The window is free again: these would block otherwise.
+    for (int i = 0; i < 3; i++) {
+      confirming.publish(ch -> {});
+    }
+  }
+
+  @Test
+  void testShutdown() {
+    var pending = confirming.publish(ch -> {});
+
+    shutdown.shutdownCompleted(new ShutdownSignalException(false, false, null, channel));
+
+    assertThat("failed on shutdown", pending.isCompletedExceptionally(), is(true));
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessageTooLargeException;
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.zip.GZIPOutputStream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class MessageCompressionTest {
+
+  @Test
+  void testRoundTrip() throws IOException {
+    var body = "{\"value\":\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"}".getBytes(UTF_8);
+    var deflated = MessageCompression.deflate(body);
+    assertThat("again the same", MessageCompression.deflate(body), is(deflated));
+    try (var in = MessageCompression.inflate("deflate", deflated, Long.MAX_VALUE)) {
+      assertThat("inflated", in.readAllBytes(), is(body));
+    }
+    try (var in = MessageCompression.inflate(null, body, Long.MAX_VALUE)) {
+      assertThat("identity", in.readAllBytes(), is(body));
+    }
+  }
+
+  @Test
+  void testPool() throws Exception {
+    var body = "pooled ".repeat(1000).getBytes(UTF_8);
+    var expected = MessageCompression.deflate(body);
+    var threads = Runtime.getRuntime().availableProcessors() * 4;
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      var results = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < threads * 10; i++) {
+        results.add(executor.submit(() -> MessageCompression.deflate(body)));
+      }
+      for (Future<byte[]> result: results) {
+        assertThat("same output from any deflater", result.get(), is(expected));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat("bounded", MessageCompression.pooled(), lessThanOrEqualTo(Runtime.getRuntime().availableProcessors()));
+  }
+
+  @Test
+  void testGzip() throws IOException {
+    var body = "message".getBytes(UTF_8);
+    var out = new ByteArrayOutputStream();
+    try (var gzip = new GZIPOutputStream(out)) {
+      gzip.write(body);
+    }
+    try (var in = MessageCompression.inflate("gzip", out.toByteArray(), Long.MAX_VALUE)) {
+      assertThat("inflated", in.readAllBytes(), is(body));
+    }
+  }
+
+  @Test
+  void testUnsupported() {
+    assertThat("not compressed", MessageCompression.compressed("identity"), is(false));
+    assertThat("compressed", MessageCompression.compressed("br"), is(true));
+    assertThrows(QueueMessagingException.class, () -> MessageCompression.inflate("br", new byte[0], Long.MAX_VALUE));
+  }
+
+  @Test
+  void testInflatedSizeCapped() throws IOException {
+    var body = new byte[1024 * 1024];
+    var deflated = MessageCompression.deflate(body);
+    assertThat("small on the wire", deflated.length, lessThanOrEqualTo(body.length / 100));
+    try (var in = MessageCompression.inflate("deflate", deflated, body.length)) {
+      assertThat("up to the cap", in.readAllBytes().length, is(body.length));
+    }
+    try (var in = MessageCompression.inflate("deflate", deflated, body.length - 1)) {
+      assertThrows(QueueMessageTooLargeException.class, in::readAllBytes);
+    }
+  }
+}
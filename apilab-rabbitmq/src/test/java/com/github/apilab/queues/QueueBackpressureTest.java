@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class QueueBackpressureTest {
+
+  @Test
+  void testInFlightFitsBatch() {
+    var options = ImmutableQueueServiceOptions.builder().batchSize(10);
+    assertThrows(IllegalStateException.class, () -> options.maxInFlight(5).build());
+    assertThat("enough", options.maxInFlight(10).build().maxInFlight(), is(10));
+    assertThat("no limit", ImmutableQueueServiceOptions.builder().batchSize(10).build().maxInFlight(), is(0));
+  }
+
+  @Test
+  void testPauseOnInFlight() throws Exception {
+    var options = ImmutableQueueServiceOptions.builder().maxInFlight(2).build();
+    var backpressure = new QueueBackpressure("bp-paused", options, 2, p -> {}, new QueueMetrics("bp-paused"));
+
+    backpressure.admit();
+    backpressure.admit();
+    var third = CompletableFuture.runAsync(() -> {
+      try {
+        backpressure.admit();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertThrows(TimeoutException.class, () -> third.get(100, TimeUnit.MILLISECONDS));
+
+    backpressure.done(-1);
+    third.get(5, TimeUnit.SECONDS);
+    assertThat("in flight", backpressure.inFlight(), is(2));
+  }
+
+  @Test
+  void testAdaptivePrefetch() throws Exception {
+    var options = ImmutableQueueServiceOptions.builder().maxReceiveLatency(Duration.ofMillis(10)).build();
+    List<Integer> applied = new ArrayList<>();
+    var backpressure = new QueueBackpressure("bp-adaptive", options, 8, applied::add, new QueueMetrics("bp-adaptive"));
+    var slow = Duration.ofMillis(50).toNanos();
+    var fast = Duration.ofMillis(1).toNanos();
+
+    backpressure.admit();
+    backpressure.done(slow);
+    backpressure.admit();
+    backpressure.done(slow);
+    assertThat("halved twice", backpressure.prefetch(), is(2));
+
+    for (int i = 0; i < 2; i++) {
+      backpressure.admit();
+      backpressure.done(fast);
+    }
+    assertThat("grows back by one", backpressure.prefetch(), is(3));
+
+    for (int i = 0; i < 100; i++) {
+      backpressure.admit();
+      backpressure.done(fast);
+    }
+    assertThat("up to the configured prefetch", backpressure.prefetch(), is(8));
+    assertThat("sent to the consumers", applied, is(List.of(4, 2, 3, 4, 5, 6, 7, 8)));
+  }
+
+  @Test
+  void testDisabled() throws Exception {
+    var options = ImmutableQueueServiceOptions.builder().build();
+    List<Integer> applied = new ArrayList<>();
+    var backpressure = new QueueBackpressure("bp-disabled", options, 0, applied::add, new QueueMetrics("bp-disabled"));
+    for (int i = 0; i < 10; i++) {
+      backpressure.admit();
+    }
+    backpressure.done(Duration.ofSeconds(1).toNanos());
+    assertThat("no prefetch", backpressure.prefetch(), is(0));
+    assertThat("nothing sent", applied.isEmpty(), is(true));
+  }
+}
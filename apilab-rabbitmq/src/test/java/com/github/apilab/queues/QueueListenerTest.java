@@ -15,23 +15,45 @@
  */
 package com.github.apilab.queues;
 
+import com.github.apilab.queues.exceptions.QueueMessagingException;
 import com.google.gson.Gson;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.CancelCallback;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
 import com.rabbitmq.client.Delivery;
 import com.rabbitmq.client.Envelope;
+import io.prometheus.client.CollectorRegistry;
 import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -110,10 +132,355 @@ class QueueListenerTest {
 
   }
 
+  @Test
+  void testSendWithConfirms() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitConnection.isOpen()).thenReturn(true);
+    when(rabbitChannel.isOpen()).thenReturn(true);
+    var sequence = new AtomicLong(1);
+    when(rabbitChannel.getNextPublishSeqNo()).thenAnswer(i -> sequence.getAndIncrement());
+    doAnswer(i -> {
+      var captor = ArgumentCaptor.forClass(ConfirmListener.class);
+      verify(rabbitChannel).addConfirmListener(captor.capture());
+      captor.getValue().handleAck(sequence.get() - 1, true);
+      return null;
+    }).when(rabbitChannel).basicPublish(any(), any(), any(), any());
+
+    var listener = new MyListener(rabbitFactory, new Gson());
+    listener.sendAll(List.of("a", "b"));
+    listener.sendAsync("c").join();
+
+    var properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+    verify(rabbitChannel, times(3)).basicPublish(any(), any(), properties.capture(), any());
+    verify(rabbitChannel, times(2)).queueDeclare(any(), anyBoolean(), anyBoolean(), anyBoolean(), any());
+    assertThat("persistent", properties.getValue().getDeliveryMode(), is(2));
+
+    doThrow(IOException.class).when(rabbitChannel).basicPublish(any(), any(), any(), any());
+    assertThrows(QueueMessagingException.class, () -> listener.sendAll(List.of("d")));
+    listener.closePublisher();
+  }
+
+  @Test
+  void testConcurrentConsumers() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    var message = mock(Delivery.class);
+    when(message.getEnvelope()).thenReturn(mock(Envelope.class));
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        invok.getArgument(2, DeliverCallback.class).handle("tag", message);
+        return "tag";
+      });
+    var handedOff = new AtomicLong();
+    Executor worker = r -> {
+      handedOff.incrementAndGet();
+      r.run();
+    };
+
+    var listener = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .consumers(3)
+      .prefetch(10)
+      .workerExecutor(worker)
+      .build());
+    listener.registerQueueListener();
+
+    verify(rabbitConnection, times(3)).createChannel();
+    verify(rabbitChannel, times(3)).basicQos(10, true);
+    verify(rabbitChannel, times(2)).queueDeclare(any(), anyBoolean(), anyBoolean(), anyBoolean(), any());
+    verify(rabbitChannel, times(3)).basicAck(anyLong(), eq(false));
+    assertThat("received on the worker", handedOff.get(), is(3L));
+
+    listener.unregisterQueueListener();
+    verify(rabbitChannel, times(3)).basicCancel("tag");
+    verify(rabbitConnection).close();
+
+    var rejecting = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .workerExecutor(r -> { throw new RejectedExecutionException(); })
+      .build());
+    rejecting.registerQueueListener();
+    verify(rabbitChannel).basicNack(anyLong(), eq(false), eq(true));
+
+    var virtual = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .virtualThreads(true)
+      .build());
+    virtual.registerQueueListener();
+    virtual.unregisterQueueListener();
+    verify(rabbitChannel, times(4)).basicAck(anyLong(), eq(false));
+  }
+
+  @Test
+  void testBatchConsumers() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        for (long tag = 1; tag <= 3; tag++) {
+          invok.getArgument(2, DeliverCallback.class).handle("tag",
+            new Delivery(new Envelope(tag, false, "", "q"), null, ("\"m" + tag + "\"").getBytes(UTF_8)));
+        }
+        return "tag";
+      });
+    List<List<String>> received = new ArrayList<>();
+
+    var listener = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .batchSize(2)
+      .build()) {
+      @Override
+      public void receiveBatch(List<String> messages) {
+        received.add(messages);
+      }
+    };
+    listener.registerQueueListener();
+
+    assertThat("full batch", received, is(List.of(List.of("m1", "m2"))));
+    verify(rabbitChannel).basicAck(2, true);
+
+    listener.unregisterQueueListener();
+    assertThat("pending batch flushed", received, is(List.of(List.of("m1", "m2"), List.of("m3"))));
+    verify(rabbitChannel).basicAck(3, true);
+
+    var defaultBatch = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder().build());
+    defaultBatch.receiveBatch(List.of("a", "b"));
+  }
+
+  @Test
+  void testRetries() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitConnection.isOpen()).thenReturn(true);
+    when(rabbitChannel.isOpen()).thenReturn(true);
+    var sequence = new AtomicLong(1);
+    when(rabbitChannel.getNextPublishSeqNo()).thenAnswer(i -> sequence.getAndIncrement());
+    doAnswer(i -> {
+      var captor = ArgumentCaptor.forClass(ConfirmListener.class);
+      verify(rabbitChannel).addConfirmListener(captor.capture());
+      captor.getValue().handleAck(sequence.get() - 1, true);
+      return null;
+    }).when(rabbitChannel).basicPublish(any(), any(), any(), any());
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        invok.getArgument(2, DeliverCallback.class).handle("tag",
+          new Delivery(new Envelope(7, false, "", "q"), null, "\"m\"".getBytes(UTF_8)));
+        return "tag";
+      });
+
+    var listener = new MyListenerExceptional(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .retries(2)
+      .build());
+    listener.registerQueueListener();
+
+    verify(rabbitChannel, atLeastOnce()).queueDeclare(eq("my-exceptional-queue-example-test_retry_2"),
+      anyBoolean(), anyBoolean(), anyBoolean(), any());
+    var properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+    verify(rabbitChannel).basicPublish(eq(""), eq("my-exceptional-queue-example-test_retry_1"),
+      properties.capture(), any());
+    assertThat("attempt counted", properties.getValue().getHeaders().get("x-apilab-attempts"), is(1));
+    verify(rabbitChannel).basicAck(7, false);
+    verify(rabbitChannel, times(0)).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    listener.closePublisher();
+  }
+
+  @Test
+  void testRetrySettledOnConfirm() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitConnection.isOpen()).thenReturn(true);
+    when(rabbitChannel.isOpen()).thenReturn(true);
+    var sequence = new AtomicLong(1);
+    when(rabbitChannel.getNextPublishSeqNo()).thenAnswer(i -> sequence.getAndIncrement());
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        for (long tag = 7; tag <= 8; tag++) {
+          invok.getArgument(2, DeliverCallback.class).handle("tag",
+            new Delivery(new Envelope(tag, false, "", "q"), null, "\"m\"".getBytes(UTF_8)));
+        }
+        return "tag";
+      });
+
+    var listener = new MyListenerExceptional(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .retries(2)
+      .build());
+    listener.registerQueueListener();
+
+    verify(rabbitChannel, times(2)).basicPublish(eq(""), eq("my-exceptional-queue-example-test_retry_1"), any(), any());
+    verify(rabbitChannel, times(0)).basicAck(anyLong(), anyBoolean());
+    verify(rabbitChannel, times(0)).basicNack(anyLong(), anyBoolean(), anyBoolean());
+
+    var confirms = ArgumentCaptor.forClass(ConfirmListener.class);
+    verify(rabbitChannel).addConfirmListener(confirms.capture());
+    confirms.getValue().handleAck(1, false);
+    confirms.getValue().handleNack(2, false);
+    verify(rabbitChannel).basicAck(7, false);
+    verify(rabbitChannel).basicNack(8, false, false);
+    listener.closePublisher();
+  }
+
+  @Test
+  void testCompression() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    var options = ImmutableQueueServiceOptions.builder().compressAbove(16).build();
+    List<String> received = new ArrayList<>();
+    var listener = new MyListener(rabbitFactory, new Gson(), options) {
+      @Override
+      public void receive(String message) {
+        received.add(message);
+      }
+    };
+
+    var big = "x".repeat(1000);
+    listener.send("small");
+    listener.send(big);
+
+    var properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+    var bodies = ArgumentCaptor.forClass(byte[].class);
+    verify(rabbitChannel, times(2)).basicPublish(any(), any(), properties.capture(), bodies.capture());
+    assertThat("small not compressed", properties.getAllValues().get(0).getContentEncoding(), is((String) null));
+    assertThat("big compressed", properties.getAllValues().get(1).getContentEncoding(), is("deflate"));
+    assertThat("big is smaller", bodies.getAllValues().get(1).length < big.length(), is(true));
+
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        for (int i = 0; i < 2; i++) {
+          invok.getArgument(2, DeliverCallback.class).handle("tag", new Delivery(new Envelope(i, false, "", "q"),
+            properties.getAllValues().get(i), bodies.getAllValues().get(i)));
+        }
+        return "tag";
+      });
+    listener.registerQueueListener();
+
+    assertThat("decoded", received, is(List.of("small", big)));
+    listener.closePublisher();
+  }
+
+  @Test
+  void testInflatedSizeCapped() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitConnection.isOpen()).thenReturn(true);
+    when(rabbitChannel.isOpen()).thenReturn(true);
+    var bomb = MessageCompression.deflate(("\"" + "x".repeat(10_000) + "\"").getBytes(UTF_8));
+    var properties = new AMQP.BasicProperties.Builder().contentEncoding("deflate").build();
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        invok.getArgument(2, DeliverCallback.class).handle("tag",
+          new Delivery(new Envelope(7, false, "", "q"), properties, bomb));
+        return "tag";
+      });
+    List<String> received = new ArrayList<>();
+    var listener = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .retries(2)
+      .maxInflatedSize(1000)
+      .build()) {
+      @Override
+      public void receive(String message) {
+        received.add(message);
+      }
+    };
+    listener.registerQueueListener();
+
+    assertThat("not received", received, is(List.of()));
+    verify(rabbitChannel, times(0)).basicPublish(any(), any(), any(), any());
+    verify(rabbitChannel).basicNack(7, false, false);
+    listener.closePublisher();
+  }
+
+  @Test
+  void testMetrics() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        invok.getArgument(2, DeliverCallback.class).handle("tag",
+          new Delivery(new Envelope(1, false, "", "q"), null, "\"m\"".getBytes(UTF_8)));
+        return "tag";
+      });
+    var queue = new String[] {"my-queue-example-test"};
+    var deliveries = sample("apilab_queue_deliveries_total", queue);
+    var acks = sample("apilab_queue_acks_total", queue);
+    var received = sample("apilab_queue_receive_seconds_count", queue);
+
+    var listener = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .maxInFlight(10)
+      .build());
+    listener.registerQueueListener();
+
+    verify(rabbitChannel).basicQos(10, true);
+    assertThat("delivered", sample("apilab_queue_deliveries_total", queue), is(deliveries + 1));
+    assertThat("acked", sample("apilab_queue_acks_total", queue), is(acks + 1));
+    assertThat("timed", sample("apilab_queue_receive_seconds_count", queue), is(received + 1));
+    assertThat("nothing in flight", sample("apilab_queue_in_flight", queue), is(0.0));
+    listener.unregisterQueueListener();
+  }
+
+  @Test
+  void testPrefetchOfRunningConsumer() throws IOException, TimeoutException {
+    var rabbitFactory = mock(ConnectionFactory.class);
+    var rabbitConnection = mock(Connection.class);
+    var rabbitChannel = mock(Channel.class);
+    when(rabbitFactory.newConnection()).thenReturn(rabbitConnection);
+    when(rabbitConnection.createChannel()).thenReturn(rabbitChannel);
+    var consumer = new AtomicReference<DeliverCallback>();
+    when(rabbitChannel.basicConsume(any(), anyBoolean(), any(DeliverCallback.class), any(CancelCallback.class)))
+      .thenAnswer(invok -> {
+        consumer.set(invok.getArgument(2, DeliverCallback.class));
+        return "tag";
+      });
+
+    var listener = new MyListener(rabbitFactory, new Gson(), ImmutableQueueServiceOptions.builder()
+      .prefetch(8)
+      .maxReceiveLatency(Duration.ofNanos(1))
+      .build());
+    listener.registerQueueListener();
+    verify(rabbitChannel).basicQos(8, true);
+
+    // The consumer is already registered when it turns out to be slow.
+    consumer.get().handle("tag", new Delivery(new Envelope(1, false, "", "q"), null, "\"m\"".getBytes(UTF_8)));
+
+    // Only a channel wide qos reaches a consumer that is already running.
+    verify(rabbitChannel).basicQos(4, true);
+    verify(rabbitChannel, never()).basicQos(anyInt());
+    listener.unregisterQueueListener();
+  }
+
+  private static double sample(String name, String[] queue) {
+    var value = CollectorRegistry.defaultRegistry.getSampleValue(name, new String[] {"queue"}, queue);
+    return value == null ? 0 : value;
+  }
+
   static class MyListener extends QueueService<String> {
 
     public MyListener(ConnectionFactory rabbitFactory, Gson gson) {
-      super(rabbitFactory, gson, "my-queue-example-test", String.class, ImmutableQueueServiceOptions.builder().build());
+      this(rabbitFactory, gson, ImmutableQueueServiceOptions.builder().build());
+    }
+
+    public MyListener(ConnectionFactory rabbitFactory, Gson gson, QueueServiceOptions options) {
+      super(rabbitFactory, gson, "my-queue-example-test", String.class, options);
     }
 
     @Override
@@ -125,7 +492,11 @@ class QueueListenerTest {
   static class MyListenerExceptional extends QueueService<String> {
 
     public MyListenerExceptional(ConnectionFactory rabbitFactory, Gson gson) {
-      super(rabbitFactory, gson, "my-exceptional-queue-example-test", String.class, ImmutableQueueServiceOptions.builder().build());
+      this(rabbitFactory, gson, ImmutableQueueServiceOptions.builder().build());
+    }
+
+    public MyListenerExceptional(ConnectionFactory rabbitFactory, Gson gson, QueueServiceOptions options) {
+      super(rabbitFactory, gson, "my-exceptional-queue-example-test", String.class, options);
     }
 
     @Override
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.github.apilab.queues.exceptions.QueueMessagingException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class QueuePublisherTest {
+
+  @Test
+  void testChannelsReused() throws IOException, TimeoutException {
+    var factory = mock(ConnectionFactory.class);
+    var connection = mock(Connection.class);
+    var channel = mock(Channel.class);
+    when(factory.newConnection()).thenReturn(connection);
+    when(connection.createChannel()).thenReturn(channel);
+    when(connection.isOpen()).thenReturn(true);
+    when(channel.isOpen()).thenReturn(true);
+    var publisher = new QueuePublisher(factory, 2, 10);
+    var declarations = new int[1];
+
+    for (int i = 0; i < 3; i++) {
+      publisher.withChannel(ch -> {
+        assertThat("pooled channel", ch, sameInstance(channel));
+        publisher.declareOnce(ch, "queue", c -> declarations[0]++);
+      });
+    }
+
+    verify(factory, times(1)).newConnection();
+    verify(connection, times(1)).createChannel();
+    assertThat("declared once", declarations[0], is(1));
+
+    publisher.close();
+    verify(channel).close();
+    verify(connection).close();
+
+    publisher.withChannel(ch -> publisher.declareOnce(ch, "queue", c -> declarations[0]++));
+    verify(factory, times(2)).newConnection();
+    assertThat("declared again on the new connection", declarations[0], is(2));
+  }
+
+  @Test
+  void testFailingChannelDiscarded() throws IOException, TimeoutException {
+    var factory = mock(ConnectionFactory.class);
+    var connection = mock(Connection.class);
+    var channel = mock(Channel.class);
+    when(factory.newConnection()).thenReturn(connection);
+    when(connection.createChannel()).thenReturn(channel);
+    when(connection.isOpen()).thenReturn(true);
+    when(channel.isOpen()).thenReturn(true);
+    var publisher = new QueuePublisher(factory, 1, 10);
+
+    assertThrows(QueueMessagingException.class, () -> publisher.withChannel(ch -> {
+      throw new IOException("broken");
+    }));
+    verify(channel).close();
+
+    publisher.withChannel(ch -> {});
+    verify(connection, times(2)).createChannel();
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.queues;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class QueueRetriesTest {
+
+  static Delivery delivery(Integer attempts) {
+    var properties = new AMQP.BasicProperties.Builder()
+      .contentType("application/json")
+      .headers(attempts == null ? null : Map.of(QueueRetries.ATTEMPTS_HEADER, attempts, "other", "x"))
+      .build();
+    return new Delivery(new Envelope(1, false, "", "q"), properties, new byte[0]);
+  }
+
+  @Test
+  void testRetries() throws IOException {
+    var retries = new QueueRetries("q", ImmutableQueueServiceOptions.builder()
+      .retries(3)
+      .retryDelay(Duration.ofMillis(100))
+      .retryBackoff(3)
+      .build());
+
+    assertThat("enabled", retries.enabled(), is(true));
+    assertThat("first delay", retries.delayMillis(1), is(100L));
+    assertThat("backoff", retries.delayMillis(3), is(900L));
+
+    assertThat("first failure", retries.nextQueue(delivery(null)), is("q_retry_1"));
+    assertThat("second failure", retries.nextQueue(delivery(1)), is("q_retry_2"));
+    assertThat("retries over", retries.nextQueue(delivery(3)), is("q_parking"));
+
+    var next = QueueRetries.nextProperties(delivery(1));
+    assertThat("attempt counted", next.getHeaders().get(QueueRetries.ATTEMPTS_HEADER), is(2));
+    assertThat("other headers kept", next.getHeaders().get("other"), is("x"));
+    assertThat("properties kept", next.getContentType(), is("application/json"));
+
+    var channel = mock(Channel.class);
+    retries.declare(channel);
+    verify(channel).queueDeclare(eq("q_retry_2"), eq(true), eq(false), eq(false), eq(Map.of(
+      "x-message-ttl", 300L,
+      "x-dead-letter-exchange", "",
+      "x-dead-letter-routing-key", "q")));
+    verify(channel).queueDeclare(eq("q_parking"), eq(true), eq(false), eq(false), isNull());
+  }
+
+  @Test
+  void testDisabled() {
+    var retries = new QueueRetries("q", ImmutableQueueServiceOptions.builder().build());
+    assertThat("disabled by default", retries.enabled(), is(false));
+  }
+
+}
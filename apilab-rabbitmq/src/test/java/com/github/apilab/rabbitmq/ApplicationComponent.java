@@ -16,6 +16,7 @@
 package com.github.apilab.rabbitmq;
 
 import com.github.apilab.core.ApplicationLifecycle;
+import com.github.apilab.queues.QueuePublisher;
 import java.util.Set;
 import javax.inject.Singleton;
 import com.github.apilab.core.ApplicationLifecycleItem;
@@ -29,4 +30,5 @@ import com.github.apilab.core.ApplicationLifecycleItem;
 public interface ApplicationComponent {
   ApplicationLifecycle instance();
   Set<ApplicationLifecycleItem> services();
+  QueuePublisher publisher();
 }
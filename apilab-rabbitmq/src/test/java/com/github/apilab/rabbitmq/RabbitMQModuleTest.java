@@ -23,6 +23,7 @@ import java.util.concurrent.TimeoutException;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.isA;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import org.junit.jupiter.api.Test;
 import static org.mockito.Mockito.mock;
@@ -36,9 +37,12 @@ class RabbitMQModuleTest {
 
   @Test
   void testInjectedLifecycle() {
-    var services = DaggerApplicationComponent.create().services();
+    var component = DaggerApplicationComponent.create();
+    var services = component.services();
 
     assertThat("Service is loaded", services, hasItem(isA(QueueLifecycle.class)));
+    var lifecycle = (QueueLifecycle) services.stream().filter(QueueLifecycle.class::isInstance).findFirst().get();
+    assertThat("The lifecycle closes the shared publisher", lifecycle.publisher, sameInstance(component.publisher()));
   }
 
   @Test
@@ -16,13 +16,20 @@
 package com.github.apilab.rabbitmq;
 
 import com.github.apilab.core.Env;
+import com.github.apilab.queues.QueuePublisher;
 import com.github.apilab.queues.QueueService;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  *
@@ -32,13 +39,20 @@ class RabbitMQServiceTest {
 
   QueueLifecycle service;
   QueueService<String> queueService;
+  Connection connection;
 
   @BeforeEach
-  void startup() {
+  void startup() throws IOException, TimeoutException {
     queueService = mock(QueueService.class);
     service = new QueueLifecycle();
     service.queueServices = Set.of(queueService);
     service.env = new Env();
+    var factory = mock(ConnectionFactory.class);
+    connection = mock(Connection.class);
+    when(factory.newConnection()).thenReturn(connection);
+    when(connection.isOpen()).thenReturn(true);
+    when(connection.createChannel()).thenReturn(mock(Channel.class));
+    service.publisher = new QueuePublisher(factory);
   }
 
   @Test
@@ -50,16 +64,20 @@ class RabbitMQServiceTest {
 
     service.stop();
     verify(queueService, times(0)).unregisterQueueListener();
+    verify(queueService).closePublisher();
   }
 
   @Test
-  void testDoesStartIfEnabled() {
+  void testDoesStartIfEnabled() throws IOException {
     System.setProperty("API_ENABLE_CONSUMERS", "true");
 
     service.start();
     verify(queueService).registerQueueListener();
+    service.publisher.withChannel(ch -> {});
 
     service.stop();
     verify(queueService).unregisterQueueListener();
+    verify(queueService).closePublisher();
+    verify(connection).close();
   }
 }
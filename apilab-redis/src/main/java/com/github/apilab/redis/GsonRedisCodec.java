@@ -15,44 +15,19 @@
  */
 package com.github.apilab.redis;
 
+import com.github.apilab.core.codec.JsonCodec;
 import com.google.gson.Gson;
-import io.lettuce.core.codec.RedisCodec;
-import java.nio.ByteBuffer;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Simple json codec using gson, for entries in redis.
  * @author Raffaele Ragni
  * @param <T> type of the object in redis
  */
-public class GsonRedisCodec<T> implements RedisCodec<String, T> {
-
-  private final Gson gson;
-  private final Class<T> clazz;
+public class GsonRedisCodec<T> extends RedisValueCodec<T> {
 
   public GsonRedisCodec(Class<T> clazz, Gson gson) {
-    this.gson = gson;
-    this.clazz = clazz;
-  }
-
-  @Override
-  public String decodeKey(ByteBuffer bytes) {
-    return UTF_8.decode(bytes).toString();
-  }
-
-  @Override
-  public ByteBuffer encodeKey(String key) {
-    return UTF_8.encode(key);
-  }
-
-  @Override
-  public T decodeValue(ByteBuffer bytes) {
-    return gson.fromJson(UTF_8.decode(bytes).toString(), clazz);
-  }
-
-  @Override
-  public ByteBuffer encodeValue(T value) {
-    return UTF_8.encode(gson.toJson(value));
+    // Resolving the adapter early reports at startup if this type falls back to reflection.
+    super(new JsonCodec<>(gson, clazz));
   }
 
 }
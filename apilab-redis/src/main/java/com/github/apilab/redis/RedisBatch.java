@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Pipelines commands on a connection of its own: commands are buffered and written
+ * together once maxCommands are pending, or when the window since the first of them has passed.
+ * Results come back as futures, there is no round trip per command.
+ *
+ * Usage:
+ * <pre>
+ *   var a = batch.submit(c -&gt; c.get("a"));
+ *   var b = batch.submit(c -&gt; c.incr("b"));
+ * </pre>
+ * @author Raffaele Ragni
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class RedisBatch<K, V> implements AutoCloseable {
+
+  private final StatefulRedisConnection<K, V> connection;
+  private final RedisAsyncCommands<K, V> commands;
+  private final ScheduledExecutorService scheduler;
+  private final int maxCommands;
+  private final long windowNanos;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * @param connection a connection used only by this batch, auto flush is turned off on it
+   * @param scheduler runs the flushes by time
+   * @param maxCommands how many commands are buffered at most before flushing
+   * @param window how long a command is buffered at most
+   */
+  public RedisBatch(
+      StatefulRedisConnection<K, V> connection,
+      ScheduledExecutorService scheduler,
+      int maxCommands,
+      Duration window) {
+    this.connection = connection;
+    this.commands = connection.async();
+    this.scheduler = scheduler;
+    this.maxCommands = Math.max(1, maxCommands);
+    this.windowNanos = window.toNanos();
+    connection.setAutoFlushCommands(false);
+  }
+
+  /**
+   * @param <R> type of the result
+   * @param command issues one command, or more, on the async api
+   * @return the future of the command
+   */
+  public <R> RedisFuture<R> submit(Function<RedisAsyncCommands<K, V>, RedisFuture<R>> command) {
+    var future = command.apply(commands);
+    if (pending.incrementAndGet() >= maxCommands) {
+      flush();
+    } else if (scheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::flushByTime, windowNanos, TimeUnit.NANOSECONDS);
+    }
+    return future;
+  }
+
+  /**
+   * Writes the pending commands now.
+   */
+  public void flush() {
+    pending.set(0);
+    connection.flushCommands();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    connection.close();
+  }
+
+  private void flushByTime() {
+    scheduled.set(false);
+    if (pending.get() > 0) {
+      flush();
+    }
+  }
+}
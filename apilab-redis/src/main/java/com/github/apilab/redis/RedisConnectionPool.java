@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.support.AsyncConnectionPoolSupport;
+import io.lettuce.core.support.AsyncPool;
+import io.lettuce.core.support.BoundedPoolConfig;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Pool of redis connections, for the commands that need a connection for themselves:
+ * blocking commands (BLPOP and so on) and transactions (MULTI/EXEC, WATCH).
+ * For everything else the shared connection is better, lettuce connections are thread safe.
+ *
+ * Callers wait up to the timeout for a free connection instead of failing when the pool is exhausted.
+ * @author Raffaele Ragni
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class RedisConnectionPool<K, V> implements AutoCloseable {
+
+  private final AsyncPool<StatefulRedisConnection<K, V>> pool;
+  private final Semaphore permits;
+  private final Duration timeout;
+
+  public RedisConnectionPool(
+      RedisClient client,
+      RedisURI uri,
+      RedisCodec<K, V> codec,
+      BoundedPoolConfig config,
+      Duration timeout) {
+    this(AsyncConnectionPoolSupport.createBoundedObjectPool(
+      () -> client.connectAsync(codec, uri), config), config.getMaxTotal(), timeout);
+  }
+
+  RedisConnectionPool(AsyncPool<StatefulRedisConnection<K, V>> pool, int size, Duration timeout) {
+    this.pool = pool;
+    this.permits = new Semaphore(size, true);
+    this.timeout = timeout;
+  }
+
+  /**
+   * Runs the function with a connection taken from the pool, and releases it after.
+   * @param <R> type of the result
+   * @param fn the function using the connection, it must not keep it
+   * @return what the function returned
+   */
+  public <R> R withConnection(Function<StatefulRedisConnection<K, V>, R> fn) {
+    acquirePermit();
+    try {
+      var connection = join(pool.acquire());
+      try {
+        return fn.apply(connection);
+      } finally {
+        pool.release(connection);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  @Override
+  public void close() {
+    pool.close();
+  }
+
+  private void acquirePermit() {
+    try {
+      if (!permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+        throw new IllegalStateException("No redis connection available in " + timeout);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+}
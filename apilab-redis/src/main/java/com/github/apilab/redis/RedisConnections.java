@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.codec.Codecs;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Typed redis commands, with string keys and values of the given type in the format chosen
+ * by {@link Codecs} for it (json unless registered otherwise).
+ *
+ * One connection is opened per type and shared by all the callers, lettuce connections are thread safe.
+ * The async and reactive commands do not block the calling thread, so they compose with
+ * non blocking http handlers and grpc stubs:
+ * <pre>
+ *   connections.async(Order.class).get(id).thenAccept(...)
+ *   connections.reactive(Order.class).get(id).map(...)
+ * </pre>
+ * @author Raffaele Ragni
+ */
+@Singleton
+public class RedisConnections {
+
+  private final RedisClient redis;
+  private final Codecs codecs;
+  private final Map<Class<?>, StatefulRedisConnection<String, ?>> connections = new ConcurrentHashMap<>();
+
+  @Inject
+  public RedisConnections(RedisClient redis, Codecs codecs) {
+    this.redis = redis;
+    this.codecs = codecs;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> StatefulRedisConnection<String, T> connection(Class<T> type) {
+    return (StatefulRedisConnection<String, T>) connections.computeIfAbsent(type,
+      t -> redis.connect(new RedisValueCodec<>(codecs.codec(type))));
+  }
+
+  public <T> RedisCommands<String, T> sync(Class<T> type) {
+    return connection(type).sync();
+  }
+
+  public <T> RedisAsyncCommands<String, T> async(Class<T> type) {
+    return connection(type).async();
+  }
+
+  public <T> RedisReactiveCommands<String, T> reactive(Class<T> type) {
+    return connection(type).reactive();
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bounded cache of the keys seen by a codec, so that a repeated key set is decoded to the same
+ * String instances and encoded to the same bytes instead of allocating them on every call.
+ *
+ * Direct mapped: a slot is picked by hash and a colliding key just replaces the previous one.
+ * Entries are immutable so slots can be read and written by any thread without locking.
+ * @author Raffaele Ragni
+ */
+final class RedisKeyCache {
+
+  static final int DEFAULT_SIZE = 1024;
+  // Long keys are rarely repeated, and hashing them costs more than decoding.
+  static final int MAX_KEY_BYTES = 128;
+
+  private final Entry[] byBytes;
+  private final Entry[] byKey;
+  private final int mask;
+
+  RedisKeyCache(int size) {
+    var slots = Integer.highestOneBit(Math.max(1, size - 1) << 1);
+    this.byBytes = new Entry[slots];
+    this.byKey = new Entry[slots];
+    this.mask = slots - 1;
+  }
+
+  /**
+   * @param bytes the key, its position is moved to the limit
+   * @return the key as string
+   */
+  String decode(ByteBuffer bytes) {
+    if (bytes.remaining() > MAX_KEY_BYTES) {
+      return UTF_8.decode(bytes).toString();
+    }
+    var slot = slot(bytes.hashCode());
+    var entry = byBytes[slot];
+    if (entry == null || !entry.bytes.equals(bytes)) {
+      var copy = new byte[bytes.remaining()];
+      bytes.duplicate().get(copy);
+      entry = new Entry(new String(copy, UTF_8), copy);
+      byBytes[slot] = entry;
+    }
+    bytes.position(bytes.limit());
+    return entry.key;
+  }
+
+  /**
+   * @param key the key
+   * @return a read only buffer with the key bytes, shared with other callers
+   */
+  ByteBuffer encode(String key) {
+    if (key.length() > MAX_KEY_BYTES) {
+      return UTF_8.encode(key);
+    }
+    var slot = slot(key.hashCode());
+    var entry = byKey[slot];
+    if (entry == null || !entry.key.equals(key)) {
+      entry = new Entry(key, key.getBytes(UTF_8));
+      byKey[slot] = entry;
+    }
+    return entry.bytes.duplicate();
+  }
+
+  private int slot(int hash) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private static final class Entry {
+    final String key;
+    final ByteBuffer bytes;
+
+    Entry(String key, byte[] bytes) {
+      this.key = key;
+      this.bytes = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+  }
+}
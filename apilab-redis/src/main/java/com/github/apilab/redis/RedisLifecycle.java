@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.ApplicationLifecycleItem;
+import io.lettuce.core.RedisClient;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closes the redis client on stop, and with it all the connections opened from it:
+ * the shared one, the pool, the batches and the near caches.
+ * @author Raffaele Ragni
+ */
+public class RedisLifecycle implements ApplicationLifecycleItem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RedisLifecycle.class);
+
+  @Inject RedisClient redis;
+
+  @Inject
+  public RedisLifecycle() {
+    ///
+  }
+
+  @Override
+  public void start() {
+    ///
+  }
+
+  @Override
+  public void stop() {
+    LOG.info("## REDIS CLIENT SHUTDOWN");
+    redis.shutdown();
+  }
+
+}
@@ -15,41 +15,131 @@
  */
 package com.github.apilab.redis;
 
+import com.github.apilab.core.ApplicationLifecycleItem;
 import com.github.apilab.core.Env;
 import dagger.Provides;
 import dagger.multibindings.IntoMap;
+import dagger.multibindings.IntoSet;
 import dagger.multibindings.StringKey;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.support.BoundedPoolConfig;
+import java.time.Duration;
 import static java.util.Optional.ofNullable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Provides the redis client, a shared connection with its async and reactive commands,
+ * a pool of connections and a batch. Typed commands are in {@link RedisConnections}.
+ *
+ * Env:
+ * - API_REDIS_URL: defaults to redis://localhost
+ * - API_REDIS_POOL_SIZE: max connections in the pool, defaults to 8
+ * - API_REDIS_POOL_MIN_IDLE: connections kept open in the pool, defaults to 0
+ * - API_REDIS_POOL_TIMEOUT: how long to wait for a connection of the pool, defaults to 5s
+ * - API_REDIS_BATCH_SIZE: commands buffered before flushing a batch, defaults to 64
+ * - API_REDIS_BATCH_WINDOW: how long commands are buffered in a batch, defaults to 2ms
+ * - API_REDIS_HEALTH_TIMEOUT: how long the health check waits for a PONG, defaults to 2s
  *
  * @author Raffaele Ragni
  */
 @dagger.Module
 public class RedisModule {
+  private static final Logger LOG = LoggerFactory.getLogger(RedisModule.class);
+
+  @Provides
+  @Singleton
+  @IntoSet
+  public ApplicationLifecycleItem lifecycle(RedisLifecycle lifecycle) {
+    return lifecycle;
+  }
 
   @Provides
   @Named("healthChecks")
   @IntoMap
   @StringKey("redis")
-  public Supplier<Boolean> dbHealthCheck(RedisClient redis) {
-    // A 'connection' of lettuce is one instance of a client, and
-    // it can auto reconnect when it goes down, making effectively
-    // the object a client handle, even if the method is called 'connect'
-    // This avoids creating resources every time ending up in memory leaks otherwise.
-    var redisHandle = redis.connect();
-    return () -> redisHandle.sync().ping().equalsIgnoreCase("pong");
+  public Supplier<Boolean> dbHealthCheck(StatefulRedisConnection<String, String> redisHandle, Env env) {
+    var timeout = env.getDuration(() -> "API_REDIS_HEALTH_TIMEOUT", Duration.ofSeconds(2));
+    return () -> checkRedis(redisHandle, timeout);
+  }
+
+  public static boolean checkRedis(StatefulRedisConnection<String, String> redisHandle, Duration timeout) {
+    try {
+      return redisHandle.async().ping().get(timeout.toMillis(), TimeUnit.MILLISECONDS).equalsIgnoreCase("pong");
+    } catch (ExecutionException | TimeoutException | RuntimeException ex) {
+      LOG.error(ex.getMessage(), ex);
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Provides
+  @Singleton
+  public RedisURI redisURI(Env env) {
+    return RedisURI.create(ofNullable(env.get(() -> "API_REDIS_URL")).orElse("redis://localhost"));
   }
 
   @Provides
   @Singleton
   public RedisClient redisClient(Env env) {
-    var url = ofNullable(env.get(() -> "API_REDIS_URL")).orElse("redis://localhost");
-    return RedisClient.create(url);
+    return RedisClient.create(redisURI(env));
+  }
+
+  /**
+   * A 'connection' of lettuce is thread safe and auto reconnects when it goes down,
+   * making effectively the object a client handle, even if the method is called 'connect'.
+   * This one is shared by the whole application, for all non blocking and non transactional commands.
+   */
+  @Provides
+  @Singleton
+  public StatefulRedisConnection<String, String> redisConnection(RedisClient redis) {
+    return redis.connect();
+  }
+
+  @Provides
+  public RedisAsyncCommands<String, String> redisAsyncCommands(StatefulRedisConnection<String, String> connection) {
+    return connection.async();
+  }
+
+  @Provides
+  public RedisReactiveCommands<String, String> redisReactiveCommands(StatefulRedisConnection<String, String> connection) {
+    return connection.reactive();
+  }
+
+  @Provides
+  @Singleton
+  public RedisConnectionPool<String, String> redisConnectionPool(RedisClient redis, RedisURI uri, Env env) {
+    var size = env.getInt(() -> "API_REDIS_POOL_SIZE", 8);
+    var config = BoundedPoolConfig.builder()
+      .maxTotal(size)
+      .maxIdle(size)
+      .minIdle(env.getInt(() -> "API_REDIS_POOL_MIN_IDLE", 0))
+      .build();
+    var timeout = env.getDuration(() -> "API_REDIS_POOL_TIMEOUT", Duration.ofSeconds(5));
+    return new RedisConnectionPool<>(redis, uri, StringCodec.UTF8, config, timeout);
+  }
+
+  @Provides
+  @Singleton
+  public RedisBatch<String, String> redisBatch(RedisClient redis, Env env) {
+    return new RedisBatch<>(
+      redis.connect(),
+      redis.getResources().eventExecutorGroup(),
+      env.getInt(() -> "API_REDIS_BATCH_SIZE", 64),
+      env.getDuration(() -> "API_REDIS_BATCH_WINDOW", Duration.ofMillis(2)));
   }
 
 }
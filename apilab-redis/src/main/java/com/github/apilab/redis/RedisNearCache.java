@@ -0,0 +1,348 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.ApplicationLifecycleItem;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.prometheus.client.Counter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import static java.util.Optional.ofNullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Typed read-through/write-through cache on redis, with an in-process L1 in front of it.
+ * Hot keys cost a map lookup instead of a round trip. Only reads fill L1, writes drop the entry.
+ *
+ * L1 is bounded in size and time, eviction is a CLOCK (second chance) over the entries,
+ * so that hits never take a lock. Entries are invalidated by redis keyspace notifications,
+ * which need to be enabled on the server: notify-keyspace-events has to contain K and A
+ * (or all of g, $, x and e). Without them entries are only refreshed when their ttl expires.
+ * Until this item is started, and while the notifications connection is down, L1 is bypassed.
+ *
+ * Metrics: apilab_redis_near_cache_requests_total{cache, result} and
+ * apilab_redis_near_cache_evictions_total{cache, cause}.
+ * @author Raffaele Ragni
+ * @param <T> type of the values
+ */
+public class RedisNearCache<T> implements ApplicationLifecycleItem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RedisNearCache.class);
+
+  private static final Counter REQUESTS = Counter.build()
+    .name("apilab_redis_near_cache_requests_total")
+    .help("Reads of the redis near caches, by result: hit or miss")
+    .labelNames("cache", "result")
+    .register();
+  private static final Counter EVICTIONS = Counter.build()
+    .name("apilab_redis_near_cache_evictions_total")
+    .help("Entries removed from the redis near caches, by cause: size, expired or invalidated")
+    .labelNames("cache", "cause")
+    .register();
+
+  private static final int WRITE_LOCKS = 64;
+
+  private final RedisClient client;
+  private final RedisCodec<String, T> codec;
+  private final RedisNearCacheOptions options;
+  private final String channelPrefix;
+  private final long ttlNanos;
+
+  private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+  private final Deque<Entry<T>> clock = new ArrayDeque<>();
+  private final Object[] writeLocks = new Object[WRITE_LOCKS];
+  // Bumped on every change, a read that raced with one does not fill L1 with what it read.
+  private final AtomicLong changes = new AtomicLong();
+  private final ConnectionListener connectionListener = new ConnectionListener();
+
+  private final Counter.Child hits;
+  private final Counter.Child misses;
+  private final Counter.Child evictedSize;
+  private final Counter.Child evictedExpired;
+  private final Counter.Child evictedInvalidated;
+
+  private volatile StatefulRedisConnection<String, T> connection;
+  private volatile StatefulRedisPubSubConnection<String, String> notifications;
+  private volatile boolean tracking;
+
+  public RedisNearCache(RedisClient client, RedisCodec<String, T> codec, RedisNearCacheOptions options) {
+    this.client = Objects.requireNonNull(client);
+    this.codec = Objects.requireNonNull(codec);
+    this.options = Objects.requireNonNull(options);
+    this.channelPrefix = "__keyspace@" + options.database() + "__:";
+    this.ttlNanos = options.ttl().toNanos();
+    for (int i = 0; i < WRITE_LOCKS; i++) {
+      writeLocks[i] = new Object();
+    }
+    hits = REQUESTS.labels(options.name(), "hit");
+    misses = REQUESTS.labels(options.name(), "miss");
+    evictedSize = EVICTIONS.labels(options.name(), "size");
+    evictedExpired = EVICTIONS.labels(options.name(), "expired");
+    evictedInvalidated = EVICTIONS.labels(options.name(), "invalidated");
+  }
+
+  /**
+   * @param key the key, without the prefix
+   * @return the value, from L1 if present, otherwise from redis
+   */
+  public Optional<T> get(String key) {
+    var redisKey = options.prefix() + key;
+    var entry = entries.get(redisKey);
+    if (entry != null) {
+      if (entry.expiresAt - System.nanoTime() > 0) {
+        if (!entry.referenced) {
+          entry.referenced = true;
+        }
+        hits.inc();
+        return Optional.of(entry.value);
+      }
+      if (entries.remove(redisKey, entry)) {
+        evictedExpired.inc();
+      }
+    }
+    misses.inc();
+    var version = changes.get();
+    var value = commands().get(redisKey);
+    if (value != null && tracking) {
+      var filled = new Entry<>(redisKey, value, System.nanoTime() + ttlNanos);
+      admit(filled);
+      if (changes.get() != version) {
+        entries.remove(redisKey, filled);
+      }
+    }
+    return ofNullable(value);
+  }
+
+  /**
+   * Writes in redis, and drops the key from L1: the next get reads it back.
+   * Filling L1 here would race with the notification of the same write, which does not say
+   * who wrote, and with other clients' writes of the key landing in between.
+   * @param key the key, without the prefix
+   * @param value the value
+   */
+  public void put(String key, T value) {
+    Objects.requireNonNull(value);
+    var redisKey = options.prefix() + key;
+    synchronized (writeLock(redisKey)) {
+      commands().set(redisKey, value);
+      changes.incrementAndGet();
+      entries.remove(redisKey);
+    }
+  }
+
+  /**
+   * Deletes from redis and from L1.
+   * @param key the key, without the prefix
+   */
+  public void remove(String key) {
+    var redisKey = options.prefix() + key;
+    synchronized (writeLock(redisKey)) {
+      commands().del(redisKey);
+      changes.incrementAndGet();
+      entries.remove(redisKey);
+    }
+  }
+
+  /**
+   * @return how many entries are in L1.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public Set<Class<? extends ApplicationLifecycleItem>> dependsOn() {
+    // Stopped before the client is shut down.
+    return Set.of(RedisLifecycle.class);
+  }
+
+  @Override
+  public synchronized void start() {
+    if (connection != null) {
+      return;
+    }
+    connection = client.connect(codec);
+    notifications = client.connectPubSub();
+    client.addListener(connectionListener);
+    checkNotifications();
+    notifications.addListener(new RedisPubSubAdapter<>() {
+      @Override
+      public void message(String pattern, String channel, String message) {
+        invalidate(channel.substring(channelPrefix.length()));
+      }
+
+      @Override
+      public void psubscribed(String pattern, long count) {
+        // Also called when lettuce subscribes again after a reconnection.
+        tracking = true;
+      }
+    });
+    notifications.sync().psubscribe(channelPrefix + escapeGlob(options.prefix()) + "*");
+    tracking = true;
+    LOG.info("## REDIS NEAR CACHE {} STARTED", options.name());
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (connection == null) {
+      return;
+    }
+    tracking = false;
+    client.removeListener(connectionListener);
+    notifications.close();
+    connection.close();
+    notifications = null;
+    connection = null;
+    clear();
+  }
+
+  private void checkNotifications() {
+    try {
+      var flags = notifications.sync().configGet("notify-keyspace-events")
+        .getOrDefault("notify-keyspace-events", "");
+      if (!notificationsEnabled(flags)) {
+        LOG.warn("## REDIS NEAR CACHE {}: notify-keyspace-events is '{}', L1 entries are only refreshed by their ttl",
+          options.name(), flags);
+      }
+    } catch (RedisException ex) {
+      // CONFIG is often not allowed on managed servers, there is no way to check.
+      LOG.warn("## REDIS NEAR CACHE {}: cannot check notify-keyspace-events: {}", options.name(), ex.getMessage());
+    }
+  }
+
+  /**
+   * @param flags the notify-keyspace-events of the server
+   * @return true if they include every change of a key: writes, deletes, expirations and evictions
+   */
+  static boolean notificationsEnabled(String flags) {
+    return flags.contains("K") && (flags.contains("A") || "g$xe".chars().allMatch(c -> flags.indexOf(c) >= 0));
+  }
+
+  /**
+   * @param text a literal part of a pattern
+   * @return the text with the glob characters of redis patterns escaped
+   */
+  static String escapeGlob(String text) {
+    var escaped = new StringBuilder(text.length());
+    for (var c : text.toCharArray()) {
+      if ("*?[]\\".indexOf(c) >= 0) {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  // Writes to the same key are serialized, so that they reach redis and L1 in the same order.
+  private Object writeLock(String redisKey) {
+    return writeLocks[(redisKey.hashCode() & 0x7fffffff) % WRITE_LOCKS];
+  }
+
+  private RedisCommands<String, T> commands() {
+    var current = connection;
+    if (current == null) {
+      throw new IllegalStateException("Near cache " + options.name() + " is not started");
+    }
+    return current.sync();
+  }
+
+  void invalidate(String redisKey) {
+    changes.incrementAndGet();
+    if (entries.remove(redisKey) != null) {
+      evictedInvalidated.inc();
+    }
+  }
+
+  private void admit(Entry<T> entry) {
+    synchronized (clock) {
+      entries.put(entry.key, entry);
+      clock.addLast(entry);
+      // Tokens of entries removed or replaced stay in the clock until they come up,
+      // the second bound keeps them from piling up.
+      while (entries.size() > options.maxSize() || clock.size() > 2 * options.maxSize()) {
+        var candidate = clock.pollFirst();
+        if (candidate == null) {
+          break;
+        }
+        if (entries.get(candidate.key) != candidate) {
+          continue;
+        }
+        if (candidate.expiresAt - System.nanoTime() <= 0) {
+          if (entries.remove(candidate.key, candidate)) {
+            evictedExpired.inc();
+          }
+        } else if (candidate.referenced || entries.size() <= options.maxSize()) {
+          candidate.referenced = false;
+          clock.addLast(candidate);
+        } else if (entries.remove(candidate.key, candidate)) {
+          evictedSize.inc();
+        }
+      }
+    }
+  }
+
+  private void clear() {
+    changes.incrementAndGet();
+    entries.clear();
+    synchronized (clock) {
+      clock.clear();
+    }
+  }
+
+  private final class ConnectionListener implements RedisConnectionStateListener {
+    @Override
+    public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+      if (handler == notifications) {
+        // Notifications are lost while disconnected, nothing in L1 can be trusted anymore.
+        tracking = false;
+        clear();
+      }
+    }
+
+    @Override
+    public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+      ///
+    }
+  }
+
+  private static final class Entry<T> {
+    final String key;
+    final T value;
+    final long expiresAt;
+    volatile boolean referenced;
+
+    Entry(String key, T value, long expiresAt) {
+      this.key = key;
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import java.time.Duration;
+import org.immutables.value.Value;
+import org.immutables.value.Value.Default;
+
+/**
+ * Options of a {@link RedisNearCache}.
+ *
+ * - name: required, used as label of the metrics.
+ * - prefix: prepended to all the keys, and only keys with this prefix are listened for changes.
+ * - maxSize: how many entries to hold in process at most.
+ * - ttl: how long an entry is held in process, it bounds the staleness if a notification is lost.
+ * - database: the redis database in use, to listen to the right notifications.
+ *
+ * @author Raffaele Ragni
+ */
+@Value.Immutable
+public interface RedisNearCacheOptions {
+  String name();
+  @Default default String prefix() { return ""; }
+  @Default default int maxSize() { return 10_000; }
+  @Default default Duration ttl() { return Duration.ofMinutes(1); }
+  @Default default int database() { return 0; }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.codec.Codec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.ToByteBufEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Objects;
+
+/**
+ * Redis codec with string keys and values in the format of the given codec.
+ * Values are decoded straight from the buffer given by lettuce, and encoded straight into the
+ * pooled buffers of the connection: lettuce uses the ToByteBufEncoder methods when writing commands.
+ * Keys of repeated key sets are cached, see {@link RedisKeyCache}.
+ * @author Raffaele Ragni
+ * @param <T> type of the object in redis
+ */
+public class RedisValueCodec<T> implements RedisCodec<String, T>, ToByteBufEncoder<String, T> {
+
+  // Initial size of the buffer taken from the pool for a value, it grows if needed.
+  private static final int ESTIMATED_VALUE_SIZE = 256;
+
+  private final Codec<T> codec;
+  private final RedisKeyCache keys;
+
+  public RedisValueCodec(Codec<T> codec) {
+    this(codec, RedisKeyCache.DEFAULT_SIZE);
+  }
+
+  /**
+   * @param codec the format of the values
+   * @param keyCacheSize how many keys to cache, rounded to a power of two
+   */
+  public RedisValueCodec(Codec<T> codec, int keyCacheSize) {
+    this.codec = Objects.requireNonNull(codec);
+    this.keys = new RedisKeyCache(keyCacheSize);
+  }
+
+  @Override
+  public String decodeKey(ByteBuffer bytes) {
+    return keys.decode(bytes);
+  }
+
+  @Override
+  public ByteBuffer encodeKey(String key) {
+    return keys.encode(key);
+  }
+
+  @Override
+  public void encodeKey(String key, ByteBuf target) {
+    target.writeCharSequence(key, UTF_8);
+  }
+
+  @Override
+  public void encodeValue(T value, ByteBuf target) {
+    try {
+      codec.encode(value, new ByteBufOutputStream(target));
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public int estimateSize(Object keyOrValue) {
+    return keyOrValue instanceof String
+      ? ByteBufUtil.utf8MaxBytes((String) keyOrValue)
+      : ESTIMATED_VALUE_SIZE;
+  }
+
+  @Override
+  public T decodeValue(ByteBuffer bytes) {
+    return codec.decode(bytes);
+  }
+
+  @Override
+  public ByteBuffer encodeValue(T value) {
+    return ByteBuffer.wrap(codec.encode(value));
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package com.github.apilab.redis;
 
+import com.github.apilab.core.codec.CborCodec;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.util.Map;
@@ -50,4 +51,15 @@ class JacksonRedisCodecTest {
     assertThat("round trip encoding", result, is(map));
   }
 
-}
\ No newline at end of file
+  @Test
+  void testCborValue() {
+    var codec = new RedisValueCodec<Map>(new CborCodec<>(new Gson(), Map.class));
+
+    var map = Map.of("k1", "v1", "k2", "v21");
+
+    var result = codec.decodeValue(codec.encodeValue(map));
+
+    assertThat("round trip encoding", result, is(map));
+  }
+
+}
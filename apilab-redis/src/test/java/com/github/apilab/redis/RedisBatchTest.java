@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RedisBatchTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testBatch() {
+    var connection = mock(StatefulRedisConnection.class);
+    var commands = mock(RedisAsyncCommands.class);
+    var scheduler = mock(ScheduledExecutorService.class);
+    var future = mock(RedisFuture.class);
+    when(connection.async()).thenReturn(commands);
+    when(commands.get("a")).thenReturn(future);
+
+    RedisBatch<String, String> batch = new RedisBatch<>(connection, scheduler, 3, Duration.ofMillis(5));
+    verify(connection).setAutoFlushCommands(false);
+
+    assertThat("future of the command", batch.submit(c -> c.get("a")), is(future));
+    batch.submit(c -> c.get("a"));
+    verify(connection, times(0)).flushCommands();
+    var timer = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler, times(1)).schedule(timer.capture(), eq(5_000_000L), eq(TimeUnit.NANOSECONDS));
+
+    batch.submit(c -> c.get("a"));
+    verify(connection, times(1)).flushCommands();
+
+    timer.getValue().run();
+    verify(connection, times(1)).flushCommands();
+
+    batch.submit(c -> c.get("a"));
+    verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any());
+    timer.getValue().run();
+    verify(connection, times(2)).flushCommands();
+
+    batch.close();
+    verify(connection).close();
+  }
+
+}
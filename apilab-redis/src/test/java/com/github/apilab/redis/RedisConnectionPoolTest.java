@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.support.AsyncPool;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RedisConnectionPoolTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testPool() {
+    AsyncPool<StatefulRedisConnection<String, String>> asyncPool = mock(AsyncPool.class);
+    StatefulRedisConnection<String, String> connection = mock(StatefulRedisConnection.class);
+    when(asyncPool.acquire()).thenReturn(CompletableFuture.completedFuture(connection));
+    var pool = new RedisConnectionPool<>(asyncPool, 1, Duration.ofMillis(10));
+
+    var result = pool.withConnection(c -> c == connection);
+
+    assertThat("connection given", result, is(true));
+    verify(asyncPool).release(connection);
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> pool.withConnection(c -> {
+      throw new IllegalArgumentException();
+    }));
+    verify(asyncPool, times(2)).release(connection);
+
+    Assertions.assertThrows(IllegalStateException.class, () -> pool.withConnection(c ->
+      pool.withConnection(inner -> true)), "times out when exhausted");
+
+    pool.close();
+    verify(asyncPool).close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testAcquireFailure() {
+    AsyncPool<StatefulRedisConnection<String, String>> asyncPool = mock(AsyncPool.class);
+    when(asyncPool.acquire()).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("down")));
+    var pool = new RedisConnectionPool<>(asyncPool, 1, Duration.ofMillis(10));
+
+    var ex = Assertions.assertThrows(IllegalStateException.class, () -> pool.withConnection(c -> true));
+    assertThat("cause unwrapped", ex.getMessage(), is("down"));
+    ex = Assertions.assertThrows(IllegalStateException.class, () -> pool.withConnection(c -> true));
+    assertThat("permit given back, no timeout", ex.getMessage(), is("down"));
+  }
+
+}
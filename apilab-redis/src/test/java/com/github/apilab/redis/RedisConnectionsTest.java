@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.codec.Codecs;
+import com.google.gson.Gson;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.reactive.RedisReactiveCommands;
+import io.lettuce.core.RedisClient;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RedisConnectionsTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testTypedCommands() {
+    var client = mock(RedisClient.class);
+    var connection = mock(StatefulRedisConnection.class);
+    var async = mock(RedisAsyncCommands.class);
+    var reactive = mock(RedisReactiveCommands.class);
+    when(client.connect(any(RedisValueCodec.class))).thenReturn(connection);
+    when(connection.async()).thenReturn(async);
+    when(connection.reactive()).thenReturn(reactive);
+    var connections = new RedisConnections(client, new Codecs(new Gson()));
+
+    assertThat("async", connections.async(String.class), sameInstance(async));
+    assertThat("reactive", connections.reactive(String.class), sameInstance(reactive));
+    verify(client, times(1)).connect(any(RedisValueCodec.class));
+
+    connections.connection(Integer.class);
+    verify(client, times(2)).connect(any(RedisValueCodec.class));
+  }
+
+}
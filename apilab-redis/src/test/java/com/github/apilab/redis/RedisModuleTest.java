@@ -16,9 +16,19 @@
 package com.github.apilab.redis;
 
 import com.github.apilab.core.Env;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import org.junit.jupiter.api.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  *
@@ -28,8 +38,25 @@ class RedisModuleTest {
   @Test
   void testModule() {
     var module = new RedisModule();
-    var connection = module.redisClient(new Env());
-    var result = module.dbHealthCheck(connection).get();
+    var env = new Env();
+    var client = module.redisClient(env);
+    var result = module.dbHealthCheck(module.redisConnection(client), env).get();
     assertThat("Healthcheck OK", result, is(true));
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testHealthCheck() throws Exception {
+    var connection = mock(StatefulRedisConnection.class);
+    var async = mock(RedisAsyncCommands.class);
+    var ping = mock(RedisFuture.class);
+    when(connection.async()).thenReturn(async);
+    when(async.ping()).thenReturn(ping);
+    when(ping.get(anyLong(), any(TimeUnit.class))).thenReturn("PONG");
+
+    assertThat("up", RedisModule.checkRedis(connection, Duration.ofSeconds(1)), is(true));
+
+    when(ping.get(anyLong(), any(TimeUnit.class))).thenThrow(new TimeoutException());
+    assertThat("no answer in time", RedisModule.checkRedis(connection, Duration.ofSeconds(1)), is(false));
+  }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.google.gson.Gson;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.pubsub.RedisPubSubListener;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnectionImpl;
+import io.lettuce.core.pubsub.api.sync.RedisPubSubCommands;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RedisNearCacheTest {
+
+  RedisClient client;
+  RedisCommands<String, String> commands;
+  StatefulRedisPubSubConnectionImpl<String, String> notifications;
+  RedisPubSubCommands<String, String> notificationCommands;
+  GsonRedisCodec<String> codec = new GsonRedisCodec<>(String.class, new Gson());
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setup() {
+    client = mock(RedisClient.class);
+    var connection = mock(StatefulRedisConnection.class);
+    commands = mock(RedisCommands.class);
+    notifications = mock(StatefulRedisPubSubConnectionImpl.class);
+    notificationCommands = mock(RedisPubSubCommands.class);
+    when(client.connect(codec)).thenReturn(connection);
+    when(connection.sync()).thenReturn(commands);
+    when(client.connectPubSub()).thenReturn(notifications);
+    when(notifications.sync()).thenReturn(notificationCommands);
+    when(notificationCommands.configGet("notify-keyspace-events"))
+      .thenReturn(Map.of("notify-keyspace-events", "KA"));
+  }
+
+  RedisNearCache<String> cache(int maxSize, Duration ttl) {
+    return new RedisNearCache<>(client, codec, ImmutableRedisNearCacheOptions.builder()
+      .name("test")
+      .prefix("p:")
+      .maxSize(maxSize)
+      .ttl(ttl)
+      .build());
+  }
+
+  @SuppressWarnings("unchecked")
+  RedisPubSubListener<String, String> listener() {
+    var captor = ArgumentCaptor.forClass(RedisPubSubListener.class);
+    verify(notifications).addListener(captor.capture());
+    return captor.getValue();
+  }
+
+  @Test
+  void testNotStarted() {
+    var cache = cache(10, Duration.ofMinutes(1));
+    Assertions.assertThrows(IllegalStateException.class, () -> cache.get("a"));
+  }
+
+  @Test
+  void testReadThrough() {
+    var cache = cache(10, Duration.ofMinutes(1));
+    cache.start();
+    when(commands.get("p:a")).thenReturn("value");
+
+    assertThat("miss", cache.get("a"), is(Optional.of("value")));
+    assertThat("hit", cache.get("a"), is(Optional.of("value")));
+    assertThat("missing", cache.get("b"), is(Optional.empty()));
+
+    verify(commands, times(1)).get("p:a");
+    verify(notificationCommands).psubscribe("__keyspace@0__:p:*");
+    cache.stop();
+    assertThat("cleared", cache.size(), is(0));
+  }
+
+  @Test
+  void testWriteThroughAndInvalidation() {
+    var cache = cache(10, Duration.ofMinutes(1));
+    cache.start();
+    var listener = listener();
+
+    when(commands.get("p:a")).thenReturn("old");
+    cache.get("a");
+    assertThat("filled by the read", cache.size(), is(1));
+
+    cache.put("a", "mine");
+    verify(commands).set("p:a", "mine");
+    assertThat("writes do not fill L1", cache.size(), is(0));
+    when(commands.get("p:a")).thenReturn("mine");
+    assertThat("read back", cache.get("a"), is(Optional.of("mine")));
+    verify(commands, times(2)).get("p:a");
+
+    when(commands.get("p:a")).thenReturn("theirs");
+    listener.message("__keyspace@0__:p:*", "__keyspace@0__:p:a", "set");
+
+    assertThat("every write invalidates", cache.get("a"), is(Optional.of("theirs")));
+    verify(commands, times(3)).get("p:a");
+
+    cache.remove("a");
+    verify(commands).del("p:a");
+    assertThat("removed", cache.size(), is(0));
+  }
+
+  @Test
+  void testEviction() {
+    var cache = cache(2, Duration.ofMinutes(1));
+    cache.start();
+    when(commands.get("p:a")).thenReturn("1");
+    when(commands.get("p:b")).thenReturn("2");
+    when(commands.get("p:c")).thenReturn("3");
+    cache.get("a");
+    cache.get("b");
+    cache.get("a");
+    cache.get("c");
+
+    assertThat("bounded", cache.size(), is(2));
+    cache.get("a");
+    cache.get("b");
+    verify(commands, times(1)).get("p:a");
+    verify(commands, times(2)).get("p:b");
+  }
+
+  @Test
+  void testExpiration() {
+    var cache = cache(10, Duration.ZERO);
+    cache.start();
+    when(commands.get("p:a")).thenReturn("value");
+
+    cache.get("a");
+    cache.get("a");
+
+    verify(commands, times(2)).get("p:a");
+  }
+
+  @Test
+  void testNotificationsDisabled() {
+    when(notificationCommands.configGet("notify-keyspace-events"))
+      .thenReturn(Map.of("notify-keyspace-events", "K$"));
+    var cache = cache(10, Duration.ofMinutes(1));
+    cache.start();
+    when(commands.get("p:a")).thenReturn("value");
+
+    cache.get("a");
+    cache.get("a");
+
+    assertThat("ttl only L1", cache.size(), is(1));
+    verify(commands, times(1)).get("p:a");
+  }
+
+  @Test
+  void testPatternEscaped() {
+    var cache = new RedisNearCache<>(client, codec, ImmutableRedisNearCacheOptions.builder()
+      .name("test")
+      .prefix("user[*]?:")
+      .build());
+    cache.start();
+
+    verify(notificationCommands).psubscribe("__keyspace@0__:user\\[\\*\\]\\?:*");
+    assertThat("backslash", RedisNearCache.escapeGlob("a\\b"), is("a\\\\b"));
+    assertThat("plain", RedisNearCache.escapeGlob("p:"), is("p:"));
+  }
+
+  @Test
+  void testNotificationFlags() {
+    assertThat("all", RedisNearCache.notificationsEnabled("KA"), is(true));
+    assertThat("each class", RedisNearCache.notificationsEnabled("Kg$xe"), is(true));
+    assertThat("no deletes", RedisNearCache.notificationsEnabled("K$xe"), is(false));
+    assertThat("strings only", RedisNearCache.notificationsEnabled("K$"), is(false));
+    assertThat("no keyspace", RedisNearCache.notificationsEnabled("EA"), is(false));
+    assertThat("none", RedisNearCache.notificationsEnabled(""), is(false));
+  }
+
+  @Test
+  void testDisconnection() {
+    var cache = cache(10, Duration.ofMinutes(1));
+    cache.start();
+    var captor = ArgumentCaptor.forClass(RedisConnectionStateListener.class);
+    verify(client).addListener(captor.capture());
+    when(commands.get("p:a")).thenReturn("value");
+    cache.get("a");
+
+    captor.getValue().onRedisDisconnected(null);
+    assertThat("other connections do not matter", cache.size(), is(1));
+
+    captor.getValue().onRedisDisconnected(notifications);
+    assertThat("L1 cleared", cache.size(), is(0));
+    cache.get("a");
+    assertThat("L1 bypassed while disconnected", cache.size(), is(0));
+
+    listener().psubscribed("__keyspace@0__:p:*", 1);
+    cache.get("a");
+    assertThat("L1 back on", cache.size(), is(1));
+    verify(client).connectPubSub();
+    verify(notifications, times(0)).close();
+    cache.stop();
+    verify(notifications).close();
+    verify(client).removeListener(any());
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Raffaele Ragni.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.apilab.redis;
+
+import com.github.apilab.core.codec.JsonCodec;
+import com.google.gson.Gson;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Raffaele Ragni
+ */
+class RedisValueCodecTest {
+
+  @Test
+  void testKeyCache() {
+    var codec = new RedisValueCodec<>(new JsonCodec<>(new Gson(), Map.class));
+
+    var buffer = ByteBuffer.allocateDirect(16).put("user:1".getBytes(UTF_8)).flip();
+    var first = codec.decodeKey(buffer);
+    var second = codec.decodeKey(ByteBuffer.wrap("user:1".getBytes(UTF_8)));
+    var other = codec.decodeKey(ByteBuffer.wrap("user:2".getBytes(UTF_8)));
+
+    assertThat("decoded", first, is("user:1"));
+    assertThat("buffer consumed", buffer.hasRemaining(), is(false));
+    assertThat("repeated key is the same instance", second, sameInstance(first));
+    assertThat("other key", other, is("user:2"));
+
+    var encoded = codec.encodeKey("user:1");
+    encoded.get();
+    assertThat("cached bytes are not consumed by callers", codec.encodeKey("user:1").remaining(), is(6));
+  }
+
+  @Test
+  void testLongKeys() {
+    var codec = new RedisValueCodec<>(new JsonCodec<>(new Gson(), Map.class), 1);
+    var key = "k".repeat(RedisKeyCache.MAX_KEY_BYTES + 1);
+
+    var first = codec.decodeKey(codec.encodeKey(key));
+    var second = codec.decodeKey(codec.encodeKey(key));
+
+    assertThat("decoded", first, is(key));
+    assertThat("long keys are not cached", second, not(sameInstance(first)));
+    assertThat("colliding keys replace each other", codec.decodeKey(codec.encodeKey("a")), is("a"));
+    assertThat("colliding keys replace each other", codec.decodeKey(codec.encodeKey("b")), is("b"));
+  }
+
+  @Test
+  void testByteBuf() {
+    var codec = new RedisValueCodec<>(new JsonCodec<>(new Gson(), Map.class));
+    var target = Unpooled.directBuffer(codec.estimateSize(Map.of()));
+
+    codec.encodeValue(Map.of("a", "è"), target);
+    var result = codec.decodeValue(target.nioBuffer());
+    target.clear();
+    codec.encodeKey("chiave", target);
+
+    assertThat("value written in the buffer", result, is(Map.of("a", "è")));
+    assertThat("key written in the buffer", target.toString(UTF_8), is("chiave"));
+    assertThat("key estimate", codec.estimateSize("è"), is(3));
+  }
+
+}